@@ -0,0 +1,133 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.configuration;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirCapabilityService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.IssuerClient;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.IssuerRegistry;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.TokenService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Moves the one-off costs of the first launch and callback into application startup.
+ * <p>
+ * HAPI scans R4 model definitions lazily, so the resource types we use are initialized and
+ * round-tripped through a JSON parser while the context refreshes (this also happens during
+ * the AppCDS training run, so those classes end up in the archive). Upstream connections to
+ * the FHIR server and the token endpoint are then established by an application runner,
+ * which Spring Boot completes before the application reports readiness. This includes each
+ * registered issuer's own FHIR connection pool, which patient reads go through.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StartupWarmup implements SmartInitializingSingleton, ApplicationRunner {
+
+    private static final List<Class<? extends IBaseResource>> RESOURCE_TYPES =
+            List.of(Patient.class, CapabilityStatement.class, Bundle.class, OperationOutcome.class);
+
+    private static final String SAMPLE_PATIENT = """
+            {"resourceType":"Patient","id":"warmup","meta":{"versionId":"1"},
+             "identifier":[{"system":"urn:warmup","value":"0"}],
+             "name":[{"family":"Warmup","given":["Startup"]}],
+             "gender":"unknown","birthDate":"2000-01-01"}
+            """;
+
+    private final FhirContext fhirContext;
+    private final FhirCapabilityService fhirCapabilityService;
+    private final TokenService tokenService;
+    private final IssuerRegistry issuerRegistry;
+
+    @Value("${epic.fhir-base-url}")
+    private String fhirBaseUrl;
+
+    @Value("${warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${warmup.connections.enabled:true}")
+    private boolean connectionsEnabled;
+
+    @Value("${warmup.connections.timeout-ms:5000}")
+    private long connectionsTimeoutMs;
+
+    /**
+     * Pre-initializes the R4 model definitions and parsers once all singletons exist.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            RESOURCE_TYPES.forEach(fhirContext::getResourceDefinition);
+
+            IParser parser = fhirContext.newJsonParser();
+            Patient patient = parser.parseResource(Patient.class, SAMPLE_PATIENT);
+            parser.encodeResourceToString(patient);
+
+            log.info("Warmed up FHIR model definitions and parsers in {} ms", elapsedMillis(start));
+        } catch (Exception e) {
+            log.warn("FHIR model warm-up failed", e);
+        }
+    }
+
+    /**
+     * Establishes pooled connections to the FHIR server and the token endpoint,
+     * bounded by the configured timeout so an unreachable EHR cannot block startup.
+     *
+     * @param args application arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled || !connectionsEnabled) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> warmups = new ArrayList<>();
+        warmups.add(CompletableFuture.runAsync(() -> fhirCapabilityService.getAuthorizationEndpoint(fhirBaseUrl)));
+        warmups.add(CompletableFuture.runAsync(tokenService::warmUp));
+        for (IssuerClient issuerClient : issuerRegistry.getAll()) {
+            // No pre-warm bound at startup; the claim only pairs with the release in warmConnections()
+            if (issuerClient.tryClaimPrewarm(Integer.MAX_VALUE, 0)) {
+                warmups.add(CompletableFuture.runAsync(issuerClient::warmConnections));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(warmups.toArray(CompletableFuture[]::new))
+                    .get(connectionsTimeoutMs, TimeUnit.MILLISECONDS);
+            log.info("Warmed up upstream connections in {} ms", elapsedMillis(start));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            log.warn("Upstream connection warm-up did not complete within {} ms", connectionsTimeoutMs);
+        } catch (ExecutionException e) {
+            log.warn("Upstream connection warm-up failed after {} ms", elapsedMillis(start), e.getCause());
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
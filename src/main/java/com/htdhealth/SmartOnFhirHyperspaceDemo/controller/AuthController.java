@@ -1,19 +1,26 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.controller;
 
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.TokenResponse;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.AuditTrail;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.service.AuthService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.ConnectionPrewarmer;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.Deadline;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.DeadlineExceededException;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirService;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.service.SmartAuthorizationService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.StartupMetrics;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.service.TokenService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.hl7.fhir.r4.model.Patient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.util.UUID;
 
 /**
@@ -31,10 +38,16 @@ public class AuthController {
     private final TokenService tokenService;
     private final FhirService fhirService;
     private final AuthService authService;
+    private final StartupMetrics startupMetrics;
+    private final ConnectionPrewarmer connectionPrewarmer;
+    private final AuditTrail auditTrail;
 
     @Value("${epic.fhir-base-url}")
     private String fhirBaseUrl;
 
+    @Value("${upstream.deadline.callback-budget-ms:10000}")
+    private long callbackBudgetMs;
+
     /**
      * Handles EHR-launched SMART on FHIR application initialization.
      * This endpoint is called when the application is launched from within an EHR system,
@@ -42,6 +55,7 @@ public class AuthController {
      * <p>
      * This endpoint supports the "launch" pattern where the EHR provides context
      * about the current patient and user session through launch parameters.
+     * While the user is at the authorization server, the issuer's token and FHIR connections are pre-warmed.
      *
      * @param launch Optional launch context token provided by the EHR system
      * @param iss    Optional issuer URL identifying the FHIR authorization server
@@ -51,12 +65,13 @@ public class AuthController {
     @GetMapping("/launch")
     public ResponseEntity<Void> launch(@RequestParam(required = false) String launch,
                                        @RequestParam(required = false) String iss) {
-        log.info("Launch request received - launch: {}, iss: {}", launch, iss);
+        log.info("Launch request received - launch: {}, iss: {}", launch != null ? "present" : "null", iss);
 
         String state = UUID.randomUUID().toString();
         String scope = "launch launch/patient openid fhiruser profile patient/*.read";
 
         String authUrl = smartAuthorizationService.buildAuthorizationUrl(iss, state, scope, launch);
+        connectionPrewarmer.prewarm(iss);
 
         log.info("Redirecting to authorization URL {}", authUrl);
         return ResponseEntity.status(HttpStatus.FOUND)
@@ -76,8 +91,9 @@ public class AuthController {
      * @param error_description Optional human-readable error description
      * @return ResponseEntity containing:
      * - HTTP 302 redirect to patient import page (success with patient context)
-     * - HTTP 200 success message (success without patient context)
+     * - HTTP 200 success message with the session id (success without patient context)
      * - HTTP 400 error message (authorization failure or missing parameters)
+     * - HTTP 504 error message (the token exchange and patient read did not fit in the callback budget)
      */
     @GetMapping("/callback")
     public ResponseEntity<String> callback(@RequestParam(required = false) String code,
@@ -85,7 +101,7 @@ public class AuthController {
                                            @RequestParam(required = false) String error,
                                            @RequestParam(required = false) String error_description) {
         log.info("Authorization callback received - code: {}, state: {}, error: {}, error_description: {}",
-                code != null ? "present" : "null", state, error, error_description);
+                code != null ? "present" : "null", state != null ? "present" : "null", error, error_description);
 
         if (error != null) {
             log.error("Authorization error: {} - {}", error, error_description);
@@ -108,25 +124,40 @@ public class AuthController {
                     .body("Authorization failed: No state parameter received");
         }
 
-        try {
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(callbackBudgetMs)).attach()) {
             TokenResponse tokenResponse = tokenService.exchangeCodeForToken(code, state);
 
+            String sessionId = UUID.randomUUID().toString();
+            if (tokenResponse.getIdTokenClaims() != null) {
+                authService.putIdentity(sessionId, tokenResponse.getIdTokenClaims());
+            }
+
             if (tokenResponse.getPatient() != null) {
-                String sessionId = UUID.randomUUID().toString();
                 authService.putToken(sessionId, tokenResponse);
 
-                Patient patient = fhirService.getPatient(tokenResponse.getPatient(), tokenResponse.getAccessToken());
-                String patientName = fhirService.getPatientDisplayName(patient);
-
-                log.info("Authorization successful for patient: {} ({})", patientName, tokenResponse.getPatient());
+                try {
+                    fhirService.getPatient(tokenResponse.getIssuer(), tokenResponse.getPatient(),
+                            tokenResponse.getAccessToken());
+                } catch (RuntimeException e) {
+                    auditTrail.record(AuditRecord.Action.PATIENT_READ, tokenResponse, false);
+                    throw e;
+                }
+                auditTrail.record(AuditRecord.Action.PATIENT_READ, tokenResponse, true);
+                log.info("Authorization successful for patient {}", tokenResponse.getPatient());
+                startupMetrics.recordSuccessfulLogin();
 
                 return ResponseEntity.status(HttpStatus.FOUND)
                         .header("Location", "/patients/import?session=" + sessionId)
                         .build();
             } else {
-                return ResponseEntity.ok("Authorization successful! No patient context available.");
+                startupMetrics.recordSuccessfulLogin();
+                return ResponseEntity.ok("Authorization successful! No patient context available. Session: " + sessionId);
             }
 
+        } catch (DeadlineExceededException e) {
+            log.error("Authorization callback exceeded its deadline: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body("Authorization failed: the EHR did not respond in time");
         } catch (Exception e) {
             log.error("Authorization callback failed", e);
             return ResponseEntity.badRequest()
@@ -154,9 +185,26 @@ public class AuthController {
         String scope = "launch/patient openid fhiruser profile patient/*.read";
 
         String authUrl = smartAuthorizationService.buildAuthorizationUrl(fhirBaseUrl, state, scope, null);
+        connectionPrewarmer.prewarm(fhirBaseUrl);
 
         return ResponseEntity.status(HttpStatus.FOUND)
                 .header("Location", authUrl)
                 .build();
     }
+
+    /**
+     * Returns the verified identity of the user logged in to a session.
+     * The id_token claims were verified locally at login, so this does not call the issuer.
+     *
+     * @param session the session id
+     * @return the verified id_token claims, or HTTP 404 if the session has no verified identity
+     */
+    @GetMapping("/identity")
+    public ResponseEntity<IdTokenClaims> identity(@RequestParam String session) {
+        IdTokenClaims identity = authService.getIdentity(session);
+        if (identity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(identity);
+    }
 }
@@ -0,0 +1,145 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.controller;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportFailure;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportJobStatus;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientImportService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * REST controller for batch patient import jobs, run with the backend services client.
+ * Jobs are submitted as a JSON array of patient ids, a plain text list, or an uploaded file
+ * with one id per line (or a CSV file with the ids in the first column).
+ */
+@RestController
+@RequestMapping("/patients/import-jobs")
+@RequiredArgsConstructor
+@Slf4j
+public class ImportJobController {
+
+    private final PatientImportService patientImportService;
+
+    /**
+     * Queues an import job for a JSON array of patient ids.
+     *
+     * @param patientIds FHIR resource ids of the patients to import
+     * @return HTTP 202 with the job status, 400 for an invalid id list, 503 if no backend client is configured
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> submitIds(@RequestBody List<String> patientIds) {
+        return submit(patientIds);
+    }
+
+    /**
+     * Queues an import job for a plain text list of patient ids, one per line.
+     *
+     * @param body the id list
+     * @return HTTP 202 with the job status, 400 for an invalid id list, 503 if no backend client is configured
+     */
+    @PostMapping(consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> submitText(@RequestBody String body) {
+        return submit(PatientImportService.parseIds(body));
+    }
+
+    /**
+     * Queues an import job for an uploaded id file.
+     *
+     * @param file text or CSV file with one patient id per line
+     * @return HTTP 202 with the job status, 400 for an invalid id list, 503 if no backend client is configured
+     * @throws IOException if the upload cannot be read
+     */
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> submitFile(@RequestParam("file") MultipartFile file) throws IOException {
+        return submit(PatientImportService.parseIds(new String(file.getBytes(), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Lists all import jobs, oldest first.
+     *
+     * @return job statuses
+     */
+    @GetMapping
+    public ResponseEntity<List<ImportJobStatus>> jobs() {
+        return ResponseEntity.ok(patientImportService.getJobs());
+    }
+
+    /**
+     * Reports the progress and rate of an import job.
+     *
+     * @param jobId the job id
+     * @return the job status, or HTTP 404 for an unknown job
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<ImportJobStatus> status(@PathVariable String jobId) {
+        return ResponseEntity.of(patientImportService.getStatus(jobId));
+    }
+
+    /**
+     * Lists the patients an import job failed to import.
+     *
+     * @param jobId the job id
+     * @return the failures, or HTTP 404 for an unknown job
+     */
+    @GetMapping("/{jobId}/failures")
+    public ResponseEntity<List<ImportFailure>> failures(@PathVariable String jobId) {
+        return ResponseEntity.of(patientImportService.getFailures(jobId));
+    }
+
+    /**
+     * Cancels an import job.
+     *
+     * @param jobId the job id
+     * @return the job status, HTTP 404 for an unknown job, or 409 if the job cannot be cancelled
+     */
+    @PostMapping("/{jobId}/cancel")
+    public ResponseEntity<?> cancel(@PathVariable String jobId) {
+        return transition(() -> patientImportService.cancel(jobId));
+    }
+
+    /**
+     * Resumes a cancelled or failed import job.
+     *
+     * @param jobId the job id
+     * @return the job status, HTTP 404 for an unknown job, or 409 if the job cannot be resumed
+     */
+    @PostMapping("/{jobId}/resume")
+    public ResponseEntity<?> resume(@PathVariable String jobId) {
+        return transition(() -> patientImportService.resume(jobId));
+    }
+
+    private ResponseEntity<?> submit(Collection<String> patientIds) {
+        try {
+            ImportJobStatus status = patientImportService.submit(patientIds);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header("Location", "/patients/import-jobs/" + status.getId())
+                    .body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            log.warn("Rejected import job: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+    }
+
+    private ResponseEntity<?> transition(Supplier<Optional<ImportJobStatus>> action) {
+        try {
+            return action.get()
+                    .<ResponseEntity<?>>map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+}
@@ -1,19 +1,38 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.controller;
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.TokenResponse;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.AuditTrail;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.service.AuthService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.Deadline;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.DeadlineExceededException;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientEventBroadcaster;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientPageRenderer;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientSearchIndex;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Patient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 
 
@@ -23,149 +42,132 @@ import java.util.List;
 @Slf4j
 public class PatientsController {
 
+    private static final String HTML_UTF8 = "text/html;charset=UTF-8";
+
     private final FhirService fhirService;
     private final AuthService authService;
-    private final List<Patient> patientsStore = new ArrayList<>();
-
+    private final PatientStore patientStore;
+    private final PatientSearchIndex patientSearchIndex;
+    private final PatientPageRenderer patientPageRenderer;
+    private final PatientEventBroadcaster patientEventBroadcaster;
+    private final AuditTrail auditTrail;
+
+    @Value("${upstream.deadline.import-budget-ms:10000}")
+    private long importBudgetMs;
+
+    /**
+     * Lists all stored patients. The page is written straight from the renderer's cached,
+     * pre-encoded per-patient fragments. The page's ETag is the store's version tag, so a browser
+     * refreshing an unchanged list gets {@code 304 Not Modified} without the page being rendered.
+     *
+     * @param request  the servlet request, checked for {@code If-None-Match}
+     * @param response the servlet response to write the page to
+     * @throws IOException if writing the response fails
+     */
     @GetMapping("/all")
-    public ResponseEntity<String> allPatients() {
-        StringBuilder successHtml = new StringBuilder("""
-                <!DOCTYPE html>
-                <html>
-                <head>
-                    <title>SMART on FHIR Authentication Success</title>
-                    <style>
-                        body { font-family: Arial, sans-serif; margin: 40px; background-color: #f5f5f5; }
-                        .container { max-width: 600px; margin: 0 auto; background: white; padding: 30px; border-radius: 8px; box-shadow: 0 2px 10px rgba(0,0,0,0.1); }
-                        .success { color: #28a745; font-size: 24px; margin-bottom: 20px; }
-                        .patient-info { background: #f8f9fa; padding: 20px; border-radius: 5px; margin: 20px 0; }
-                        .field { margin: 10px 0; }
-                        .label { font-weight: bold; color: #495057; }
-                        .value { color: #212529; }
-                        .footer { margin-top: 30px; padding-top: 20px; border-top: 1px solid #dee2e6; color: #6c757d; font-size: 14px; }
-                    </style>
-                </head>
-                <body>
-                    <div class="container">
-                       <img src="https://mma.prnewswire.com/media/220268/availity_logo.jpg" width=200 />
-                """);
-        for (Patient patient : patientsStore) {
-            String patientName = fhirService.getPatientDisplayName(patient);
-            String patientId = patient.getIdElement().getIdPart();
-
-            String birthDate = patient.getBirthDate() != null ?
-                    patient.getBirthDate().toString() : "Not available";
-
-            String gender = patient.getGender() != null ?
-                    patient.getGender().getDisplay() : "Not specified";
-            successHtml.append("""
-                    <div class="patient-info">
-                                <h3>Patient Information</h3>
-                                <div class="field">
-                                    <span class="label">Name:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                                <div class="field">
-                                    <span class="label">Patient ID:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                                <div class="field">
-                                    <span class="label">Birth Date:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                                <div class="field">
-                                    <span class="label">Gender:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                            </div>
-                    """.formatted(patientName, patientId, birthDate, gender));
+    public void allPatients(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String etag = "W/\"" + patientStore.versionTag() + "\"";
+        response.setHeader("Cache-Control", "no-cache");
+        // Sets the ETag header, and answers 304 when it matches If-None-Match
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
         }
-        successHtml.append("""
-                    </div>
-                </body>
-                </html>
-                """);
-        return ResponseEntity.ok()
-                .header("Content-Type", "text/html")
-                .body(successHtml.toString());
 
+        PatientPageRenderer.RenderedPage page = patientPageRenderer.renderList(patientStore.findAll());
+
+        response.setContentType(HTML_UTF8);
+        response.setContentLengthLong(page.getContentLength());
+        page.writeTo(response.getOutputStream());
+    }
+
+    /**
+     * Streams newly stored patients as Server-Sent Events, used by the {@code /all} page to render only the deltas.
+     * Each {@code patient} event carries the patient id and its rendered fragment; a {@code resync} event tells
+     * a client that fell behind to reload the full list.
+     *
+     * @return the event stream, or HTTP 503 if too many streams are open
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> patientEvents() {
+        try {
+            return ResponseEntity.ok(patientEventBroadcaster.subscribe());
+        } catch (IllegalStateException e) {
+            log.warn("Rejecting patient event subscription: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
     }
 
     @GetMapping("/import")
-    public ResponseEntity<String> importPatient(@RequestParam String session) {
-        log.info("Success page requested for session: {}", session);
+    public ResponseEntity<?> importPatient(@RequestParam String session) {
+        log.info("Success page requested");
 
         TokenResponse tokenResponse = authService.getToken(session);
         if (tokenResponse == null) {
             return ResponseEntity.badRequest().body("Invalid session");
         }
 
-        try {
-            Patient patient = fhirService.getPatient(tokenResponse.getPatient(), tokenResponse.getAccessToken());
-            patientsStore.add(patient);
-            String patientName = fhirService.getPatientDisplayName(patient);
-            String patientId = patient.getIdElement().getIdPart();
-
-            String birthDate = patient.getBirthDate() != null ?
-                    patient.getBirthDate().toString() : "Not available";
-
-            String gender = patient.getGender() != null ?
-                    patient.getGender().getDisplay() : "Not specified";
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(importBudgetMs)).attach()) {
+            Patient patient;
+            try {
+                patient = fhirService.getPatient(tokenResponse.getIssuer(), tokenResponse.getPatient(),
+                        tokenResponse.getAccessToken());
+            } catch (RuntimeException e) {
+                auditTrail.record(AuditRecord.Action.PATIENT_IMPORT, tokenResponse, false);
+                throw e;
+            }
+            auditTrail.record(AuditRecord.Action.PATIENT_IMPORT, tokenResponse, true);
+            PatientSummary summary = fhirService.toSummary(patient);
+            patientStore.save(summary);
 
             authService.removeToken(session);
 
-            String successHtml = """
-                    <!DOCTYPE html>
-                    <html>
-                    <head>
-                        <title>SMART on FHIR Authentication Success</title>
-                        <style>
-                            body { font-family: Arial, sans-serif; margin: 40px; background-color: #f5f5f5; }
-                            .container { max-width: 600px; margin: 0 auto; background: white; padding: 30px; border-radius: 8px; box-shadow: 0 2px 10px rgba(0,0,0,0.1); }
-                            .success { color: #28a745; font-size: 24px; margin-bottom: 20px; }
-                            .patient-info { background: #f8f9fa; padding: 20px; border-radius: 5px; margin: 20px 0; }
-                            .field { margin: 10px 0; }
-                            .label { font-weight: bold; color: #495057; }
-                            .value { color: #212529; }
-                            .footer { margin-top: 30px; padding-top: 20px; border-top: 1px solid #dee2e6; color: #6c757d; font-size: 14px; }
-                        </style>
-                    </head>
-                    <body>
-                        <div class="container">
-                            <img src="https://mma.prnewswire.com/media/220268/availity_logo.jpg" width=200 />
-                            <div class="patient-info">
-                                <h3>Patient Information</h3>
-                                <div class="field">
-                                    <span class="label">Name:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                                <div class="field">
-                                    <span class="label">Patient ID:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                                <div class="field">
-                                    <span class="label">Birth Date:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                                <div class="field">
-                                    <span class="label">Gender:</span> 
-                                    <span class="value">%s</span>
-                                </div>
-                            </div>
-                            <a href="/patients/all"><button>Show all</button></a>
-                        </div>
-                    </body>
-                    </html>
-                    """.formatted(patientName, patientId, birthDate, gender);
+            ByteArrayOutputStream successHtml = new ByteArrayOutputStream();
+            patientPageRenderer.renderImported(summary).writeTo(successHtml);
 
             return ResponseEntity.ok()
-                    .header("Content-Type", "text/html")
-                    .body(successHtml);
+                    .header("Content-Type", HTML_UTF8)
+                    .body(successHtml.toByteArray());
 
+        } catch (DeadlineExceededException e) {
+            log.error("Patient import exceeded its deadline: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body("Error retrieving patient information: the EHR did not respond in time");
         } catch (Exception e) {
             log.error("Error displaying success page", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error retrieving patient information: " + e.getMessage());
         }
     }
+
+    /**
+     * Searches the stored patients through the in-memory index.
+     * All supplied criteria must match.
+     *
+     * @param name          whitespace separated name prefixes, e.g. "cam lop"
+     * @param identifier    exact identifier (MRN) value, or "system|value"
+     * @param birthDateFrom inclusive lower bound of the birth date (ISO date)
+     * @param birthDateTo   inclusive upper bound of the birth date (ISO date)
+     * @param limit         maximum number of results
+     * @return matching patient summaries
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<PatientSummary>> searchPatients(
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String identifier,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate birthDateFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate birthDateTo,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(patientSearchIndex.search(name, identifier, birthDateFrom, birthDateTo,
+                Math.max(1, Math.min(limit, 1000))));
+    }
+
+    /**
+     * Reports the size and estimated memory footprint of the search index.
+     *
+     * @return index statistics
+     */
+    @GetMapping("/search/stats")
+    public ResponseEntity<PatientSearchIndex.Stats> searchStats() {
+        return ResponseEntity.ok(patientSearchIndex.stats());
+    }
 }
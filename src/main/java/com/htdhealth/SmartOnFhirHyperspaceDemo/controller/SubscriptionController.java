@@ -0,0 +1,119 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.controller;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientSubscriptionService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.SubscriptionNotificationService;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.SubscriptionNotificationService.Result;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inbound endpoint for FHIR R4 rest-hook Subscription notifications registered by
+ * {@link PatientSubscriptionService}. Accepts empty (id-only) notifications and full-resource ones,
+ * either PUT to {@code [endpoint]/Patient/[id]} or POSTed as a Patient or a notification Bundle.
+ * Notifications are acknowledged once queued; a full queue answers {@code 429} with {@code Retry-After}.
+ */
+@RestController
+@RequestMapping("/fhir/subscription-hook")
+@RequiredArgsConstructor
+@Slf4j
+public class SubscriptionController {
+
+    private final SubscriptionNotificationService notificationService;
+    private final FhirContext fhirContext;
+
+    @Value("${subscriptions.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
+    /**
+     * Receives an id-only notification (empty body) or a notification with a Patient or Bundle payload.
+     *
+     * @param token the subscription token channel header
+     * @param body  the notification payload, if any
+     * @return HTTP 200 once handled or queued, 400 for an unreadable payload, 404 for an unknown subscription,
+     * 429 if the notification queue is full
+     */
+    @PostMapping
+    public ResponseEntity<?> notification(@RequestHeader(value = PatientSubscriptionService.TOKEN_HEADER, required = false) String token,
+                                          @RequestBody(required = false) String body) {
+        if (body == null || body.isBlank()) {
+            return respond(List.of(notificationService.onPing(token)));
+        }
+
+        IBaseResource resource;
+        try {
+            resource = fhirContext.newJsonParser().parseResource(body);
+        } catch (DataFormatException e) {
+            return ResponseEntity.badRequest().body("Unreadable notification: " + e.getMessage());
+        }
+
+        List<Result> results = new ArrayList<>();
+        if (resource instanceof Patient patient) {
+            results.add(notificationService.onPatient(token, patient));
+        } else if (resource instanceof Bundle bundle) {
+            boolean fetch = false;
+            for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+                if (entry.getResource() instanceof Patient patient) {
+                    results.add(notificationService.onPatient(token, patient));
+                } else if (entry.getResource() == null && entry.getFullUrl() != null) {
+                    fetch = true;
+                }
+            }
+            if (fetch) {
+                results.add(notificationService.onPing(token));
+            }
+        } else {
+            results.add(notificationService.onPing(token));
+        }
+        return respond(results);
+    }
+
+    /**
+     * Receives a full-resource notification PUT to {@code [endpoint]/Patient/[id]}.
+     *
+     * @param token     the subscription token channel header
+     * @param patientId FHIR resource id of the patient
+     * @param body      the Patient resource
+     * @return HTTP 200 once handled or queued, 400 for an unreadable payload, 404 for an unknown subscription,
+     * 429 if the notification queue is full
+     */
+    @PutMapping("/Patient/{patientId}")
+    public ResponseEntity<?> patientUpdate(@RequestHeader(value = PatientSubscriptionService.TOKEN_HEADER, required = false) String token,
+                                           @PathVariable String patientId,
+                                           @RequestBody String body) {
+        Patient patient;
+        try {
+            patient = fhirContext.newJsonParser().parseResource(Patient.class, body);
+        } catch (DataFormatException e) {
+            return ResponseEntity.badRequest().body("Unreadable notification: " + e.getMessage());
+        }
+        if (!patientId.equals(patient.getIdElement().getIdPart())) {
+            return ResponseEntity.badRequest().body("Patient id does not match the URL");
+        }
+        return respond(List.of(notificationService.onPatient(token, patient)));
+    }
+
+    private ResponseEntity<?> respond(List<Result> results) {
+        if (results.contains(Result.BUSY)) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", String.valueOf(retryAfterSeconds))
+                    .body("Notification queue is full");
+        }
+        if (!results.isEmpty() && results.stream().allMatch(result -> result == Result.UNKNOWN_SUBSCRIPTION)) {
+            log.warn("Rejected notification for an unknown subscription");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown subscription");
+        }
+        return ResponseEntity.ok().build();
+    }
+}
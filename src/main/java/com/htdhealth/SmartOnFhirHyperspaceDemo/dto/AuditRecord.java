@@ -0,0 +1,49 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Compact record of one access to a patient's data, queued by request threads for the audit writer.
+ * {@code user} is the verified fhirUser (or subject) of the id_token, or null if the login had none;
+ * for {@link Action#isSystem() system} access it is the backend services client id.
+ */
+@Value
+@AllArgsConstructor(staticName = "of")
+public class AuditRecord {
+
+    public enum Action {
+        /** Patient read during the authorization callback */
+        PATIENT_READ(false),
+        /** Patient read and stored by /patients/import */
+        PATIENT_IMPORT(false),
+        /** Patient read and stored by a batch import job */
+        PATIENT_BATCH_IMPORT(true),
+        /** Changed patient fetched and stored by the scheduled delta sync */
+        PATIENT_SYNC(true),
+        /** Changed patient received or fetched for a Subscription notification and stored */
+        PATIENT_SUBSCRIPTION_UPDATE(true);
+
+        private final boolean system;
+
+        Action(boolean system) {
+            this.system = system;
+        }
+
+        /**
+         * Returns whether the access is made by the app's backend services client rather than for a logged-in user.
+         *
+         * @return true for system access
+         */
+        public boolean isSystem() {
+            return system;
+        }
+    }
+
+    long timestampMillis;
+    Action action;
+    boolean success;
+    String issuer;
+    String user;
+    String patientId;
+}
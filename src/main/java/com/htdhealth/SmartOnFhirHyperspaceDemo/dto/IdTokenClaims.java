@@ -0,0 +1,29 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Claims of an OpenID Connect id_token whose signature and standard claims have been verified.
+ * {@code fhirUser} is the SMART claim referencing the FHIR resource of the logged-in user.
+ */
+@Value
+@Builder
+public class IdTokenClaims {
+    String issuer;
+    String subject;
+    @Singular("audience")
+    List<String> audience;
+    String fhirUser;
+    String name;
+    Instant issuedAt;
+    Instant expiresAt;
+
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !now.isBefore(expiresAt);
+    }
+}
@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * A patient a batch import job could not import, and why.
+ */
+@Value
+@AllArgsConstructor(staticName = "of")
+public class ImportFailure {
+    String patientId;
+    String reason;
+}
@@ -0,0 +1,33 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * Point-in-time view of a batch patient import job.
+ * {@code processed} counts patients that were either imported or failed; the rate is over the time the job
+ * has actually been running, excluding time spent queued or cancelled.
+ */
+@Value
+@Builder
+public class ImportJobStatus {
+
+    public enum State {
+        QUEUED, RUNNING, CANCELLING, CANCELLED, FAILED, COMPLETED
+    }
+
+    String id;
+    State state;
+    int total;
+    int processed;
+    int imported;
+    int failed;
+    int batchErrors;
+    String lastError;
+    double patientsPerSecond;
+    Instant createdAt;
+    Instant startedAt;
+    Instant finishedAt;
+}
@@ -0,0 +1,33 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Per-issuer (per-EHR) configuration entry of the issuer registry.
+ * {@code authorizeUrl} and {@code jwksUri} are optional, they are discovered from the FHIR server when absent.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IssuerConfig {
+    private String issuer;
+    private String fhirBaseUrl;
+    private String clientId;
+    private String tokenUrl;
+    private String authorizeUrl;
+    private String jwksUri;
+    @Builder.Default
+    private int maxConnections = 20;
+    @Builder.Default
+    private double requestsPerSecond = 50;
+    @Builder.Default
+    private int connectTimeoutMs = 5000;
+    @Builder.Default
+    private int socketTimeoutMs = 15000;
+    @Builder.Default
+    private int acquireTimeoutMs = 2000;
+}
@@ -0,0 +1,11 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+@Value
+@AllArgsConstructor(staticName = "of")
+public class PatientIdentifier {
+    String system;
+    String value;
+}
@@ -0,0 +1,66 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Compact, immutable view of a Patient holding only the fields the app displays and searches on.
+ * This is what the patient store keeps instead of the full HAPI object graph.
+ */
+@Value
+@Builder(toBuilder = true)
+public class PatientSummary {
+    String id;
+    String versionId;
+    Instant lastUpdated;
+    String displayName;
+    @Singular
+    List<String> givenNames;
+    String familyName;
+    LocalDate birthDate;
+    String gender;
+    @Singular
+    List<PatientIdentifier> identifiers;
+
+    /**
+     * Returns the display text of the administrative gender code, matching HAPI's
+     * {@code AdministrativeGender.getDisplay()}.
+     *
+     * @return gender display text, or null if no gender is recorded
+     */
+    public String genderDisplay() {
+        if (gender == null) {
+            return null;
+        }
+        return switch (gender) {
+            case "male" -> "Male";
+            case "female" -> "Female";
+            case "other" -> "Other";
+            case "unknown" -> "Unknown";
+            default -> gender;
+        };
+    }
+
+    /**
+     * Parses a FHIR date, which may be partial ("1987" or "1987-09"), to its first day.
+     *
+     * @param value FHIR date string
+     * @return the parsed date, or null if the value is empty
+     */
+    public static LocalDate parseFhirDate(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return switch (value.length()) {
+            case 4 -> LocalDate.of(Integer.parseInt(value), 1, 1);
+            case 7 -> YearMonth.parse(value).atDay(1);
+            default -> LocalDate.parse(value.substring(0, 10));
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * SMART endpoints and capabilities discovered for a FHIR server, together with
+ * the discovery path that produced them and what that path cost.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SmartConfiguration {
+
+    public enum Source {
+        WELL_KNOWN, CAPABILITY_STATEMENT, FALLBACK
+    }
+
+    private String issuer;
+    private String authorizationEndpoint;
+    private String tokenEndpoint;
+    private String jwksUri;
+    private List<String> capabilities;
+    private Source source;
+    private long bytes;
+    private long millis;
+}
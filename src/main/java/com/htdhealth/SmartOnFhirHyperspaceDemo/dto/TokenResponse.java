@@ -16,5 +16,8 @@ public class TokenResponse {
     private String scope;
     private String refreshToken;
     private String patient;
+    private String issuer;
+    private String idToken;
+    private IdTokenClaims idTokenClaims;
 }
 
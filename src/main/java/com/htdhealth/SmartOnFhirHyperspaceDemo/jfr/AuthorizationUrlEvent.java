@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the building of an authorization URL.
+ */
+@Name("com.htdhealth.smart.AuthorizationUrl")
+@Label("Authorization URL")
+@Description("Building of an authorization URL")
+public class AuthorizationUrlEvent extends SmartFlowEvent {
+}
@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the discovery of the SMART endpoints of a FHIR server.
+ */
+@Name("com.htdhealth.smart.CapabilityDiscovery")
+@Label("Capability Discovery")
+@Description("Discovery of the SMART endpoints of a FHIR server")
+public class CapabilityDiscoveryEvent extends SmartFlowEvent {
+}
@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the parsing of a FHIR response body into resources.
+ */
+@Name("com.htdhealth.smart.FhirParse")
+@Label("FHIR Parse")
+@Description("Parsing of a FHIR response body into resources")
+public class FhirParseEvent extends SmartFlowEvent {
+}
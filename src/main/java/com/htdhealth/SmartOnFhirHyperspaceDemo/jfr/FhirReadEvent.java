@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a FHIR request up to the arrival of the response headers.
+ */
+@Name("com.htdhealth.smart.FhirRead")
+@Label("FHIR Read")
+@Description("FHIR request up to the arrival of the response headers")
+public class FhirReadEvent extends SmartFlowEvent {
+}
@@ -0,0 +1,67 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+
+import java.util.List;
+
+/**
+ * Client interceptor splitting one HAPI client call into a {@link FhirReadEvent} and a {@link FhirParseEvent}.
+ * HAPI notifies interceptors of the response before it parses the body, so the read ends and the parse
+ * begins there. Register a new recorder on the client for every call and {@link #complete} it when the
+ * call returns.
+ */
+public class FhirReadRecorder implements IClientInterceptor {
+
+    private final FhirReadEvent readEvent = new FhirReadEvent();
+    private final FhirParseEvent parseEvent = new FhirParseEvent();
+    private long payloadBytes = -1;
+    private int status;
+
+    /**
+     * Returns whether either event is enabled, so callers can skip registering the recorder.
+     *
+     * @return true if recording is worthwhile
+     */
+    public boolean isEnabled() {
+        return readEvent.isEnabled() || parseEvent.isEnabled();
+    }
+
+    @Override
+    public void interceptRequest(IHttpRequest request) {
+        readEvent.begin();
+    }
+
+    @Override
+    public void interceptResponse(IHttpResponse response) {
+        readEvent.end();
+        status = response.getStatus();
+        List<String> contentLength = response.getHeaders("Content-Length");
+        if (contentLength != null && !contentLength.isEmpty()) {
+            try {
+                payloadBytes = Long.parseLong(contentLength.get(0).trim());
+            } catch (NumberFormatException e) {
+                payloadBytes = -1;
+            }
+        }
+        parseEvent.begin();
+    }
+
+    /**
+     * Commits the events of the call. The read outcome is the HTTP status, or {@link SmartFlowEvent#FAILURE}
+     * if no response arrived; the parse event is only committed if there was a response to parse.
+     *
+     * @param issuer       FHIR base URL of the issuer
+     * @param resourceType the resource type read
+     * @param outcome      outcome of the whole call
+     */
+    public void complete(String issuer, String resourceType, String outcome) {
+        if (status == 0) {
+            readEvent.complete(issuer, resourceType, -1, SmartFlowEvent.FAILURE);
+            return;
+        }
+        readEvent.complete(issuer, resourceType, payloadBytes, "HTTP " + status);
+        parseEvent.complete(issuer, resourceType, payloadBytes, outcome);
+    }
+}
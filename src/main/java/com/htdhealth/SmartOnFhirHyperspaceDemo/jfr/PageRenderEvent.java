@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the assembly of a patient page.
+ */
+@Name("com.htdhealth.smart.PageRender")
+@Label("Page Render")
+@Description("Assembly of a patient page")
+public class PageRenderEvent extends SmartFlowEvent {
+}
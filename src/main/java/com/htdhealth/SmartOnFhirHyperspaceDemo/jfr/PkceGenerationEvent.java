@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the generation of a PKCE code verifier and challenge.
+ */
+@Name("com.htdhealth.smart.PkceGeneration")
+@Label("PKCE Generation")
+@Description("Generation of a PKCE code verifier and challenge")
+public class PkceGenerationEvent extends SmartFlowEvent {
+}
@@ -0,0 +1,60 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base of the Flight Recorder events emitted for the phases of the SMART on FHIR flow.
+ * <p>
+ * Events carry only the issuer, the FHIR resource type, the payload size and the outcome of a phase,
+ * never patient data or tokens. A phase calls {@link #begin()} when it starts and {@link #complete}
+ * when it ends; the fields are only filled in when the event is enabled and above its threshold,
+ * so a disabled event costs no more than the allocation the JIT usually removes.
+ */
+@Category({"SMART on FHIR"})
+@Enabled(false)
+@StackTrace(false)
+public abstract class SmartFlowEvent extends Event {
+
+    public static final String SUCCESS = "success";
+    public static final String FAILURE = "failure";
+
+    @Label("Issuer")
+    @Description("FHIR base URL of the issuer the phase talked to")
+    String issuer;
+
+    @Label("Resource Type")
+    @Description("FHIR resource or document type the phase handled")
+    String resourceType;
+
+    @Label("Payload Size")
+    @Description("Bytes received or produced by the phase, -1 if unknown")
+    @DataAmount
+    long payloadBytes;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Ends the phase and commits the event if it is enabled.
+     *
+     * @param issuer       FHIR base URL of the issuer, or null if the phase has none
+     * @param resourceType FHIR resource or document type, or null
+     * @param payloadBytes payload size in bytes, or -1 if unknown
+     * @param outcome      {@link #SUCCESS}, {@link #FAILURE} or a phase specific outcome
+     */
+    public void complete(String issuer, String resourceType, long payloadBytes, String outcome) {
+        if (shouldCommit()) {
+            this.issuer = issuer;
+            this.resourceType = resourceType;
+            this.payloadBytes = payloadBytes;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
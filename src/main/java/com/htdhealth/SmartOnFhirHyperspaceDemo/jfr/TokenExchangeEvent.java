@@ -0,0 +1,14 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the exchange of an authorization code at the token endpoint.
+ */
+@Name("com.htdhealth.smart.TokenExchange")
+@Label("Token Exchange")
+@Description("Exchange of an authorization code at the token endpoint")
+public class TokenExchangeEvent extends SmartFlowEvent {
+}
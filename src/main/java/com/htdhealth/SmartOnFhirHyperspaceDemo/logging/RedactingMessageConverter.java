@@ -0,0 +1,117 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.logging;
+
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Logback converter ({@code %redactedMessage}) that formats the log message with its arguments scrubbed.
+ * <p>
+ * The message template is written by us and printed as is; each argument is redacted on its own before it is
+ * substituted, so a URL or token response passed as an argument cannot leak secrets: OAuth query parameters
+ * that carry credentials or launch context ({@code code}, {@code state}, {@code launch}, {@code session}, PKCE
+ * values and tokens), bearer tokens and JWTs are replaced by {@value #MASK}. Patient data is masked too: patient
+ * search parameters ({@code family}, {@code birthdate}, {@code identifier}, ...), name, birth date and identifier
+ * values in FHIR JSON and in {@link PatientSummary#toString()}, while a {@link PatientSummary} or HAPI resource
+ * passed as an argument is printed as its type and id only. Arguments that cannot contain any of them are
+ * substituted without running a regular expression.
+ * <p>
+ * The exception of the event is not part of the message; it is printed by {@link RedactingThrowableConverter}
+ * ({@code %redactedEx}), which runs the same {@link #scrub}.
+ */
+public class RedactingMessageConverter extends ClassicConverter {
+
+    static final String MASK = "***";
+
+    private static final Pattern SENSITIVE_PARAMETER = Pattern.compile(
+            "((?:^|[?&;\\s])(?:code|state|launch|session|code_challenge|code_verifier|access_token|id_token"
+                    + "|refresh_token|client_assertion|family|given|name|birthdate|identifier|phone|email|address"
+                    + "|address-postalcode|telecom)=)[^&\\s#\"]+");
+    private static final Pattern PATIENT_JSON_FIELD = Pattern.compile(
+            "(\"(?:family|given|birthDate|value|text|line|city|postalCode)\"\\s*:\\s*)"
+                    + "(?:\"(?:[^\"\\\\]|\\\\.)*\"|\\[[^\\]]*])");
+    private static final Pattern PATIENT_SUMMARY_FIELD = Pattern.compile(
+            "((?:displayName|givenNames|familyName|birthDate|identifiers)=)(?:\\[[^\\]]*]|[^,)]*)");
+    private static final Pattern BEARER_TOKEN = Pattern.compile("((?i)bearer\\s+)[A-Za-z0-9._~+/=-]+");
+    private static final Pattern JWT = Pattern.compile("eyJ[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]*");
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        Object[] arguments = event.getArgumentArray();
+        if (arguments == null || arguments.length == 0) {
+            return event.getFormattedMessage();
+        }
+
+        Object[] scrubbed = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            Object argument = arguments[i];
+            scrubbed[i] = argument == null || argument instanceof Number || argument instanceof Boolean
+                    || argument.getClass().isArray() ? argument : scrub(describe(argument));
+        }
+        return MessageFormatter.arrayFormat(event.getMessage(), scrubbed).getMessage();
+    }
+
+    /**
+     * Returns the text of an argument, with patient objects reduced to what identifies them without PHI.
+     */
+    private static String describe(Object argument) {
+        if (argument instanceof PatientSummary patient) {
+            return "PatientSummary(id=" + patient.getId() + ")";
+        }
+        if (argument instanceof PatientIdentifier) {
+            return MASK;
+        }
+        if (argument instanceof IBaseResource resource) {
+            return resource.fhirType() + "/" + resource.getIdElement().getIdPart();
+        }
+        if (argument instanceof Collection<?> collection && !collection.isEmpty()) {
+            StringBuilder text = new StringBuilder("[");
+            for (Object element : collection) {
+                if (text.length() > 1) {
+                    text.append(", ");
+                }
+                text.append(element == null ? "null" : describe(element));
+            }
+            return text.append(']').toString();
+        }
+        return argument.toString();
+    }
+
+    /**
+     * Masks credentials, launch context, tokens and patient data in a value.
+     *
+     * @param value the value to scrub
+     * @return the value with sensitive parts replaced by {@value #MASK}
+     */
+    public static String scrub(String value) {
+        boolean parameters = value.indexOf('=') >= 0;
+        boolean json = value.indexOf('"') >= 0;
+        boolean jwt = value.contains("eyJ");
+        boolean bearer = value.length() > 7 && (value.contains("earer ") || value.contains("EARER "));
+        if (!parameters && !json && !jwt && !bearer) {
+            return value;
+        }
+
+        String scrubbed = value;
+        if (jwt) {
+            scrubbed = JWT.matcher(scrubbed).replaceAll(MASK);
+        }
+        if (bearer) {
+            scrubbed = BEARER_TOKEN.matcher(scrubbed).replaceAll("$1" + MASK);
+        }
+        if (parameters) {
+            scrubbed = SENSITIVE_PARAMETER.matcher(scrubbed).replaceAll("$1" + MASK);
+            scrubbed = PATIENT_SUMMARY_FIELD.matcher(scrubbed).replaceAll("$1" + MASK);
+        }
+        if (json) {
+            scrubbed = PATIENT_JSON_FIELD.matcher(scrubbed).replaceAll("$1\"" + MASK + "\"");
+        }
+        return scrubbed;
+    }
+}
@@ -0,0 +1,21 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.logging;
+
+import ch.qos.logback.classic.pattern.ExtendedThrowableProxyConverter;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+
+/**
+ * Logback converter ({@code %redactedEx}) that prints the event's exception like Spring Boot's {@code %wEx},
+ * with packaging data and surrounded by line separators, after running it through
+ * {@link RedactingMessageConverter#scrub}. Exception messages often quote the request URL or the server's
+ * response body, which may carry tokens or patient data.
+ */
+public class RedactingThrowableConverter extends ExtendedThrowableProxyConverter {
+
+    @Override
+    protected String throwableProxyToString(IThrowableProxy throwableProxy) {
+        return CoreConstants.LINE_SEPARATOR
+                + RedactingMessageConverter.scrub(super.throwableProxyToString(throwableProxy))
+                + CoreConstants.LINE_SEPARATOR;
+    }
+}
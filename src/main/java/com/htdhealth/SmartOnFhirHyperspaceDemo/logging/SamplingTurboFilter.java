@@ -0,0 +1,90 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits the INFO lines logged on every request. Each message template of a logger under
+ * {@code loggerPrefix} may log {@code permitsPerSecond} times per second; beyond that only one in
+ * {@code sampleOneIn} calls is logged until the next second. WARN and ERROR are never sampled.
+ * <p>
+ * Turbo filters run before the event is created, so a suppressed line costs a map lookup and two
+ * atomic operations instead of formatting, queueing and writing it.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+    private static final int MAX_TEMPLATES = 1024;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final LongAdder suppressed = new LongAdder();
+    private String loggerPrefix = "";
+    private int permitsPerSecond = 20;
+    private int sampleOneIn = 100;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (level != Level.INFO || format == null || !isStarted()
+                || !level.isGreaterOrEqual(logger.getEffectiveLevel()) || !logger.getName().startsWith(loggerPrefix)) {
+            return FilterReply.NEUTRAL;
+        }
+
+        Window window = windows.get(format);
+        if (window == null) {
+            if (windows.size() >= MAX_TEMPLATES) {
+                return FilterReply.NEUTRAL;
+            }
+            window = windows.computeIfAbsent(format, key -> new Window());
+        }
+
+        int count = window.next(System.nanoTime());
+        if (count <= permitsPerSecond || (count - permitsPerSecond) % sampleOneIn == 0) {
+            return FilterReply.NEUTRAL;
+        }
+        suppressed.increment();
+        return FilterReply.DENY;
+    }
+
+    /**
+     * Returns the number of lines suppressed so far.
+     *
+     * @return suppressed line count
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public void setLoggerPrefix(String loggerPrefix) {
+        this.loggerPrefix = loggerPrefix;
+    }
+
+    public void setPermitsPerSecond(int permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public void setSampleOneIn(int sampleOneIn) {
+        this.sampleOneIn = Math.max(1, sampleOneIn);
+    }
+
+    private static final class Window {
+        private final AtomicLong start = new AtomicLong(System.nanoTime());
+        private final AtomicInteger count = new AtomicInteger();
+
+        int next(long now) {
+            long windowStart = start.get();
+            if (now - windowStart >= WINDOW_NANOS && start.compareAndSet(windowStart, now)) {
+                count.set(0);
+            }
+            return count.incrementAndGet();
+        }
+    }
+}
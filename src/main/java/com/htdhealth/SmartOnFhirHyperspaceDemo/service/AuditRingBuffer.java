@@ -0,0 +1,100 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer, on a power-of-two ring of slots.
+ * <p>
+ * Each slot carries a sequence number. A producer claims the slot at the tail with one CAS, stores its
+ * element and publishes it by advancing the slot's sequence; the consumer takes a slot once its sequence
+ * says it is published and hands it back to producers one lap ahead. A full ring makes {@link #offer}
+ * fail instead of blocking, so the caller decides what overflow means.
+ *
+ * @param <E> element type
+ */
+final class AuditRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    AuditRingBuffer(int requestedCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        elements = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds an element, from any thread.
+     *
+     * @param element the element
+     * @return false if the ring is full
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} published elements into the target, in publication order.
+     * Must only be called from the single consumer thread.
+     *
+     * @param target collection to add to
+     * @param max    maximum number of elements to move
+     * @return the number of elements moved
+     */
+    int drainTo(Collection<? super E> target, int max) {
+        long position = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            target.add(elements.get(index));
+            elements.lazySet(index, null);
+            sequences.set(index, position + mask + 1);
+            position++;
+            drained++;
+        }
+        head = position;
+        return drained;
+    }
+
+    /**
+     * Returns the number of claimed slots not yet drained; approximate while producers are active.
+     *
+     * @return pending element count
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,24 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of the audit trail. Each call writes one batch as a single durable unit (a group commit).
+ */
+interface AuditSink extends AutoCloseable {
+
+    /**
+     * Writes a batch of audit records; the batch is durable once this returns.
+     *
+     * @param records the records, in the order they were queued
+     * @throws IOException if the batch could not be written and should be retried
+     */
+    void write(List<AuditRecord> records) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,267 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.TokenResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous audit trail of patient data access.
+ * <p>
+ * Request threads only build a compact {@link AuditRecord} and put it on a bounded lock-free ring buffer.
+ * A single background writer drains the buffer in batches of up to {@code audit.batch-size} records and
+ * writes each batch as one group commit, either to an append-only JSON lines file or as a transaction of
+ * FHIR {@code AuditEvent}s ({@code audit.sink}). When the buffer is empty the writer sleeps for
+ * {@code audit.flush-interval-ms}, which bounds how long a record waits before it is written. A batch that
+ * fails to write is retried, so an unavailable sink backs records up into the buffer rather than losing them.
+ * <p>
+ * When the buffer is full, {@code audit.overflow} decides: {@code BLOCK} makes the request thread wait up to
+ * {@code audit.block-timeout-ms} for space before dropping the record, {@code DROP} drops it at once.
+ * Dropped records are counted and reported in the log.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AuditTrail {
+
+    public enum Sink {
+        FILE, FHIR
+    }
+
+    public enum OverflowPolicy {
+        BLOCK, DROP
+    }
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int SHUTDOWN_WRITE_ATTEMPTS = 3;
+    private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final FhirContext fhirContext;
+    private final BackendTokenService backendTokenService;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Value("${audit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.sink:FILE}")
+    private Sink sinkType;
+
+    @Value("${audit.file:data/audit/audit.log}")
+    private String file;
+
+    @Value("${audit.fsync:true}")
+    private boolean fsync;
+
+    @Value("${audit.fhir-base-url:}")
+    private String fhirBaseUrl;
+
+    @Value("${audit.capacity:65536}")
+    private int capacity;
+
+    @Value("${audit.batch-size:512}")
+    private int batchSize;
+
+    @Value("${audit.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${audit.overflow:BLOCK}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${audit.block-timeout-ms:50}")
+    private long blockTimeoutMs;
+
+    private AuditRingBuffer<AuditRecord> buffer;
+    private AuditSink sink;
+    private Thread writer;
+    private volatile boolean running;
+    private long lastDropReportNanos;
+    private long droppedAtLastReport;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            log.warn("Audit trail is disabled, patient access is not audited");
+            return;
+        }
+        start(switch (sinkType) {
+            case FILE -> new FileAuditSink(Path.of(file), fsync);
+            case FHIR -> {
+                if (fhirBaseUrl.isEmpty()) {
+                    throw new IllegalStateException("audit.sink=FHIR requires audit.fhir-base-url");
+                }
+                yield new FhirAuditSink(fhirContext, backendTokenService, fhirBaseUrl);
+            }
+        });
+    }
+
+    void start(AuditSink auditSink) {
+        sink = auditSink;
+        buffer = new AuditRingBuffer<>(capacity);
+        running = true;
+        writer = new Thread(this::writeLoop, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Audit trail writing to {} with a buffer of {} records", sinkType, buffer.capacity());
+    }
+
+    /**
+     * Writes out the records still queued and stops the writer.
+     */
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Audits an access to the patient in a login's context, on behalf of the login's verified user.
+     *
+     * @param action        what the access was
+     * @param tokenResponse the login the access was made with
+     * @param success       whether the patient data was obtained
+     */
+    public void record(AuditRecord.Action action, TokenResponse tokenResponse, boolean success) {
+        IdTokenClaims claims = tokenResponse.getIdTokenClaims();
+        String user = claims == null ? null : claims.getFhirUser() != null ? claims.getFhirUser() : claims.getSubject();
+        record(action, tokenResponse.getIssuer(), user, tokenResponse.getPatient(), success);
+    }
+
+    /**
+     * Queues an audit record. Never does I/O; waits at most {@code audit.block-timeout-ms} when the buffer is full.
+     *
+     * @param action    what the access was
+     * @param issuer    issuer the patient data came from
+     * @param user      user the access was made for, or null if unknown
+     * @param patientId FHIR id of the patient
+     * @param success   whether the patient data was obtained
+     */
+    public void record(AuditRecord.Action action, String issuer, String user, String patientId, boolean success) {
+        if (buffer == null) {
+            return;
+        }
+
+        AuditRecord record = AuditRecord.of(System.currentTimeMillis(), action, success, issuer, user, patientId);
+        if (buffer.offer(record)) {
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            LockSupport.unpark(writer);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+            while (System.nanoTime() - deadline < 0) {
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                if (buffer.offer(record)) {
+                    return;
+                }
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of records written to the sink.
+     *
+     * @return written record count
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * Returns the number of records dropped because the buffer was full.
+     *
+     * @return dropped record count
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of records waiting to be written.
+     *
+     * @return pending record count
+     */
+    public int pending() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    private void writeLoop() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+
+        while (true) {
+            buffer.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                if (!running) {
+                    break;
+                }
+                reportDrops();
+                LockSupport.parkNanos(flushIntervalNanos);
+                continue;
+            }
+            write(batch);
+            batch.clear();
+        }
+
+        try {
+            sink.close();
+        } catch (IOException e) {
+            log.warn("Error closing audit sink", e);
+        }
+        reportDrops();
+        log.info("Audit trail stopped after writing {} records, {} dropped", written.get(), dropped.get());
+    }
+
+    private void write(List<AuditRecord> batch) {
+        int attempts = 0;
+        while (true) {
+            try {
+                sink.write(batch);
+                written.addAndGet(batch.size());
+                return;
+            } catch (IOException e) {
+                attempts++;
+                if (!running && attempts >= SHUTDOWN_WRITE_ATTEMPTS) {
+                    log.error("Giving up on {} audit records at shutdown", batch.size(), e);
+                    return;
+                }
+                log.error("Error writing {} audit records, retrying (attempt {})", batch.size(), attempts, e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MS));
+            }
+        }
+    }
+
+    private void reportDrops() {
+        long now = System.nanoTime();
+        long total = dropped.get();
+        if (total != droppedAtLastReport && now - lastDropReportNanos >= DROP_REPORT_INTERVAL_NANOS) {
+            log.error("Audit buffer overflowed, {} records dropped ({} in total)", total - droppedAtLastReport, total);
+            droppedAtLastReport = total;
+            lastDropReportNanos = now;
+        }
+    }
+}
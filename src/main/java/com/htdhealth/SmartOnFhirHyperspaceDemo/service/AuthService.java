@@ -1,10 +1,13 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.TokenResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -13,6 +16,8 @@ import java.util.concurrent.ConcurrentHashMap;
 public class AuthService {
     // Simple in-memory token storage for demo purposes
     private final ConcurrentHashMap<String, TokenResponse> tokenStore = new ConcurrentHashMap<>();
+    // Verified id_token claims per session, kept apart from the token so they outlive its removal
+    private final ConcurrentHashMap<String, IdTokenClaims> identityStore = new ConcurrentHashMap<>();
 
     public TokenResponse putToken(String sessionId, TokenResponse tokenResponse) {
         return tokenStore.put(sessionId, tokenResponse);
@@ -25,4 +30,39 @@ public class AuthService {
     public TokenResponse removeToken(String sessionId) {
         return tokenStore.remove(sessionId);
     }
+
+    /**
+     * Keeps the verified id_token claims of a session. They are stored separately from the access token,
+     * so removing the token (for instance once the patient was imported) does not log the user out.
+     *
+     * @param sessionId the session id
+     * @param claims    the verified claims
+     */
+    public void putIdentity(String sessionId, IdTokenClaims claims) {
+        identityStore.put(sessionId, claims);
+    }
+
+    /**
+     * Returns the verified id_token claims of a session. The claims were verified once at login and are
+     * kept with the session, so identity checks need no call to the issuer.
+     *
+     * @param sessionId the session id
+     * @return the user's verified claims, or null if the session is unknown, has no verified id_token or it expired
+     */
+    public IdTokenClaims getIdentity(String sessionId) {
+        IdTokenClaims claims = identityStore.get(sessionId);
+        if (claims == null || claims.isExpired(Instant.now())) {
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * Drops the identities whose id_token has expired.
+     */
+    @Scheduled(fixedDelayString = "${auth.identity-purge-interval-ms:60000}")
+    public void purgeExpiredIdentities() {
+        Instant now = Instant.now();
+        identityStore.values().removeIf(claims -> claims.isExpired(now));
+    }
 }
@@ -0,0 +1,174 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Obtains access tokens for unattended jobs through the SMART Backend Services flow:
+ * a client_credentials grant authenticated with a JWT client assertion signed by the
+ * app's registered private key (RS384). Tokens are cached until shortly before they expire.
+ * Token requests use the default issuer's token client, with its connect and read timeouts, and concurrent
+ * refreshes share one request without holding a lock across it.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BackendTokenService {
+
+    private static final String CLIENT_ASSERTION_TYPE = "urn:ietf:params:oauth:client-assertion-type:jwt-bearer";
+    private static final long EXPIRY_SKEW_SECONDS = 60;
+
+    private final IssuerRegistry issuerRegistry;
+    private final RequestCoalescer requestCoalescer;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${epic.backend.client-id:}")
+    private String clientId;
+
+    @Value("${epic.backend.private-key-path:}")
+    private String privateKeyPath;
+
+    @Value("${epic.backend.key-id:}")
+    private String keyId;
+
+    @Value("${epic.backend.scope:system/Patient.read}")
+    private String scope;
+
+    @Value("${epic.token-url:https://fhir.epic.com/interconnect-fhir-oauth/oauth2/token}")
+    private String tokenUrl;
+
+    private volatile CachedToken cachedToken;
+
+    /**
+     * Returns the backend services client id, the actor audited for system access.
+     *
+     * @return the client id, empty if not configured
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * Returns whether a backend client id and private key have been configured.
+     *
+     * @return true if backend tokens can be requested
+     */
+    public boolean isConfigured() {
+        return !clientId.isEmpty() && !privateKeyPath.isEmpty();
+    }
+
+    /**
+     * Returns a valid backend access token, requesting a new one if the cached token is about to expire.
+     *
+     * @return the access token
+     * @throws RuntimeException if the backend client is not configured or the token request fails
+     */
+    public String getAccessToken() {
+        CachedToken cached = cachedToken;
+        if (cached != null && Instant.now().isBefore(cached.expiry())) {
+            return cached.token();
+        }
+        if (!isConfigured()) {
+            throw new RuntimeException("Backend services client is not configured");
+        }
+        return requestCoalescer.execute("backend-token|" + tokenUrl + "|" + clientId, this::requestToken);
+    }
+
+    private String requestToken() {
+        CachedToken cached = cachedToken;
+        if (cached != null && Instant.now().isBefore(cached.expiry())) {
+            return cached.token();
+        }
+
+        log.info("Requesting backend services access token");
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+            MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+            params.add("grant_type", "client_credentials");
+            params.add("scope", scope);
+            params.add("client_assertion_type", CLIENT_ASSERTION_TYPE);
+            params.add("client_assertion", buildClientAssertion());
+
+            ResponseEntity<Map> response = issuerRegistry.getDefault().getTokenRestTemplate()
+                    .postForEntity(tokenUrl, new HttpEntity<>(params, headers), Map.class);
+
+            if (response.getBody() == null) {
+                throw new RuntimeException("Empty response from token endpoint");
+            }
+
+            Map<String, Object> body = response.getBody();
+            long expiresIn = body.get("expires_in") instanceof Number number ? number.longValue() : 300;
+
+            String token = (String) body.get("access_token");
+            Instant expiry = Instant.now().plusSeconds(Math.max(0, expiresIn - EXPIRY_SKEW_SECONDS));
+            cachedToken = new CachedToken(token, expiry);
+            return token;
+        } catch (Exception e) {
+            log.error("Error requesting backend services access token", e);
+            throw new RuntimeException("Failed to obtain backend access token", e);
+        }
+    }
+
+    private String buildClientAssertion() throws Exception {
+        long now = Instant.now().getEpochSecond();
+
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("alg", "RS384");
+        header.put("typ", "JWT");
+        if (!keyId.isEmpty()) {
+            header.put("kid", keyId);
+        }
+
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("iss", clientId);
+        claims.put("sub", clientId);
+        claims.put("aud", tokenUrl);
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("exp", now + 240);
+
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String signingInput = encoder.encodeToString(objectMapper.writeValueAsBytes(header))
+                + "." + encoder.encodeToString(objectMapper.writeValueAsBytes(claims));
+
+        Signature signature = Signature.getInstance("SHA384withRSA");
+        signature.initSign(loadPrivateKey());
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+
+        return signingInput + "." + encoder.encodeToString(signature.sign());
+    }
+
+    private PrivateKey loadPrivateKey() throws Exception {
+        String pem = Files.readString(Path.of(privateKeyPath))
+                .replaceAll("-----(BEGIN|END) PRIVATE KEY-----", "")
+                .replaceAll("\\s", "");
+        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(pem)));
+    }
+
+    private record CachedToken(String token, Instant expiry) {
+    }
+}
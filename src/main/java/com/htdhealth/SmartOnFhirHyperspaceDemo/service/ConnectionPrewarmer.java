@@ -0,0 +1,79 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speculatively warms an issuer's token and FHIR connections while the user is at the authorization server.
+ * <p>
+ * A launch redirects the user to the EHR's login page, and the callback comes back seconds later needing
+ * the token endpoint and then the FHIR server. Pre-warming runs in the background during that think time,
+ * so the callback starts on pooled connections that are already resolved and handshaken.
+ * It is fire-and-forget: a failed pre-warm only means the callback connects as it would have anyway.
+ * Each issuer has at most {@code launch.prewarm.max-in-flight} pre-warms running and starts at most one per
+ * {@code launch.prewarm.min-interval-ms}, so a launch storm cannot open unbounded connections.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ConnectionPrewarmer {
+
+    private final IssuerRegistry issuerRegistry;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "connection-prewarm");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${launch.prewarm.enabled:true}")
+    private boolean enabled;
+
+    @Value("${launch.prewarm.max-in-flight:2}")
+    private int maxInFlight;
+
+    @Value("${launch.prewarm.min-interval-ms:1000}")
+    private long minIntervalMs;
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts warming the connections of an issuer in the background, unless the issuer's pre-warm bound is reached.
+     *
+     * @param issuer issuer URL from the launch, or null for the default issuer
+     * @return true if a pre-warm was started
+     */
+    public boolean prewarm(String issuer) {
+        if (!enabled) {
+            return false;
+        }
+
+        IssuerClient issuerClient = issuerRegistry.resolve(issuer);
+        if (!issuerClient.tryClaimPrewarm(maxInFlight, TimeUnit.MILLISECONDS.toNanos(minIntervalMs))) {
+            return false;
+        }
+
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                issuerClient.warmConnections();
+                log.debug("Pre-warmed connections to issuer {} in {} ms", issuerClient.getConfig().getIssuer(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            issuerClient.releasePrewarm();
+            return false;
+        }
+    }
+}
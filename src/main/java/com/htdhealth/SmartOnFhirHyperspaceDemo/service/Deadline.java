@@ -0,0 +1,77 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import java.time.Duration;
+
+/**
+ * Point in time by which a request has to be answered, carried from the entry point of a request
+ * into its downstream calls.
+ * <p>
+ * An entry point attaches a deadline to the current thread for the duration of the request, and
+ * {@link HedgedCaller} bounds every upstream call made on that thread by the time that is left.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Creates a deadline the given budget from now.
+     *
+     * @param budget time allowed
+     * @return the deadline
+     */
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * Returns the deadline attached to the current thread.
+     *
+     * @return the current deadline, or null if the thread has none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns the time left until the deadline.
+     *
+     * @return remaining nanoseconds, zero or negative once the deadline has passed
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Attaches this deadline to the current thread until the returned scope is closed.
+     * A deadline already attached is only replaced if this one is earlier.
+     *
+     * @return the scope restoring the previous deadline on close
+     */
+    public Scope attach() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(previous == null || deadlineNanos - previous.deadlineNanos < 0 ? this : previous);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,11 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+/**
+ * Thrown when an upstream call does not complete before the request's {@link Deadline}.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,93 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import org.hl7.fhir.r4.model.AuditEvent;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Audit sink posting each batch to a FHIR server as one transaction Bundle of {@code AuditEvent}s,
+ * authenticated with the backend services token when one is configured.
+ */
+class FhirAuditSink implements AuditSink {
+
+    static final String OBSERVER = "SmartOnFhirHyperspaceDemo";
+
+    private static final Coding REST_TYPE = new Coding(
+            "http://terminology.hl7.org/CodeSystem/audit-event-type", "rest", "RESTful Operation");
+    private static final Coding READ_SUBTYPE = new Coding(
+            "http://hl7.org/fhir/restful-interaction", "read", "read");
+
+    private final FhirContext fhirContext;
+    private final BackendTokenService backendTokenService;
+    private final String baseUrl;
+
+    FhirAuditSink(FhirContext fhirContext, BackendTokenService backendTokenService, String baseUrl) {
+        this.fhirContext = fhirContext;
+        this.backendTokenService = backendTokenService;
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public void write(List<AuditRecord> records) throws IOException {
+        Bundle transaction = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        for (AuditRecord record : records) {
+            transaction.addEntry()
+                    .setResource(toAuditEvent(record))
+                    .getRequest()
+                    .setMethod(Bundle.HTTPVerb.POST)
+                    .setUrl("AuditEvent");
+        }
+
+        try {
+            IGenericClient client = fhirContext.newRestfulGenericClient(baseUrl);
+            if (backendTokenService.isConfigured()) {
+                client.registerInterceptor(new BearerTokenAuthInterceptor(backendTokenService.getAccessToken()));
+            }
+            client.transaction().withBundle(transaction).execute();
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to post " + records.size() + " AuditEvents to " + baseUrl, e);
+        }
+    }
+
+    /**
+     * Maps an audit record to a FHIR R4 AuditEvent: a RESTful read of the patient by the logged-in user.
+     *
+     * @param record the audit record
+     * @return the AuditEvent
+     */
+    static AuditEvent toAuditEvent(AuditRecord record) {
+        AuditEvent event = new AuditEvent()
+                .setType(REST_TYPE.copy())
+                .setAction(AuditEvent.AuditEventAction.R)
+                .setRecorded(new Date(record.getTimestampMillis()))
+                .setOutcome(record.isSuccess() ? AuditEvent.AuditEventOutcome._0 : AuditEvent.AuditEventOutcome._4)
+                .setOutcomeDesc(record.getAction().name());
+        event.addSubtype(READ_SUBTYPE.copy());
+
+        AuditEvent.AuditEventAgentComponent agent = event.addAgent().setRequestor(true);
+        if (record.getUser() != null) {
+            agent.setWho(new Reference().setDisplay(record.getUser()));
+        } else {
+            agent.setWho(new Reference().setDisplay(record.getAction().isSystem()
+                    ? "backend services client" : "unidentified user"));
+        }
+
+        event.getSource()
+                .setSite(record.getIssuer())
+                .setObserver(new Reference().setDisplay(OBSERVER));
+
+        if (record.getPatientId() != null) {
+            event.addEntity().setWhat(new Reference("Patient/" + record.getPatientId()));
+        }
+        return event;
+    }
+}
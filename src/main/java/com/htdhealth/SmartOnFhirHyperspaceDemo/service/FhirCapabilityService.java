@@ -1,5 +1,9 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.SmartConfiguration;
+
 public interface FhirCapabilityService {
     String getAuthorizationEndpoint(String fhirServerUrl);
+
+    SmartConfiguration discover(String fhirServerUrl);
 }
\ No newline at end of file
@@ -1,24 +1,52 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.rest.client.api.IGenericClient;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.SmartConfiguration;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.CapabilityDiscoveryEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.FhirParseEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.SmartFlowEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Extension;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Service for retrieving FHIR server capabilities and authorization endpoints.
+ * Discovery first tries the small {@code .well-known/smart-configuration} JSON document, read with
+ * a streaming parser, and falls back to downloading and parsing the full CapabilityStatement.
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class FhirCapabilityServiceImpl implements FhirCapabilityService {
 
+    private static final String EPIC_AUTHORIZE_URL = "https://fhir.epic.com/interconnect-fhir-oauth/oauth2/authorize";
+    private static final String OAUTH_URIS_EXTENSION = "http://fhir-registry.smarthealthit.org/StructureDefinition/oauth-uris";
+    private static final String SMART_CONFIGURATION = "smart-configuration";
+    private static final String CAPABILITY_STATEMENT = "CapabilityStatement";
+
     private final FhirContext fhirContext;
+    private final RequestCoalescer requestCoalescer;
+    private final IssuerRegistry issuerRegistry;
+    private final JsonFactory jsonFactory = new JsonFactory();
 
     /**
-     * Gets the authorization endpoint URL from a FHIR server's capability statement.
+     * Gets the authorization endpoint URL of a FHIR server.
      * Falls back to Epic's default endpoint if the server doesn't respond or lacks the endpoint.
      *
      * @param fhirServerUrl the base URL of the FHIR server
@@ -26,38 +54,205 @@ public class FhirCapabilityServiceImpl implements FhirCapabilityService {
      */
     @Override
     public String getAuthorizationEndpoint(String fhirServerUrl) {
+        return discover(fhirServerUrl).getAuthorizationEndpoint();
+    }
+
+    /**
+     * Discovers the SMART endpoints of a FHIR server, reporting which discovery path was used
+     * and its cost in bytes and milliseconds.
+     * Concurrent discoveries against the same server share a single upstream request.
+     *
+     * @param fhirServerUrl the base URL of the FHIR server
+     * @return the discovered configuration, or Epic's default authorization endpoint if discovery fails
+     */
+    @Override
+    public SmartConfiguration discover(String fhirServerUrl) {
+        SmartConfiguration configuration = requestCoalescer.execute("capabilities|" + fhirServerUrl,
+                () -> fetchConfiguration(fhirServerUrl));
+
+        log.info("Discovered SMART configuration for {} via {} ({} bytes, {} ms)",
+                fhirServerUrl, configuration.getSource(), configuration.getBytes(), configuration.getMillis());
+        return configuration;
+    }
+
+    private SmartConfiguration fetchConfiguration(String fhirServerUrl) {
+        CapabilityDiscoveryEvent event = new CapabilityDiscoveryEvent();
+        event.begin();
+        String baseUrl = fhirServerUrl.endsWith("/") ? fhirServerUrl : fhirServerUrl + "/";
+        SmartConfiguration configuration = fetchConfiguration(fhirServerUrl, baseUrl);
+
+        switch (configuration.getSource()) {
+            case WELL_KNOWN -> event.complete(fhirServerUrl, SMART_CONFIGURATION, configuration.getBytes(), SmartFlowEvent.SUCCESS);
+            case CAPABILITY_STATEMENT -> event.complete(fhirServerUrl, CAPABILITY_STATEMENT, configuration.getBytes(), SmartFlowEvent.SUCCESS);
+            case FALLBACK -> event.complete(fhirServerUrl, null, -1, SmartFlowEvent.FAILURE);
+        }
+        return configuration;
+    }
+
+    private SmartConfiguration fetchConfiguration(String fhirServerUrl, String baseUrl) {
+        IssuerClient issuer = issuerRegistry.resolve(fhirServerUrl);
+
         try {
-            IGenericClient client = fhirContext.newRestfulGenericClient(fhirServerUrl);
-            CapabilityStatement conformance = client.capabilities()
-                    .ofType(CapabilityStatement.class)
-                    .execute();
+            return fetchWellKnown(issuer, baseUrl);
+        } catch (Exception e) {
+            log.debug("No usable .well-known/smart-configuration at {}: {}", baseUrl, e.getMessage());
+        }
 
-            return extractAuthorizationUrl(conformance);
+        try {
+            return fetchCapabilityStatement(issuer, baseUrl);
         } catch (Exception e) {
             log.error("Error getting authorization endpoint from FHIR server", e);
             // Fallback for Epic
-            return "https://fhir.epic.com/interconnect-fhir-oauth/oauth2/authorize";
+            return SmartConfiguration.builder()
+                    .authorizationEndpoint(EPIC_AUTHORIZE_URL)
+                    .source(SmartConfiguration.Source.FALLBACK)
+                    .build();
+        }
+    }
+
+    private SmartConfiguration fetchWellKnown(IssuerClient issuer, String baseUrl) throws IOException {
+        long start = System.nanoTime();
+        byte[] body = get(issuer, baseUrl + ".well-known/smart-configuration", "application/json");
+
+        FhirParseEvent parseEvent = new FhirParseEvent();
+        parseEvent.begin();
+        SmartConfiguration configuration;
+        try {
+            configuration = parseSmartConfiguration(body);
+        } catch (IOException e) {
+            parseEvent.complete(baseUrl, SMART_CONFIGURATION, body.length, SmartFlowEvent.FAILURE);
+            throw e;
+        }
+        parseEvent.complete(baseUrl, SMART_CONFIGURATION, body.length, SmartFlowEvent.SUCCESS);
+
+        if (configuration.getAuthorizationEndpoint() == null) {
+            throw new IOException("smart-configuration has no authorization_endpoint");
+        }
+
+        configuration.setSource(SmartConfiguration.Source.WELL_KNOWN);
+        configuration.setBytes(body.length);
+        configuration.setMillis(elapsedMillis(start));
+        return configuration;
+    }
+
+    private SmartConfiguration fetchCapabilityStatement(IssuerClient issuer, String baseUrl) {
+        long start = System.nanoTime();
+        byte[] body = get(issuer, baseUrl + "metadata", "application/fhir+json");
+
+        FhirParseEvent parseEvent = new FhirParseEvent();
+        parseEvent.begin();
+        CapabilityStatement conformance;
+        try {
+            conformance = fhirContext.newJsonParser()
+                    .parseResource(CapabilityStatement.class, new String(body, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            parseEvent.complete(baseUrl, CAPABILITY_STATEMENT, body.length, SmartFlowEvent.FAILURE);
+            throw e;
+        }
+        parseEvent.complete(baseUrl, CAPABILITY_STATEMENT, body.length, SmartFlowEvent.SUCCESS);
+
+        return SmartConfiguration.builder()
+                .authorizationEndpoint(extractOAuthUri(conformance, "authorize"))
+                .tokenEndpoint(extractOAuthUri(conformance, "token"))
+                .source(SmartConfiguration.Source.CAPABILITY_STATEMENT)
+                .bytes(body.length)
+                .millis(elapsedMillis(start))
+                .build();
+    }
+
+    /**
+     * Reads the fields we use from a smart-configuration document in a single streaming pass,
+     * skipping everything else without building a tree.
+     *
+     * @param body the raw JSON document
+     * @return the parsed configuration, without source and cost
+     * @throws IOException if the document is not valid JSON
+     */
+    SmartConfiguration parseSmartConfiguration(byte[] body) throws IOException {
+        SmartConfiguration configuration = new SmartConfiguration();
+
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("smart-configuration is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "issuer" -> configuration.setIssuer(parser.getValueAsString());
+                    case "authorization_endpoint" -> configuration.setAuthorizationEndpoint(parser.getValueAsString());
+                    case "token_endpoint" -> configuration.setTokenEndpoint(parser.getValueAsString());
+                    case "jwks_uri" -> configuration.setJwksUri(parser.getValueAsString());
+                    case "capabilities" -> configuration.setCapabilities(readStringArray(parser, value));
+                    default -> parser.skipChildren();
+                }
+            }
         }
+        return configuration;
+    }
+
+    private static List<String> readStringArray(JsonParser parser, JsonToken current) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (current != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return values;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                values.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private byte[] get(IssuerClient issuer, String url, String accept) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", accept)
+                .timeout(Duration.ofMillis(issuer.getConfig().getSocketTimeoutMs()))
+                .GET()
+                .build();
+
+        HttpResponse<byte[]> response = issuer.call(() -> {
+            try {
+                return issuer.getHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted fetching " + url, e);
+            }
+        });
+
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Unexpected status " + response.statusCode() + " from " + url);
+        }
+        return response.body();
     }
 
     /**
-     * Extracts the authorization URL from a FHIR capability statement.
+     * Extracts an endpoint from the oauth-uris extension of a FHIR capability statement.
      *
      * @param conformance the FHIR capability statement
-     * @return the authorization endpoint URL, or Epic's default if extraction fails
+     * @param name        the oauth-uris sub-extension, e.g. "authorize" or "token"
+     * @return the endpoint URL, Epic's default for "authorize" if extraction fails, or null otherwise
      */
-    private String extractAuthorizationUrl(CapabilityStatement conformance) {
+    private String extractOAuthUri(CapabilityStatement conformance, String name) {
         try {
-            return conformance.getRest().get(0)
+            Extension extension = conformance.getRest().get(0)
                     .getSecurity()
-                    .getExtensionByUrl("http://fhir-registry.smarthealthit.org/StructureDefinition/oauth-uris")
-                    .getExtensionByUrl("authorize")
-                    .getValue()
-                    .primitiveValue();
+                    .getExtensionByUrl(OAUTH_URIS_EXTENSION)
+                    .getExtensionByUrl(name);
+            return extension.getValue().primitiveValue();
         } catch (Exception e) {
-            log.error("Error extracting authorization URL from conformance statement", e);
+            log.error("Error extracting {} URL from conformance statement", name, e);
             // Fallback for Epic
-            return "https://fhir.epic.com/interconnect-fhir-oauth/oauth2/authorize";
+            return "authorize".equals(name) ? EPIC_AUTHORIZE_URL : null;
         }
     }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
 }
@@ -1,16 +1,45 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
-import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import ca.uhn.fhir.rest.gclient.IQuery;
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.FhirReadRecorder;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.SmartFlowEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Subscription;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 /**
  * Service responsible for interacting with FHIR resources using authenticated clients.
  * This service provides high-level operations for retrieving and processing FHIR data,
@@ -21,15 +50,19 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class FhirService {
 
-    private final FhirContext fhirContext;
+    private final RequestCoalescer requestCoalescer;
+    private final IssuerRegistry issuerRegistry;
+    private final HedgedCaller hedgedCaller;
 
-    @Value("${epic.fhir-base-url}")
-    private String fhirBaseUrl;
+    @Value("${fhir.fast-path.enabled:false}")
+    private boolean fastPathEnabled;
 
     /**
      * Retrieves a Patient resource from the FHIR server using the provided patient ID and access token.
      * The method uses HAPI FHIR's fluent API to construct and execute the FHIR read request.
      * Authentication is handled automatically through the bearer token interceptor.
+     * Concurrent reads of the same patient with the same access token share a single upstream request;
+     * reads made with different tokens never share one, even when the tokens belong to the same user.
      *
      * @param patientId   The FHIR resource ID of the patient to retrieve
      * @param accessToken The OAuth 2.0 access token for authentication
@@ -38,26 +71,364 @@ public class FhirService {
      *                          or the patient resource cannot be retrieved
      */
     public Patient getPatient(String patientId, String accessToken) {
-        log.info("Fetching patient with ID: {}", patientId);
+        return getPatient(null, patientId, accessToken);
+    }
 
-        try {
-            IGenericClient client = fhirContext.newRestfulGenericClient(fhirBaseUrl);
+    /**
+     * Retrieves a Patient resource from the given issuer's FHIR server, through the issuer's
+     * dedicated connection pool and within its rate limit.
+     * The read is bounded by the current request's {@link Deadline} and hedged when it is slower than usual.
+     *
+     * @param issuer      The issuer the access token was obtained from, or null for the default issuer
+     * @param patientId   The FHIR resource ID of the patient to retrieve
+     * @param accessToken The OAuth 2.0 access token for authentication
+     * @return Patient resource containing the patient's demographic and clinical information
+     * @throws RuntimeException if the patient resource cannot be retrieved
+     * @throws DeadlineExceededException if the read does not complete before the request deadline
+     */
+    public Patient getPatient(String issuer, String patientId, String accessToken) {
+        IssuerClient issuerClient = issuerRegistry.resolve(issuer);
+        String key = "Patient/" + patientId + "|" + issuerClient.getConfig().getIssuer()
+                + "|" + issuerClient.getConfig().getFhirBaseUrl() + "|" + TokenSubjects.subjectOf(accessToken);
+        return requestCoalescer.execute(key, () -> hedgedCaller.call(
+                "read Patient|" + issuerClient.getConfig().getFhirBaseUrl(), true, issuerClient.getCallExecutor(),
+                () -> issuerClient.call(() -> readPatient(issuerClient, patientId, accessToken))));
+    }
 
-            client.registerInterceptor(new BearerTokenAuthInterceptor(accessToken));
+    private Patient readPatient(IssuerClient issuerClient, String patientId, String accessToken) {
+        log.debug("Fetching patient with ID: {}", patientId);
+
+        FhirReadRecorder recorder = new FhirReadRecorder();
+        String outcome = SmartFlowEvent.FAILURE;
+        try {
+            IGenericClient client = issuerClient.newFhirClient(accessToken);
+            if (recorder.isEnabled()) {
+                client.registerInterceptor(recorder);
+            }
 
             Patient patient = client.read()
                     .resource(Patient.class)
                     .withId(patientId)
                     .execute();
+            outcome = SmartFlowEvent.SUCCESS;
 
-            log.info("Successfully retrieved patient: {} {}",
-                    patient.getNameFirstRep().getGivenAsSingleString(),
-                    patient.getNameFirstRep().getFamily());
+            log.info("Retrieved patient {}", patientId);
 
             return patient;
         } catch (Exception e) {
             log.error("Error fetching patient with ID: {}", patientId, e);
             throw new RuntimeException("Failed to fetch patient", e);
+        } finally {
+            recorder.complete(issuerClient.getConfig().getFhirBaseUrl(), "Patient", outcome);
+        }
+    }
+
+    /**
+     * Returns the issuer that {@link #searchPatients} reads from.
+     *
+     * @return the default issuer
+     */
+    public String getDefaultIssuer() {
+        return issuerRegistry.getDefault().getConfig().getIssuer();
+    }
+
+    /**
+     * Searches for the given patients, optionally restricted to those updated after a point in time,
+     * following result pages until the search is exhausted. Searches go to the default issuer.
+     *
+     * @param patientIds   The FHIR resource IDs of the patients to search for
+     * @param updatedAfter Only return patients whose meta.lastUpdated is after this instant, or null for all
+     * @param accessToken  The OAuth 2.0 access token for authentication
+     * @return the matching Patient resources
+     * @throws RuntimeException if the search fails
+     */
+    public List<Patient> searchPatients(Collection<String> patientIds, Instant updatedAfter, String accessToken) {
+        log.info("Searching {} patients updated after {}", patientIds.size(), updatedAfter);
+        return hapiSearch(patientIds, updatedAfter, accessToken, null);
+    }
+
+    /**
+     * Searches for the given patients like {@link #searchPatients}, returning their summaries. With
+     * {@code fhir.fast-path.enabled} the search pages are streamed straight into summaries by
+     * {@link PatientSummaryReader}, without building the HAPI {@code Bundle} and {@code Patient} objects;
+     * otherwise the HAPI search results are converted with {@link #toSummary}.
+     *
+     * @param patientIds   The FHIR resource IDs of the patients to search for
+     * @param updatedAfter Only return patients whose meta.lastUpdated is after this instant, or null for all
+     * @param accessToken  The OAuth 2.0 access token for authentication
+     * @return the summaries of the matching patients
+     * @throws RuntimeException if the search fails
+     */
+    public List<PatientSummary> searchPatientSummaries(Collection<String> patientIds, Instant updatedAfter,
+                                                       String accessToken) {
+        return searchPatientSummaries(patientIds, updatedAfter, accessToken, null);
+    }
+
+    /**
+     * Searches for the given patients like {@link #searchPatientSummaries(Collection, Instant, String)},
+     * taking a permit from the caller's rate limiter before every page request, not just the first.
+     *
+     * @param patientIds   The FHIR resource IDs of the patients to search for
+     * @param updatedAfter Only return patients whose meta.lastUpdated is after this instant, or null for all
+     * @param accessToken  The OAuth 2.0 access token for authentication
+     * @param pageLimiter  Rate limiter to take a permit from before each page request, or null
+     * @return the summaries of the matching patients
+     * @throws RuntimeException if the search fails or is interrupted waiting for a permit
+     */
+    public List<PatientSummary> searchPatientSummaries(Collection<String> patientIds, Instant updatedAfter,
+                                                       String accessToken, RateLimiter pageLimiter) {
+        log.info("Searching {} patients updated after {}", patientIds.size(), updatedAfter);
+        if (!fastPathEnabled) {
+            return hapiSearch(patientIds, updatedAfter, accessToken, pageLimiter).stream()
+                    .map(this::toSummary)
+                    .toList();
+        }
+
+        StringBuilder query = new StringBuilder("_id=")
+                .append(URLEncoder.encode(String.join(",", patientIds), StandardCharsets.UTF_8))
+                .append("&_count=").append(patientIds.size());
+        if (updatedAfter != null) {
+            query.append("&_lastUpdated=").append(URLEncoder.encode("gt" + updatedAfter, StandardCharsets.UTF_8));
+        }
+        return streamSearch(query.toString(), accessToken, pageLimiter);
+    }
+
+    /**
+     * Searches all patients of the default issuer updated after a point in time, not restricted to any ids,
+     * returning their summaries. Servers that only allow patient searches scoped by id reject this with a
+     * 4xx status, reported as a {@link BaseServerResponseException} in the cause chain.
+     *
+     * @param updatedAfter Only return patients whose meta.lastUpdated is after this instant
+     * @param accessToken  The OAuth 2.0 access token for authentication
+     * @param pageLimiter  Rate limiter to take a permit from before each page request, or null
+     * @return the summaries of the patients updated after the instant
+     * @throws RuntimeException if the search fails or is interrupted waiting for a permit
+     */
+    public List<PatientSummary> searchUpdatedPatientSummaries(Instant updatedAfter, String accessToken,
+                                                              RateLimiter pageLimiter) {
+        log.info("Searching all patients updated after {}", updatedAfter);
+        if (!fastPathEnabled) {
+            return hapiSearch(null, updatedAfter, accessToken, pageLimiter).stream()
+                    .map(this::toSummary)
+                    .toList();
+        }
+        return streamSearch("_lastUpdated=" + URLEncoder.encode("gt" + updatedAfter, StandardCharsets.UTF_8),
+                accessToken, pageLimiter);
+    }
+
+    private List<Patient> hapiSearch(Collection<String> patientIds, Instant updatedAfter, String accessToken,
+                                     RateLimiter pageLimiter) {
+        IssuerClient issuerClient = issuerRegistry.getDefault();
+
+        try {
+            IGenericClient client = issuerClient.newFhirClient(accessToken);
+
+            IQuery<IBaseBundle> search = client.search().forResource(Patient.class);
+            if (patientIds != null) {
+                search = search.where(new TokenClientParam("_id").exactly().codes(patientIds))
+                        .count(patientIds.size());
+            }
+            IQuery<Bundle> query = search.returnBundle(Bundle.class);
+
+            if (updatedAfter != null) {
+                query = query.lastUpdated(new DateRangeParam(
+                        new DateParam(ParamPrefixEnum.GREATER_THAN, Date.from(updatedAfter)), null));
+            }
+
+            List<Patient> patients = searchAll(issuerClient, client, query, Patient.class, pageLimiter);
+
+            log.info("Search returned {} patients", patients.size());
+            return patients;
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error searching patients updated after {}", updatedAfter, e);
+            throw new RuntimeException("Failed to search patients", e);
+        }
+    }
+
+    /**
+     * Reads every page of a Patient search with the streaming reader. Each page is fetched within the current
+     * {@link Deadline} and hedged like a read, and a {@code next} link is only followed when it stays under the
+     * issuer's FHIR base URL, since the request carries the bearer token.
+     */
+    private List<PatientSummary> streamSearch(String query, String accessToken, RateLimiter pageLimiter) {
+        IssuerClient issuerClient = issuerRegistry.getDefault();
+        String baseUrl = issuerClient.getConfig().getFhirBaseUrl();
+
+        try {
+            List<PatientSummary> patients = new ArrayList<>();
+            String next = baseUrl + "/Patient?" + query;
+            while (next != null) {
+                String url = next;
+                acquirePermit(pageLimiter);
+                SearchPage page = hedgedCaller.call("search Patient|" + baseUrl, true, issuerClient.getCallExecutor(),
+                        () -> issuerClient.call(() -> readSearchPage(issuerClient, url, accessToken)));
+                patients.addAll(page.patients());
+                next = page.next();
+                if (next != null) {
+                    checkUnderBaseUrl(baseUrl, next);
+                }
+            }
+
+            log.info("Search returned {} patients", patients.size());
+            return patients;
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error searching patients with {}", query, e);
+            throw new RuntimeException("Failed to search patients", e);
+        }
+    }
+
+    /**
+     * Rejects a link whose scheme, host, port or path is outside the FHIR base URL.
+     */
+    static void checkUnderBaseUrl(String baseUrl, String link) {
+        URI base = URI.create(baseUrl);
+        URI uri;
+        try {
+            uri = URI.create(link).normalize();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Malformed next link in search result", e);
+        }
+        String basePath = base.getPath().endsWith("/") ? base.getPath() : base.getPath() + "/";
+        boolean sameOrigin = base.getScheme().equalsIgnoreCase(String.valueOf(uri.getScheme()))
+                && base.getHost() != null && base.getHost().equalsIgnoreCase(uri.getHost())
+                && port(base) == port(uri)
+                && uri.getRawUserInfo() == null;
+        if (!sameOrigin || uri.getPath() == null || !(uri.getPath() + "/").startsWith(basePath)) {
+            throw new IllegalStateException("Search result links outside the FHIR base URL: "
+                    + uri.getScheme() + "://" + uri.getHost() + uri.getPath());
+        }
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "http".equalsIgnoreCase(uri.getScheme()) ? 80 : 443;
+    }
+
+    /**
+     * Fetches one search page. The patients are collected per attempt, so a hedged duplicate adds nothing.
+     */
+    private static SearchPage readSearchPage(IssuerClient issuerClient, String url, String accessToken) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", "application/fhir+json")
+                .header("Authorization", "Bearer " + accessToken)
+                .timeout(Duration.ofMillis(issuerClient.getConfig().getSocketTimeoutMs()))
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = issuerClient.getHttpClient()
+                    .send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw BaseServerResponseException.newInstance(response.statusCode(),
+                            "Patient search failed with HTTP " + response.statusCode());
+                }
+                List<PatientSummary> patients = new ArrayList<>();
+                String next = PatientSummaryReader.readSearchBundle(body, patients::add);
+                return new SearchPage(patients, next);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted searching patients", e);
+        }
+    }
+
+    private record SearchPage(List<PatientSummary> patients, String next) {
+    }
+
+    /**
+     * Creates a Subscription on the default issuer.
+     *
+     * @param subscription the Subscription to create
+     * @param accessToken  The OAuth 2.0 access token for authentication
+     * @return the id the server assigned, or null if it did not report one
+     * @throws RuntimeException if the create fails
+     */
+    public String createSubscription(Subscription subscription, String accessToken) {
+        IssuerClient issuerClient = issuerRegistry.getDefault();
+
+        try {
+            IGenericClient client = issuerClient.newFhirClient(accessToken);
+            MethodOutcome outcome = issuerClient.call(() -> client.create().resource(subscription).execute());
+            return outcome.getId() != null ? outcome.getId().getIdPart() : null;
+        } catch (Exception e) {
+            log.error("Error creating subscription for {}", subscription.getCriteria(), e);
+            throw new RuntimeException("Failed to create subscription", e);
+        }
+    }
+
+    /**
+     * Searches the Subscriptions on the default issuer that notify the given endpoint.
+     *
+     * @param endpoint    the channel endpoint
+     * @param accessToken The OAuth 2.0 access token for authentication
+     * @return the matching Subscription resources
+     * @throws RuntimeException if the search fails
+     */
+    public List<Subscription> searchSubscriptions(String endpoint, String accessToken) {
+        IssuerClient issuerClient = issuerRegistry.getDefault();
+
+        try {
+            IGenericClient client = issuerClient.newFhirClient(accessToken);
+            IQuery<Bundle> query = client.search()
+                    .forResource(Subscription.class)
+                    .where(Subscription.URL.matches().value(endpoint))
+                    .returnBundle(Bundle.class);
+            return searchAll(issuerClient, client, query, Subscription.class, null);
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error searching subscriptions for {}", endpoint, e);
+            throw new RuntimeException("Failed to search subscriptions", e);
+        }
+    }
+
+    private static void acquirePermit(RateLimiter pageLimiter) {
+        if (pageLimiter == null) {
+            return;
+        }
+        try {
+            pageLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting to request the next search page", e);
+        }
+    }
+
+    /**
+     * Runs a search and follows its result pages. Each page is fetched within the current {@link Deadline} and
+     * hedged like a read, and a {@code next} link is only followed when it stays under the issuer's FHIR base
+     * URL, since the request carries the bearer token.
+     */
+    private <T extends Resource> List<T> searchAll(IssuerClient issuerClient, IGenericClient client,
+                                                   IQuery<Bundle> query, Class<T> type, RateLimiter pageLimiter) {
+        String baseUrl = issuerClient.getConfig().getFhirBaseUrl();
+        String operation = "search " + type.getSimpleName() + "|" + baseUrl;
+        List<T> resources = new ArrayList<>();
+        acquirePermit(pageLimiter);
+        Bundle bundle = hedgedCaller.call(operation, true, issuerClient.getCallExecutor(),
+                () -> issuerClient.call(query::execute));
+        while (true) {
+            for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+                if (type.isInstance(entry.getResource())) {
+                    resources.add(type.cast(entry.getResource()));
+                }
+            }
+            if (bundle.getLink(IBaseBundle.LINK_NEXT) == null) {
+                return resources;
+            }
+            checkUnderBaseUrl(baseUrl, bundle.getLink(IBaseBundle.LINK_NEXT).getUrl());
+            Bundle current = bundle;
+            acquirePermit(pageLimiter);
+            bundle = hedgedCaller.call(operation, true, issuerClient.getCallExecutor(),
+                    () -> issuerClient.call(() -> client.loadPage().next(current).execute()));
         }
     }
 
@@ -90,4 +461,34 @@ public class FhirService {
 
         return !displayName.isEmpty() ? displayName.toString() : "Unknown Patient";
     }
-}
\ No newline at end of file
+
+    /**
+     * Converts a Patient resource into the compact summary kept by the patient store.
+     *
+     * @param patient The Patient resource to summarize
+     * @return PatientSummary holding the id, version, names, birth date, gender and identifiers
+     */
+    public PatientSummary toSummary(Patient patient) {
+        HumanName name = patient.getNameFirstRep();
+
+        PatientSummary.PatientSummaryBuilder builder = PatientSummary.builder()
+                .id(patient.getIdElement().getIdPart())
+                .versionId(patient.getMeta().getVersionId())
+                .lastUpdated(patient.getMeta().getLastUpdated() != null ?
+                        patient.getMeta().getLastUpdated().toInstant() : null)
+                .displayName(getPatientDisplayName(patient))
+                .familyName(name.getFamily())
+                .birthDate(PatientSummary.parseFhirDate(patient.getBirthDateElement().getValueAsString()))
+                .gender(patient.hasGender() ? patient.getGender().toCode() : null);
+
+        name.getGiven().stream()
+                .map(PrimitiveType::getValue)
+                .forEach(builder::givenName);
+
+        for (Identifier identifier : patient.getIdentifier()) {
+            builder.identifier(PatientIdentifier.of(identifier.getSystem(), identifier.getValue()));
+        }
+
+        return builder.build();
+    }
+}
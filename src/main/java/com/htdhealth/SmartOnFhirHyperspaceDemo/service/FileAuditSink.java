@@ -0,0 +1,94 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Audit sink appending one JSON object per line to a local file. A batch is encoded into one buffer,
+ * appended with a single write and, if enabled, synced with a single fsync. A batch that fails to write or
+ * sync is truncated off the file again before the failure is reported, so retrying it appends it once.
+ */
+class FileAuditSink implements AuditSink {
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+    FileAuditSink(Path file, boolean fsync) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fsync = fsync;
+    }
+
+    @Override
+    public void write(List<AuditRecord> records) throws IOException {
+        buffer.reset();
+        try (JsonGenerator generator = jsonFactory.createGenerator(buffer)) {
+            generator.setRootValueSeparator(null);
+            for (AuditRecord record : records) {
+                generator.writeStartObject();
+                generator.writeStringField("recorded", Instant.ofEpochMilli(record.getTimestampMillis()).toString());
+                generator.writeStringField("action", record.getAction().name());
+                generator.writeStringField("outcome", record.isSuccess() ? "success" : "failure");
+                writeOptional(generator, "issuer", record.getIssuer());
+                writeOptional(generator, "user", record.getUser());
+                writeOptional(generator, "patient", record.getPatientId());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+
+        // The channel appends, so the batch starts at the current end of the file
+        long start = channel.size();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            discardFrom(start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Cuts off whatever part of a failed batch reached the file, so the retry does not leave a torn line
+     * or a second copy of the records that were written.
+     */
+    private void discardFrom(long start, Exception failure) {
+        try {
+            channel.truncate(start);
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private static void writeOptional(JsonGenerator generator, String field, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(field, value);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
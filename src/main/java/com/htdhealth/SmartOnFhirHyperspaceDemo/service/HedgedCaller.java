@@ -0,0 +1,299 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs upstream calls within the current thread's {@link Deadline}, hedging idempotent ones.
+ * <p>
+ * A call that has not answered when the deadline passes is abandoned with a {@link DeadlineExceededException}.
+ * An idempotent call that has not answered after the observed p95 latency of its operation gets a second,
+ * identical request, and whichever answers first wins. Each call earns {@code upstream.hedging.max-ratio}
+ * of a hedge and each hedge spends one, so hedges never exceed that share of the traffic, even when
+ * the upstream is uniformly slow. Hedging starts once an operation has enough latency samples.
+ * <p>
+ * Requests run on the issuer's bounded {@link CallExecutor}, which has as many slots as the issuer's bulkhead
+ * has permits, since more could only queue on the bulkhead. When it is saturated a primary request fails fast
+ * like a full bulkhead, and a hedge is skipped so the call stays a single attempt.
+ * Once a request has answered, or the deadline has passed, the other attempt is cancelled and interrupted.
+ */
+@Component
+@Slf4j
+public class HedgedCaller {
+
+    private static final int LATENCY_WINDOW = 512;
+    private static final int RECOMPUTE_EVERY = 32;
+    private static final double MAX_HEDGE_BURST = 10;
+
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    @Value("${upstream.hedging.enabled:true}")
+    private boolean hedgingEnabled;
+
+    @Value("${upstream.hedging.max-ratio:0.05}")
+    private double maxHedgeRatio;
+
+    @Value("${upstream.hedging.min-delay-ms:20}")
+    private long minHedgeDelayMs;
+
+    @Value("${upstream.hedging.min-samples:50}")
+    private int minSamples;
+
+    /**
+     * Runs an upstream call within the current deadline.
+     *
+     * @param operation  name of the operation the call belongs to, latency is tracked per operation
+     * @param idempotent whether the call may be sent twice; only idempotent calls are hedged
+     * @param executor   executor the requests run on, normally the issuer's
+     * @param request    the upstream call
+     * @param <T>        result type
+     * @return the result of the first request to answer
+     * @throws DeadlineExceededException if no request answered before the deadline
+     * @throws RuntimeException          if the executor has no slot free for the request
+     */
+    public <T> T call(String operation, boolean idempotent, CallExecutor executor, Supplier<T> request) {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException(operation + " not started, the request deadline has passed");
+        }
+
+        Operation stats = operations.computeIfAbsent(operation, key -> new Operation());
+        boolean hedgeable = idempotent && hedgingEnabled;
+        if (deadline == null && !hedgeable) {
+            return stats.timed(request);
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        Attempt<T> primary = executor.trySubmit(new Attempt<>(stats, request, result, outstanding));
+        if (primary == null) {
+            throw new RuntimeException("Too many concurrent upstream calls for " + operation);
+        }
+        Attempt<T> hedge = null;
+        stats.earnHedge(maxHedgeRatio);
+
+        try {
+            long hedgeDelay = hedgeable ? stats.hedgeDelayNanos(minSamples, TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMs)) : -1;
+            if (hedgeDelay >= 0 && hedgeDelay < remainingNanos(deadline)) {
+                try {
+                    return result.get(hedgeDelay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (stats.trySpendHedge()) {
+                        log.debug("Hedging {} after {} ms", operation, TimeUnit.NANOSECONDS.toMillis(hedgeDelay));
+                        outstanding.incrementAndGet();
+                        hedge = executor.trySubmit(new Attempt<>(stats, request, result, outstanding));
+                        if (hedge == null) {
+                            outstanding.decrementAndGet();
+                            log.debug("Not hedging {}, no upstream call slot free", operation);
+                        }
+                    }
+                }
+            }
+            return deadline == null ? result.get() : result.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(operation + " did not complete within the request deadline");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for " + operation, e);
+        } finally {
+            // Stops the attempt that lost, or both once the deadline passed; a no-op for finished ones
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns the latency after which calls of an operation are hedged.
+     *
+     * @param operation the operation name
+     * @return the hedge delay in milliseconds, or -1 if the operation has too few samples to hedge
+     */
+    public long hedgeDelayMillis(String operation) {
+        Operation stats = operations.get(operation);
+        long nanos = stats == null ? -1 : stats.hedgeDelayNanos(minSamples, TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMs));
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static long remainingNanos(Deadline deadline) {
+        return deadline == null ? Long.MAX_VALUE : deadline.remainingNanos();
+    }
+
+    /**
+     * Bounded executor for upstream calls. At most {@code maxThreads} requests hold a slot at once, and a request
+     * that finds no free slot is refused rather than queued. A request frees its slot as soon as it has answered,
+     * before its caller is woken, so back-to-back calls never find their own previous request still busy.
+     */
+    public static final class CallExecutor {
+
+        private final ThreadPoolExecutor threads;
+        private final Semaphore slots;
+
+        public CallExecutor(String name, int maxThreads) {
+            AtomicInteger threadCount = new AtomicInteger();
+            threads = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            threads.allowCoreThreadTimeOut(true);
+            slots = new Semaphore(maxThreads);
+        }
+
+        /**
+         * Interrupts running requests and stops the threads.
+         */
+        public void shutdown() {
+            threads.shutdownNow();
+        }
+
+        /**
+         * Starts the attempt if a slot is free.
+         *
+         * @return the started attempt, or null if every slot is taken
+         */
+        private <T> Attempt<T> trySubmit(Attempt<T> attempt) {
+            if (!slots.tryAcquire()) {
+                return null;
+            }
+            attempt.slots = slots;
+            try {
+                attempt.future = threads.submit(attempt);
+            } catch (RejectedExecutionException e) {
+                attempt.releaseSlot();
+                throw e;
+            }
+            return attempt;
+        }
+    }
+
+    /**
+     * One request of a call, holding an executor slot until it has answered or was cancelled before starting.
+     */
+    private static final class Attempt<T> implements Runnable {
+
+        private final Operation stats;
+        private final Supplier<T> request;
+        private final CompletableFuture<T> result;
+        private final AtomicInteger outstanding;
+        private final AtomicBoolean slotHeld = new AtomicBoolean(true);
+        private volatile boolean started;
+        private Semaphore slots;
+        private Future<?> future;
+
+        private Attempt(Operation stats, Supplier<T> request, CompletableFuture<T> result, AtomicInteger outstanding) {
+            this.stats = stats;
+            this.request = request;
+            this.result = result;
+            this.outstanding = outstanding;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            T value;
+            try {
+                value = stats.timed(request);
+            } catch (Throwable t) {
+                releaseSlot();
+                if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(t);
+                }
+                return;
+            }
+            releaseSlot();
+            result.complete(value);
+        }
+
+        private void cancel() {
+            future.cancel(true);
+            if (!started) {
+                releaseSlot();
+            }
+        }
+
+        private void releaseSlot() {
+            if (slotHeld.compareAndSet(true, false)) {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Latency window and hedge budget of one operation.
+     */
+    private static class Operation {
+
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private int count;
+        private int next;
+        private int sinceRecompute;
+        private long p95Nanos = -1;
+        private double hedgeTokens;
+
+        private <T> T timed(Supplier<T> request) {
+            long start = System.nanoTime();
+            T value = request.get();
+            record(System.nanoTime() - start);
+            return value;
+        }
+
+        private synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            sinceRecompute++;
+        }
+
+        private synchronized long hedgeDelayNanos(int minSamples, long minDelayNanos) {
+            if (count < minSamples) {
+                return -1;
+            }
+            if (p95Nanos < 0 || sinceRecompute >= RECOMPUTE_EVERY) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                p95Nanos = sorted[(int) Math.ceil(0.95 * count) - 1];
+                sinceRecompute = 0;
+            }
+            return Math.max(p95Nanos, minDelayNanos);
+        }
+
+        private synchronized void earnHedge(double ratio) {
+            hedgeTokens = Math.min(MAX_HEDGE_BURST, hedgeTokens + ratio);
+        }
+
+        private synchronized boolean trySpendHedge() {
+            if (hedgeTokens >= 1) {
+                hedgeTokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Verifies OpenID Connect id_tokens locally: the RSA signature against the issuer's cached JWKS,
+ * then the {@code iss}, {@code aud}, {@code exp} and {@code iat} claims.
+ * A verification costs a signature check instead of a userinfo or introspection round trip.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IdTokenValidator {
+
+    private static final Map<String, String> SIGNATURE_ALGORITHMS = Map.of(
+            "RS256", "SHA256withRSA",
+            "RS384", "SHA384withRSA",
+            "RS512", "SHA512withRSA");
+
+    private final JwksCache jwksCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${oidc.clock-skew-seconds:60}")
+    private long clockSkewSeconds;
+
+    /**
+     * Verifies an id_token issued to the issuer's client.
+     *
+     * @param idToken the compact-serialized id_token
+     * @param issuer  the issuer the token was obtained from
+     * @return the verified claims, or null if the issuer publishes no JWKS and the token cannot be verified
+     * @throws RuntimeException if the token is malformed, its signature is invalid or a claim check fails
+     */
+    public IdTokenClaims validate(String idToken, IssuerClient issuer) {
+        if (!jwksCache.isAvailable(issuer)) {
+            return null;
+        }
+
+        String[] parts = idToken.split("\\.");
+        if (parts.length != 3) {
+            throw new RuntimeException("Malformed id_token");
+        }
+
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            JsonNode header = objectMapper.readTree(decoder.decode(parts[0]));
+            JsonNode claims = objectMapper.readTree(decoder.decode(parts[1]));
+
+            String algorithm = SIGNATURE_ALGORITHMS.get(header.path("alg").asText());
+            if (algorithm == null) {
+                throw new RuntimeException("Unsupported id_token algorithm: " + header.path("alg").asText());
+            }
+
+            String kid = header.hasNonNull("kid") ? header.get("kid").asText() : null;
+            PublicKey key = jwksCache.getKey(issuer, kid);
+            if (key == null) {
+                throw new RuntimeException("Unknown id_token signing key: " + kid);
+            }
+
+            Signature signature = Signature.getInstance(algorithm);
+            signature.initVerify(key);
+            signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(decoder.decode(parts[2]))) {
+                throw new RuntimeException("Invalid id_token signature");
+            }
+
+            IdTokenClaims verified = toClaims(claims);
+            checkClaims(verified, issuer);
+            return verified;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Malformed id_token", e);
+        }
+    }
+
+    private void checkClaims(IdTokenClaims claims, IssuerClient issuer) {
+        // The issuer advertised in the smart-configuration, or the configured issuer URL when it advertises none
+        String expectedIssuer = jwksCache.getExpectedIssuer(issuer);
+        if (expectedIssuer == null) {
+            expectedIssuer = issuer.getConfig().getIssuer();
+        }
+        if (!expectedIssuer.equals(claims.getIssuer())) {
+            throw new RuntimeException("Unexpected id_token issuer: " + claims.getIssuer());
+        }
+        if (!claims.getAudience().contains(issuer.getConfig().getClientId())) {
+            throw new RuntimeException("id_token was not issued to this client");
+        }
+
+        Instant now = Instant.now();
+        if (claims.getExpiresAt() == null || claims.isExpired(now.minusSeconds(clockSkewSeconds))) {
+            throw new RuntimeException("id_token has expired");
+        }
+        if (claims.getIssuedAt() != null && claims.getIssuedAt().isAfter(now.plusSeconds(clockSkewSeconds))) {
+            throw new RuntimeException("id_token was issued in the future");
+        }
+    }
+
+    private static IdTokenClaims toClaims(JsonNode claims) {
+        IdTokenClaims.IdTokenClaimsBuilder builder = IdTokenClaims.builder()
+                .issuer(claims.path("iss").asText(null))
+                .subject(claims.path("sub").asText(null))
+                .fhirUser(claims.path("fhirUser").asText(null))
+                .name(claims.path("name").asText(null));
+
+        JsonNode audience = claims.path("aud");
+        if (audience.isArray()) {
+            audience.forEach(value -> builder.audience(value.asText()));
+        } else if (audience.isTextual()) {
+            builder.audience(audience.asText());
+        }
+
+        if (claims.hasNonNull("exp")) {
+            builder.expiresAt(Instant.ofEpochSecond(claims.get("exp").asLong()));
+        }
+        if (claims.hasNonNull("iat")) {
+            builder.issuedAt(Instant.ofEpochSecond(claims.get("iat").asLong()));
+        }
+        return builder.build();
+    }
+}
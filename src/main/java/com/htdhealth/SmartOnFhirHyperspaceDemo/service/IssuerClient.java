@@ -0,0 +1,211 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IssuerConfig;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Upstream clients dedicated to one issuer: a HAPI client factory with its own connection pool,
+ * a plain HTTP client (used for the token endpoint, discovery documents and fast-path patient searches)
+ * with its own connection pool, a rate limiter, a concurrency bulkhead and a call executor with the bulkhead's size
+ * for requests run by the {@link HedgedCaller}.
+ * Calls that cannot get a permit within the acquire timeout fail fast instead of queueing,
+ * so a slow issuer exhausts only its own permits and connections.
+ */
+@Slf4j
+public class IssuerClient {
+
+    @Getter
+    private final IssuerConfig config;
+    private final ApacheRestfulClientFactory fhirClientFactory;
+    @Getter
+    private final HttpClient httpClient;
+    @Getter
+    private final RestTemplate tokenRestTemplate;
+    private final RateLimiter rateLimiter;
+    private final Semaphore bulkhead;
+    @Getter
+    private final HedgedCaller.CallExecutor callExecutor;
+    private final AtomicInteger prewarmsInFlight = new AtomicInteger();
+    private final AtomicLong lastPrewarmNanos = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
+    @Getter
+    private volatile boolean closed;
+
+    public IssuerClient(FhirContext fhirContext, IssuerConfig config) {
+        this.config = config;
+
+        fhirClientFactory = new ApacheRestfulClientFactory(fhirContext);
+        fhirClientFactory.setPoolMaxTotal(config.getMaxConnections());
+        fhirClientFactory.setPoolMaxPerRoute(config.getMaxConnections());
+        fhirClientFactory.setConnectTimeout(config.getConnectTimeoutMs());
+        fhirClientFactory.setSocketTimeout(config.getSocketTimeoutMs());
+        fhirClientFactory.setConnectionRequestTimeout(config.getAcquireTimeoutMs());
+
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(config.getConnectTimeoutMs()))
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(config.getSocketTimeoutMs()));
+        tokenRestTemplate = new RestTemplate(requestFactory);
+
+        rateLimiter = new RateLimiter(config.getRequestsPerSecond());
+        bulkhead = new Semaphore(config.getMaxConnections());
+        callExecutor = new HedgedCaller.CallExecutor("upstream-call", config.getMaxConnections());
+    }
+
+    /**
+     * Creates a FHIR client for the issuer's FHIR base URL backed by the issuer's connection pool.
+     *
+     * @param accessToken bearer token to authenticate with, or null for unauthenticated requests
+     * @return a new generic client
+     */
+    public IGenericClient newFhirClient(String accessToken) {
+        return newFhirClient(config.getFhirBaseUrl(), accessToken);
+    }
+
+    /**
+     * Creates a FHIR client for an arbitrary base URL backed by the issuer's connection pool.
+     *
+     * @param baseUrl     FHIR server base URL
+     * @param accessToken bearer token to authenticate with, or null for unauthenticated requests
+     * @return a new generic client
+     */
+    public IGenericClient newFhirClient(String baseUrl, String accessToken) {
+        IGenericClient client = fhirClientFactory.newGenericClient(baseUrl);
+        if (accessToken != null) {
+            client.registerInterceptor(new BearerTokenAuthInterceptor(accessToken));
+        }
+        return client;
+    }
+
+    /**
+     * Runs an upstream call within the issuer's rate limit and concurrency bulkhead.
+     *
+     * @param request the upstream call
+     * @param <T>     result type
+     * @return the result of the call
+     * @throws RuntimeException if no permit is available within the acquire timeout
+     */
+    public <T> T call(Supplier<T> request) {
+        try {
+            if (!rateLimiter.tryAcquire(config.getAcquireTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Rate limit exceeded for issuer: " + config.getIssuer());
+            }
+            if (!bulkhead.tryAcquire(config.getAcquireTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Too many concurrent requests to issuer: " + config.getIssuer());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for issuer: " + config.getIssuer(), e);
+        }
+
+        try {
+            return request.get();
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Claims a connection pre-warm slot. Fails if {@code maxInFlight} pre-warms of this issuer are
+     * already running or the last one started less than {@code minIntervalNanos} ago, so a burst of
+     * launches opens a bounded number of connections. A claimed slot is released by {@link #warmConnections()},
+     * or by {@link #releasePrewarm()} if the pre-warm could not be started.
+     *
+     * @param maxInFlight      maximum concurrent pre-warms of this issuer
+     * @param minIntervalNanos minimum time between pre-warms of this issuer
+     * @return true if the caller may pre-warm
+     */
+    public boolean tryClaimPrewarm(int maxInFlight, long minIntervalNanos) {
+        if (prewarmsInFlight.incrementAndGet() > maxInFlight) {
+            prewarmsInFlight.decrementAndGet();
+            return false;
+        }
+        long now = System.nanoTime();
+        long last = lastPrewarmNanos.get();
+        if (now - last < minIntervalNanos || !lastPrewarmNanos.compareAndSet(last, now)) {
+            prewarmsInFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a slot claimed by {@link #tryClaimPrewarm} for a pre-warm that will not run.
+     */
+    public void releasePrewarm() {
+        prewarmsInFlight.decrementAndGet();
+    }
+
+    /**
+     * Opens a pooled connection to the token endpoint and one to the FHIR server, so the next code exchange
+     * and patient read skip DNS resolution and the TLS handshake. Both are HEAD requests outside the rate limit;
+     * any HTTP status is fine, only the connection matters. Releases the slot claimed by {@link #tryClaimPrewarm}.
+     */
+    public void warmConnections() {
+        try {
+            HttpRequest tokenRequest = HttpRequest.newBuilder(URI.create(config.getTokenUrl()))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(Duration.ofMillis(config.getSocketTimeoutMs()))
+                    .build();
+            httpClient.send(tokenRequest, BodyHandlers.discarding());
+
+            HttpHead fhirRequest = new HttpHead(config.getFhirBaseUrl() + "/metadata");
+            HttpResponse fhirResponse = fhirClientFactory.getNativeHttpClient().execute(fhirRequest);
+            // Consuming the (empty) entity returns the connection to the pool instead of closing it
+            EntityUtils.consumeQuietly(fhirResponse.getEntity());
+        } catch (IOException e) {
+            log.debug("Connection pre-warm for issuer {} failed: {}", config.getIssuer(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            prewarmsInFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of calls currently in flight to this issuer.
+     *
+     * @return in-flight call count
+     */
+    public int inFlight() {
+        return config.getMaxConnections() - bulkhead.availablePermits();
+    }
+
+    /**
+     * Releases the issuer's pooled FHIR connections and its call executor's threads.
+     */
+    public void close() {
+        closed = true;
+        callExecutor.shutdown();
+        try {
+            if (fhirClientFactory.getNativeHttpClient() instanceof Closeable closeable) {
+                closeable.close();
+            }
+        } catch (Exception e) {
+            log.warn("Error closing connection pool for issuer: {}", config.getIssuer(), e);
+        }
+    }
+}
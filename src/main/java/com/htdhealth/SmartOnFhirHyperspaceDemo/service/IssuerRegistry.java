@@ -0,0 +1,269 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IssuerConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Registry of the EHR issuers (FHIR servers) the app serves, keyed by issuer URL.
+ * <p>
+ * The default issuer comes from the {@code epic.*} properties. Additional issuers are read from
+ * the JSON file at {@code issuers.registry-file}, a list of {@link IssuerConfig} entries, which is
+ * polled for changes and hot reloaded. Entries without an absolute {@code issuer} or {@code tokenUrl}, without a
+ * {@code clientId}, or repeating an issuer already registered (including the default) are logged and skipped.
+ * Each issuer gets its own {@link IssuerClient}; clients whose
+ * configuration did not change survive a reload with their warm connection pools. Replaced clients are
+ * retired rather than closed, so calls already running on them finish: a retired client is closed once it
+ * has no calls in flight, or after {@code issuers.retire-grace-ms} at the latest.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IssuerRegistry {
+
+    private final FhirContext fhirContext;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicReference<Map<String, IssuerClient>> issuers = new AtomicReference<>(Map.of());
+
+    @Value("${epic.fhir-base-url}")
+    private String defaultFhirBaseUrl;
+
+    @Value("${epic.client-id}")
+    private String defaultClientId;
+
+    @Value("${epic.token-url:https://fhir.epic.com/interconnect-fhir-oauth/oauth2/token}")
+    private String defaultTokenUrl;
+
+    @Value("${issuers.registry-file:}")
+    private String registryFile;
+
+    @Value("${issuers.retire-grace-ms:60000}")
+    private long retireGraceMs;
+
+    private volatile long registryLastModified = -1;
+
+    // Guarded by this
+    private final List<RetiredClient> retired = new ArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        issuers.get().values().forEach(IssuerClient::close);
+        retired.forEach(retiredClient -> retiredClient.client().close());
+        retired.clear();
+    }
+
+    /**
+     * Resolves the issuer for an {@code iss} launch parameter or FHIR base URL.
+     * Unregistered issuers fall back to the default issuer.
+     *
+     * @param issuer issuer URL, may be null
+     * @return the issuer's client
+     */
+    public IssuerClient resolve(String issuer) {
+        Map<String, IssuerClient> current = issuers.get();
+        if (issuer != null) {
+            IssuerClient client = current.get(normalize(issuer));
+            if (client != null) {
+                return client;
+            }
+            log.warn("Unregistered issuer {}, using the default issuer", issuer);
+        }
+        return current.get(normalize(defaultFhirBaseUrl));
+    }
+
+    /**
+     * Returns the default issuer configured through the {@code epic.*} properties.
+     *
+     * @return the default issuer's client
+     */
+    public IssuerClient getDefault() {
+        return resolve(null);
+    }
+
+    /**
+     * Returns all registered issuers.
+     *
+     * @return the issuers' clients
+     */
+    public Collection<IssuerClient> getAll() {
+        return issuers.get().values();
+    }
+
+    /**
+     * Reloads the registry file if it changed since the last load.
+     */
+    @Scheduled(fixedDelayString = "${issuers.reload-interval-ms:10000}")
+    public void reloadIfChanged() {
+        if (registryFile.isEmpty()) {
+            return;
+        }
+        try {
+            long lastModified = Files.getLastModifiedTime(Path.of(registryFile)).toMillis();
+            if (lastModified != registryLastModified) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.error("Error checking issuer registry file {}", registryFile, e);
+        }
+    }
+
+    /**
+     * Rebuilds the registry from the default issuer and the registry file, then atomically swaps it in.
+     * A registry file that fails to parse leaves the current registry in place.
+     */
+    public synchronized void reload() {
+        List<IssuerConfig> configs;
+        try {
+            configs = loadConfigs();
+        } catch (Exception e) {
+            log.error("Error loading issuer registry file {}, keeping the current registry", registryFile, e);
+            return;
+        }
+
+        Map<String, IssuerClient> previous = issuers.get();
+        Map<String, IssuerClient> next = new HashMap<>();
+        for (IssuerConfig config : configs) {
+            String key = normalize(config.getIssuer());
+            IssuerClient existing = previous.get(key);
+            next.put(key, existing != null && existing.getConfig().equals(config)
+                    ? existing
+                    : new IssuerClient(fhirContext, config));
+        }
+
+        issuers.set(Map.copyOf(next));
+        long now = System.nanoTime();
+        previous.forEach((key, client) -> {
+            if (next.get(key) != client) {
+                retired.add(new RetiredClient(client, now));
+            }
+        });
+
+        log.info("Issuer registry loaded with {} issuers", next.size());
+    }
+
+    /**
+     * Closes the clients replaced by a reload that have no calls in flight any more, or that were
+     * retired longer than the grace period ago.
+     */
+    @Scheduled(fixedDelayString = "${issuers.retire-check-interval-ms:1000}")
+    public synchronized void closeRetired() {
+        long now = System.nanoTime();
+        retired.removeIf(retiredClient -> {
+            IssuerClient client = retiredClient.client();
+            int inFlight = client.inFlight();
+            if (inFlight > 0 && now - retiredClient.retiredAtNanos() < TimeUnit.MILLISECONDS.toNanos(retireGraceMs)) {
+                return false;
+            }
+            if (inFlight > 0) {
+                log.warn("Closing replaced client for issuer {} with {} calls still in flight",
+                        client.getConfig().getIssuer(), inFlight);
+            }
+            client.close();
+            return true;
+        });
+    }
+
+    private List<IssuerConfig> loadConfigs() throws Exception {
+        List<IssuerConfig> configs = new ArrayList<>();
+        configs.add(IssuerConfig.builder()
+                .issuer(defaultFhirBaseUrl)
+                .fhirBaseUrl(defaultFhirBaseUrl)
+                .clientId(defaultClientId)
+                .tokenUrl(defaultTokenUrl)
+                .build());
+
+        if (!registryFile.isEmpty()) {
+            Path path = Path.of(registryFile);
+            registryLastModified = Files.getLastModifiedTime(path).toMillis();
+            List<IssuerConfig> registered = objectMapper.readValue(path.toFile(), new TypeReference<>() {
+            });
+            Set<String> keys = new HashSet<>();
+            keys.add(normalize(defaultFhirBaseUrl));
+            for (IssuerConfig config : registered) {
+                if (config == null) {
+                    continue;
+                }
+                if (config.getFhirBaseUrl() == null) {
+                    config.setFhirBaseUrl(config.getIssuer());
+                }
+                String problem = validate(config);
+                if (problem == null && !keys.add(normalize(config.getIssuer()))) {
+                    problem = "the issuer is already registered";
+                }
+                if (problem != null) {
+                    log.error("Skipping issuer registry entry {}: {}", config.getIssuer(), problem);
+                    continue;
+                }
+                configs.add(config);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Checks the fields a registry entry cannot work without.
+     *
+     * @return what is wrong with the entry, or null if it is usable
+     */
+    private static String validate(IssuerConfig config) {
+        if (!isAbsoluteUrl(config.getIssuer())) {
+            return "issuer must be an absolute URL";
+        }
+        if (!isAbsoluteUrl(config.getFhirBaseUrl())) {
+            return "fhirBaseUrl must be an absolute URL";
+        }
+        if (!isAbsoluteUrl(config.getTokenUrl())) {
+            return "tokenUrl must be an absolute URL";
+        }
+        if (config.getClientId() == null || config.getClientId().isBlank()) {
+            return "clientId is required";
+        }
+        return null;
+    }
+
+    private static boolean isAbsoluteUrl(String value) {
+        if (value == null || value.isBlank()) {
+            return false;
+        }
+        try {
+            URI uri = new URI(value);
+            return uri.isAbsolute() && uri.getHost() != null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static String normalize(String issuer) {
+        return issuer.endsWith("/") ? issuer.substring(0, issuer.length() - 1) : issuer;
+    }
+
+    private record RetiredClient(IssuerClient client, long retiredAtNanos) {
+    }
+}
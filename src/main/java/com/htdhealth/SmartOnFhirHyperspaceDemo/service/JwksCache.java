@@ -0,0 +1,231 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.SmartConfiguration;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the issuers' OpenID Connect signing keys (JWKS), keyed by issuer and key id.
+ * <p>
+ * The JWKS location and the expected id_token issuer are discovered once per issuer from the
+ * SMART configuration. Keys are fetched on first use and re-fetched when a token names an unknown
+ * key id, which is how key rotation shows up, or once the key set is older than the maximum age.
+ * Re-fetches of an issuer are at most one per {@code oidc.jwks.min-refresh-interval-ms}, so tokens with
+ * bogus key ids cannot be used to hammer the issuer, and concurrent re-fetches are coalesced.
+ * <p>
+ * An entry belongs to the {@link IssuerClient} it was discovered for: once a registry reload replaces the
+ * client, its entry is dropped and discovery runs again with the new configuration. An issuer found to
+ * publish no JWKS is remembered for {@code oidc.jwks.negative-ttl-ms} only, then discovered again.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JwksCache {
+
+    private final FhirCapabilityService fhirCapabilityService;
+    private final RequestCoalescer requestCoalescer;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConcurrentHashMap<String, IssuerKeys> keysByIssuer = new ConcurrentHashMap<>();
+
+    @Value("${oidc.jwks.min-refresh-interval-ms:30000}")
+    private long minRefreshIntervalMs;
+
+    @Value("${oidc.jwks.max-age-ms:86400000}")
+    private long maxAgeMs;
+
+    @Value("${oidc.jwks.negative-ttl-ms:300000}")
+    private long negativeTtlMs;
+
+    /**
+     * Returns the issuer's signing key with the given key id, fetching the key set if the key is unknown
+     * and the issuer's key set has not been fetched within the minimum refresh interval.
+     *
+     * @param issuer the issuer that signed the token
+     * @param kid    key id from the token header, may be null if the issuer publishes a single key
+     * @return the public key, or null if the issuer has no such key
+     */
+    public PublicKey getKey(IssuerClient issuer, String kid) {
+        IssuerKeys keys = issuerKeys(issuer);
+
+        PublicKey publicKey = keys.find(kid);
+        long now = System.nanoTime();
+        boolean stale = keys.fetchedAtNanos == 0 || now - keys.fetchedAtNanos > TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        boolean refreshAllowed = keys.attemptedAtNanos == 0
+                || now - keys.attemptedAtNanos > TimeUnit.MILLISECONDS.toNanos(minRefreshIntervalMs);
+
+        if ((publicKey == null || stale) && refreshAllowed) {
+            refresh(issuer, keys);
+            publicKey = keys.find(kid);
+        }
+        return publicKey;
+    }
+
+    /**
+     * Returns the id_token issuer advertised in the issuer's SMART configuration.
+     *
+     * @param issuer the issuer
+     * @return the expected {@code iss} claim, or null if the issuer does not advertise one
+     */
+    public String getExpectedIssuer(IssuerClient issuer) {
+        return issuerKeys(issuer).expectedIssuer;
+    }
+
+    /**
+     * Returns whether a JWKS location is known for the issuer.
+     *
+     * @param issuer the issuer
+     * @return true if the issuer's tokens can be verified
+     */
+    public boolean isAvailable(IssuerClient issuer) {
+        return issuerKeys(issuer).jwksUri != null;
+    }
+
+    /**
+     * Returns the issuer's cache entry, discovering its JWKS location on first use, after the issuer's
+     * client was replaced and once a negative entry has expired. A discovery that only produced the
+     * fallback configuration is not cached, so it is retried.
+     */
+    private IssuerKeys issuerKeys(IssuerClient issuer) {
+        String issuerUrl = issuer.getConfig().getIssuer();
+        IssuerKeys cached = keysByIssuer.get(issuerUrl);
+        if (cached != null && isCurrent(cached, issuer)) {
+            return cached;
+        }
+
+        SmartConfiguration configuration = fhirCapabilityService.discover(issuer.getConfig().getFhirBaseUrl());
+        String jwksUri = issuer.getConfig().getJwksUri() != null
+                ? issuer.getConfig().getJwksUri()
+                : configuration.getJwksUri();
+        IssuerKeys keys = new IssuerKeys(issuer, jwksUri, configuration.getIssuer());
+
+        if (jwksUri == null) {
+            log.warn("No JWKS location known for issuer {}, id_tokens cannot be verified", issuerUrl);
+            if (configuration.getSource() == SmartConfiguration.Source.FALLBACK) {
+                return keys;
+            }
+        }
+        IssuerKeys current = keysByIssuer.compute(issuerUrl,
+                (url, existing) -> existing == null || existing == cached ? keys : existing);
+        return current.client == issuer ? current : keys;
+    }
+
+    private boolean isCurrent(IssuerKeys keys, IssuerClient issuer) {
+        if (keys.client != issuer) {
+            return false;
+        }
+        return keys.jwksUri != null
+                || System.nanoTime() - keys.createdAtNanos < TimeUnit.MILLISECONDS.toNanos(negativeTtlMs);
+    }
+
+    /**
+     * Re-fetches the issuer's key set. A failed fetch keeps the previous keys and still counts
+     * against the minimum refresh interval.
+     */
+    private void refresh(IssuerClient issuer, IssuerKeys keys) {
+        if (keys.jwksUri == null) {
+            return;
+        }
+        try {
+            requestCoalescer.execute("jwks|" + keys.jwksUri, () -> {
+                keys.attemptedAtNanos = System.nanoTime();
+                keys.keys = fetchKeys(issuer, keys.jwksUri);
+                keys.fetchedAtNanos = System.nanoTime();
+                log.info("Fetched {} signing keys for issuer {}", keys.keys.size(), issuer.getConfig().getIssuer());
+                return keys;
+            });
+        } catch (RuntimeException e) {
+            log.error("Error refreshing signing keys for issuer {}", issuer.getConfig().getIssuer(), e);
+        }
+    }
+
+    private Map<String, PublicKey> fetchKeys(IssuerClient issuer, String jwksUri) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(jwksUri))
+                .header("Accept", "application/json")
+                .timeout(Duration.ofMillis(issuer.getConfig().getSocketTimeoutMs()))
+                .GET()
+                .build();
+
+        try {
+            HttpResponse<byte[]> response = issuer.call(() -> {
+                try {
+                    return issuer.getHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted fetching " + jwksUri, e);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error fetching " + jwksUri, e);
+                }
+            });
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("Unexpected status " + response.statusCode() + " from " + jwksUri);
+            }
+            return parseKeys(objectMapper.readTree(response.body()));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Invalid JWKS from " + jwksUri, e);
+        }
+    }
+
+    /**
+     * Parses the RSA signing keys of a JWKS document. Keys of other types, and keys marked for
+     * encryption only, are ignored.
+     */
+    static Map<String, PublicKey> parseKeys(JsonNode jwks) throws Exception {
+        Map<String, PublicKey> keys = new HashMap<>();
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        Base64.Decoder decoder = Base64.getUrlDecoder();
+
+        for (JsonNode jwk : jwks.path("keys")) {
+            if (!"RSA".equals(jwk.path("kty").asText()) || "enc".equals(jwk.path("use").asText())) {
+                continue;
+            }
+            BigInteger modulus = new BigInteger(1, decoder.decode(jwk.path("n").asText()));
+            BigInteger exponent = new BigInteger(1, decoder.decode(jwk.path("e").asText()));
+            keys.put(jwk.path("kid").asText(""), keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+        }
+        return Map.copyOf(keys);
+    }
+
+    private static class IssuerKeys {
+        private final IssuerClient client;
+        private final String jwksUri;
+        private final String expectedIssuer;
+        private final long createdAtNanos = System.nanoTime();
+        private volatile Map<String, PublicKey> keys = Map.of();
+        private volatile long fetchedAtNanos;
+        private volatile long attemptedAtNanos;
+
+        private IssuerKeys(IssuerClient client, String jwksUri, String expectedIssuer) {
+            this.client = client;
+            this.jwksUri = jwksUri;
+            this.expectedIssuer = expectedIssuer;
+        }
+
+        private PublicKey find(String kid) {
+            Map<String, PublicKey> current = keys;
+            if (kid == null) {
+                return current.size() == 1 ? current.values().iterator().next() : null;
+            }
+            return current.get(kid);
+        }
+    }
+}
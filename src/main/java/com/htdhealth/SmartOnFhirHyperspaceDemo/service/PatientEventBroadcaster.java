@@ -0,0 +1,211 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes stored patients to the open {@code /patients/all} pages as Server-Sent Events.
+ * <p>
+ * Every subscriber has a bounded queue of pending patients, keyed by patient id so repeated upserts
+ * of a patient coalesce into one event. When a slow subscriber's queue is full the oldest pending
+ * patient is dropped and the subscriber is sent a {@code resync} event instead, telling the page to
+ * reload the full list. Queues are drained by a small shared sender pool, one drain at a time per
+ * subscriber, so upserts never wait on a client. A periodic heartbeat goes through the same queues
+ * and detects clients that went away without closing the connection.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PatientEventBroadcaster implements PatientStoreListener {
+
+    private final PatientPageRenderer patientPageRenderer;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sender = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "patient-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${patients.events.max-subscribers:100}")
+    private int maxSubscribers;
+
+    @Value("${patients.events.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${patients.events.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        sender.shutdownNow();
+    }
+
+    /**
+     * Opens a new event stream.
+     *
+     * @return the emitter of the stream
+     * @throws IllegalStateException if the maximum number of subscribers is reached
+     */
+    public SseEmitter subscribe() {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("Too many patient event subscribers");
+        }
+
+        SseEmitter emitter = createEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+
+        log.debug("Patient event subscriber added, {} subscribers", subscribers.size());
+        return emitter;
+    }
+
+    SseEmitter createEmitter(long timeout) {
+        return new SseEmitter(timeout);
+    }
+
+    /**
+     * Returns the number of open event streams.
+     *
+     * @return subscriber count
+     */
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void onUpsert(PatientSummary previous, PatientSummary current) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.enqueue(current);
+        }
+    }
+
+    /**
+     * Queues a heartbeat comment on every stream, so dead connections fail on write and are removed.
+     */
+    @Scheduled(fixedDelayString = "${patients.events.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeat();
+        }
+    }
+
+    private class Subscriber {
+
+        private final SseEmitter emitter;
+        private final LinkedHashMap<String, PatientSummary> pending = new LinkedHashMap<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private boolean resync;
+        private boolean heartbeatDue;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void enqueue(PatientSummary patient) {
+            synchronized (this) {
+                pending.remove(patient.getId());
+                if (pending.size() >= queueCapacity) {
+                    Iterator<String> oldest = pending.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                    resync = true;
+                }
+                pending.put(patient.getId(), patient);
+            }
+            scheduleDrain();
+        }
+
+        private void heartbeat() {
+            synchronized (this) {
+                heartbeatDue = true;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (Exception e) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    List<PatientSummary> batch;
+                    boolean sendResync;
+                    boolean sendHeartbeat;
+                    synchronized (this) {
+                        batch = new ArrayList<>(pending.values());
+                        pending.clear();
+                        sendResync = resync;
+                        sendHeartbeat = heartbeatDue;
+                        resync = false;
+                        heartbeatDue = false;
+                    }
+                    if (batch.isEmpty() && !sendResync && !sendHeartbeat) {
+                        return;
+                    }
+
+                    if (sendResync) {
+                        emitter.send(SseEmitter.event().name("resync").data(""));
+                    } else {
+                        for (PatientSummary patient : batch) {
+                            emitter.send(SseEmitter.event()
+                                    .name("patient")
+                                    .id(patient.getId())
+                                    .data(Map.of("id", patient.getId(), "html", fragmentHtml(patient)),
+                                            MediaType.APPLICATION_JSON));
+                        }
+                    }
+                    if (sendHeartbeat) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                }
+            } catch (Exception e) {
+                log.debug("Patient event subscriber gone: {}", e.getMessage());
+                subscribers.remove(this);
+                emitter.completeWithError(e);
+            } finally {
+                draining.set(false);
+                if (hasPending()) {
+                    scheduleDrain();
+                }
+            }
+        }
+
+        private synchronized boolean hasPending() {
+            return subscribers.contains(this) && (!pending.isEmpty() || resync || heartbeatDue);
+        }
+    }
+
+    private String fragmentHtml(PatientSummary patient) {
+        return new String(patientPageRenderer.fragment(patient), StandardCharsets.UTF_8);
+    }
+}
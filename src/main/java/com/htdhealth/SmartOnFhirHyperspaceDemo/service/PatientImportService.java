@@ -0,0 +1,488 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportFailure;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportJobStatus;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Queue of batch patient import jobs, run with a backend services token.
+ * <p>
+ * Jobs run one at a time in submission order. A running job is split into batches of
+ * {@code import.batch-size} ids, each fetched with a single {@code Patient?_id=...} search, and the batches
+ * are shared by a fixed pool of {@code import.workers} workers that write the returned patients into the
+ * store. Ids the server does not return are reported as not found. A batch whose search fails is retried
+ * up to {@code import.max-batch-attempts} times before its ids are reported as failed, and a job stops as
+ * FAILED after {@code import.max-consecutive-batch-errors} failed searches in a row, e.g. while the EHR is down.
+ * <p>
+ * Cancelling a running job lets the workers finish their current batch. A cancelled or failed job can be
+ * resumed and continues with the batches it has not completed, including those whose ids were reported as
+ * failed after running out of attempts. Jobs are kept in memory only.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PatientImportService {
+
+    private final FhirService fhirService;
+    private final BackendTokenService backendTokenService;
+    private final PatientStore patientStore;
+    private final AuditTrail auditTrail;
+    private final ConcurrentHashMap<String, ImportJob> jobs = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<ImportJob> queue = new LinkedBlockingQueue<>();
+
+    @Value("${import.workers:4}")
+    private int workers;
+
+    @Value("${import.batch-size:50}")
+    private int batchSize;
+
+    @Value("${import.max-ids-per-job:100000}")
+    private int maxIdsPerJob;
+
+    @Value("${import.max-batch-attempts:3}")
+    private int maxBatchAttempts;
+
+    @Value("${import.max-consecutive-batch-errors:5}")
+    private int maxConsecutiveBatchErrors;
+
+    @Value("${import.max-reported-failures:1000}")
+    private int maxReportedFailures;
+
+    private ExecutorService workerPool;
+    private Thread dispatcher;
+
+    @PostConstruct
+    public void start() {
+        workerPool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "patient-import-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = new Thread(this::dispatch, "patient-import-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.interrupt();
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Parses an uploaded id list: one patient id per line, or the first column of a CSV file.
+     * Blank lines and lines starting with {@code #} are skipped.
+     *
+     * @param content the file content
+     * @return the ids in file order
+     */
+    public static List<String> parseIds(String content) {
+        List<String> ids = new ArrayList<>();
+        for (String line : content.split("\\R")) {
+            int comma = line.indexOf(',');
+            String id = (comma >= 0 ? line.substring(0, comma) : line).trim();
+            if (!id.isEmpty() && !id.startsWith("#")) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Queues a job importing the given patients. Duplicate and blank ids are dropped.
+     *
+     * @param patientIds FHIR resource ids of the patients to import
+     * @return the status of the queued job
+     * @throws IllegalArgumentException if there are no ids or more than {@code import.max-ids-per-job}
+     * @throws IllegalStateException    if no backend services client is configured
+     */
+    public ImportJobStatus submit(Collection<String> patientIds) {
+        if (!backendTokenService.isConfigured()) {
+            throw new IllegalStateException("Backend services client is not configured");
+        }
+
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String id : patientIds) {
+            if (id != null && !id.isBlank()) {
+                distinct.add(id.trim());
+            }
+        }
+        if (distinct.isEmpty()) {
+            throw new IllegalArgumentException("No patient ids to import");
+        }
+        if (distinct.size() > maxIdsPerJob) {
+            throw new IllegalArgumentException("Too many patient ids: " + distinct.size() + ", at most " + maxIdsPerJob);
+        }
+
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), List.copyOf(distinct), batchSize);
+        jobs.put(job.id, job);
+        queue.add(job);
+
+        log.info("Queued import job {} for {} patients in {} batches", job.id, job.ids.size(), job.batchCount);
+        return job.status();
+    }
+
+    /**
+     * Returns the status of a job.
+     *
+     * @param jobId the job id
+     * @return the job's status, if the job exists
+     */
+    public Optional<ImportJobStatus> getStatus(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(ImportJob::status);
+    }
+
+    /**
+     * Returns the status of all jobs, oldest first.
+     *
+     * @return job statuses
+     */
+    public List<ImportJobStatus> getJobs() {
+        return jobs.values().stream()
+                .map(ImportJob::status)
+                .sorted(Comparator.comparing(ImportJobStatus::getCreatedAt))
+                .toList();
+    }
+
+    /**
+     * Returns the patients a job failed to import, at most {@code import.max-reported-failures} of them.
+     *
+     * @param jobId the job id
+     * @return the failures in the order they happened, if the job exists
+     */
+    public Optional<List<ImportFailure>> getFailures(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(ImportJob::failures);
+    }
+
+    /**
+     * Cancels a job. A queued job is cancelled at once; a running job stops once its workers have
+     * finished their current batches.
+     *
+     * @param jobId the job id
+     * @return the job's status, if the job exists
+     * @throws IllegalStateException if the job has already finished or is being cancelled
+     */
+    public Optional<ImportJobStatus> cancel(String jobId) {
+        ImportJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        synchronized (job) {
+            switch (job.state) {
+                case QUEUED -> {
+                    queue.remove(job);
+                    job.state = ImportJobStatus.State.CANCELLED;
+                }
+                case RUNNING -> {
+                    job.cancelRequested = true;
+                    job.state = ImportJobStatus.State.CANCELLING;
+                }
+                default -> throw new IllegalStateException("Import job " + jobId + " is " + job.state);
+            }
+        }
+
+        log.info("Cancelling import job {}", jobId);
+        return Optional.of(job.status());
+    }
+
+    /**
+     * Queues a cancelled or failed job again. It continues with the batches it has not completed, and
+     * batches whose searches failed get their full number of attempts again: batches that had run out of
+     * attempts are queued again and their ids are taken off the job's failures.
+     *
+     * @param jobId the job id
+     * @return the job's status, if the job exists
+     * @throws IllegalStateException if the job is not cancelled or failed
+     */
+    public Optional<ImportJobStatus> resume(String jobId) {
+        ImportJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        synchronized (job) {
+            if (job.state != ImportJobStatus.State.CANCELLED && job.state != ImportJobStatus.State.FAILED) {
+                throw new IllegalStateException("Import job " + jobId + " is " + job.state);
+            }
+            job.state = ImportJobStatus.State.QUEUED;
+            job.cancelRequested = false;
+            job.failedOut = false;
+            job.consecutiveBatchErrors.set(0);
+            for (int i = 0; i < job.batchCount; i++) {
+                job.attempts.set(i, 0);
+            }
+            job.requeueExhaustedBatches();
+            job.finishedAt = null;
+            queue.add(job);
+        }
+
+        log.info("Resuming import job {} with {} batches left", jobId, job.remainingBatches());
+        return Optional.of(job.status());
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                run(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Import job dispatcher error", e);
+            }
+        }
+    }
+
+    private void run(ImportJob job) throws InterruptedException {
+        synchronized (job) {
+            if (job.state != ImportJobStatus.State.QUEUED) {
+                return;
+            }
+            job.state = ImportJobStatus.State.RUNNING;
+            if (job.startedAt == null) {
+                job.startedAt = Instant.now();
+            }
+            job.runStartNanos = System.nanoTime();
+        }
+
+        int workerCount = Math.max(1, Math.min(workers, job.remainingBatches()));
+        log.info("Running import job {} with {} workers, {} batches left", job.id, workerCount, job.remainingBatches());
+
+        List<Future<?>> futures = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            futures.add(workerPool.submit(() -> work(job)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("Import worker of job {} failed", job.id, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            job.cancelRequested = true;
+            throw e;
+        } finally {
+            synchronized (job) {
+                job.runningNanos += System.nanoTime() - job.runStartNanos;
+                job.finishedAt = Instant.now();
+                if (job.cancelRequested) {
+                    job.state = ImportJobStatus.State.CANCELLED;
+                } else if (job.failedOut || job.remainingBatches() > 0) {
+                    job.state = ImportJobStatus.State.FAILED;
+                } else {
+                    job.state = ImportJobStatus.State.COMPLETED;
+                }
+            }
+            log.info("Import job {} {}: {} imported, {} failed, {} batch errors in {} ms", job.id, job.state,
+                    job.imported.get(), job.failed.get(), job.batchErrors.get(), TimeUnit.NANOSECONDS.toMillis(job.runningNanos));
+        }
+    }
+
+    private void work(ImportJob job) {
+        while (!job.cancelRequested && !job.failedOut) {
+            int batch = job.claimBatch();
+            if (batch < 0) {
+                return;
+            }
+            importBatch(job, batch);
+        }
+    }
+
+    private void importBatch(ImportJob job, int batch) {
+        List<String> ids = job.batchIds(batch);
+        try {
+            List<PatientSummary> found = fhirService.searchPatientSummaries(ids, null,
+                    backendTokenService.getAccessToken());
+            String issuer = fhirService.getDefaultIssuer();
+
+            Set<String> missing = new HashSet<>(ids);
+            for (PatientSummary summary : found) {
+                if (missing.remove(summary.getId())) {
+                    patientStore.saveIfNewer(summary);
+                    auditTrail.record(AuditRecord.Action.PATIENT_BATCH_IMPORT, issuer, backendTokenService.getClientId(),
+                            summary.getId(), true);
+                    job.imported.incrementAndGet();
+                }
+            }
+            for (String id : ids) {
+                if (missing.contains(id)) {
+                    job.fail(id, "Not found", maxReportedFailures);
+                }
+            }
+            job.consecutiveBatchErrors.set(0);
+        } catch (Exception e) {
+            String reason = rootMessage(e);
+            job.batchErrors.incrementAndGet();
+            job.lastError = reason;
+            log.warn("Import job {} batch {} failed: {}", job.id, batch, reason);
+
+            if (job.attempts.incrementAndGet(batch) < maxBatchAttempts) {
+                job.retryBatches.add(batch);
+            } else {
+                job.exhaustedBatches.add(batch);
+                ids.forEach(id -> job.fail(id, reason, maxReportedFailures));
+            }
+            if (job.consecutiveBatchErrors.incrementAndGet() >= maxConsecutiveBatchErrors) {
+                job.failedOut = true;
+            }
+        }
+    }
+
+    private static String rootMessage(Throwable throwable) {
+        Throwable root = throwable;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage() != null ? root.getMessage() : root.getClass().getSimpleName();
+    }
+
+    /**
+     * Mutable state of one job. Batches are claimed in order through {@code nextBatch}, so once all workers
+     * have stopped every batch before it has been completed or is waiting in {@code retryBatches}.
+     */
+    private static class ImportJob {
+
+        private final String id;
+        private final List<String> ids;
+        private final int batchSize;
+        private final int batchCount;
+        private final Instant createdAt = Instant.now();
+        private final AtomicInteger nextBatch = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Integer> retryBatches = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Integer> exhaustedBatches = new ConcurrentLinkedQueue<>();
+        private final AtomicIntegerArray attempts;
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger batchErrors = new AtomicInteger();
+        private final AtomicInteger consecutiveBatchErrors = new AtomicInteger();
+        private final List<ImportFailure> failures = new ArrayList<>();
+
+        private volatile ImportJobStatus.State state = ImportJobStatus.State.QUEUED;
+        private volatile boolean cancelRequested;
+        private volatile boolean failedOut;
+        private volatile String lastError;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile long runStartNanos;
+        private volatile long runningNanos;
+
+        private ImportJob(String id, List<String> ids, int batchSize) {
+            this.id = id;
+            this.ids = ids;
+            this.batchSize = batchSize;
+            this.batchCount = (ids.size() + batchSize - 1) / batchSize;
+            this.attempts = new AtomicIntegerArray(batchCount);
+        }
+
+        private int claimBatch() {
+            Integer retry = retryBatches.poll();
+            if (retry != null) {
+                return retry;
+            }
+            while (true) {
+                int next = nextBatch.get();
+                if (next >= batchCount) {
+                    return -1;
+                }
+                if (nextBatch.compareAndSet(next, next + 1)) {
+                    return next;
+                }
+            }
+        }
+
+        private int remainingBatches() {
+            return batchCount - nextBatch.get() + retryBatches.size();
+        }
+
+        private List<String> batchIds(int batch) {
+            return ids.subList(batch * batchSize, Math.min((batch + 1) * batchSize, ids.size()));
+        }
+
+        private void fail(String patientId, String reason, int maxReported) {
+            failed.incrementAndGet();
+            synchronized (failures) {
+                if (failures.size() < maxReported) {
+                    failures.add(ImportFailure.of(patientId, reason));
+                }
+            }
+        }
+
+        /**
+         * Moves the batches that ran out of attempts back to the retry queue and forgets their failures.
+         * Only called while no worker runs the job.
+         */
+        private void requeueExhaustedBatches() {
+            Set<String> requeued = new HashSet<>();
+            for (Integer batch = exhaustedBatches.poll(); batch != null; batch = exhaustedBatches.poll()) {
+                requeued.addAll(batchIds(batch));
+                retryBatches.add(batch);
+            }
+            if (requeued.isEmpty()) {
+                return;
+            }
+            failed.addAndGet(-requeued.size());
+            synchronized (failures) {
+                failures.removeIf(failure -> requeued.contains(failure.getPatientId()));
+            }
+        }
+
+        private List<ImportFailure> failures() {
+            synchronized (failures) {
+                return List.copyOf(failures);
+            }
+        }
+
+        private ImportJobStatus status() {
+            long nanos = runningNanos;
+            if (state == ImportJobStatus.State.RUNNING || state == ImportJobStatus.State.CANCELLING) {
+                nanos += System.nanoTime() - runStartNanos;
+            }
+            int processed = imported.get() + failed.get();
+
+            return ImportJobStatus.builder()
+                    .id(id)
+                    .state(state)
+                    .total(ids.size())
+                    .processed(processed)
+                    .imported(imported.get())
+                    .failed(failed.get())
+                    .batchErrors(batchErrors.get())
+                    .lastError(lastError)
+                    .patientsPerSecond(nanos > 0 ? processed * 1e9 / nanos : 0)
+                    .createdAt(createdAt)
+                    .startedAt(startedAt)
+                    .finishedAt(finishedAt)
+                    .build();
+        }
+    }
+}
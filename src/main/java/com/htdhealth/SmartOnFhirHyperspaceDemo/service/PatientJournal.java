@@ -0,0 +1,523 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk journal of the patient store, so imported patients survive a restart.
+ * <p>
+ * Every upsert is appended to the current journal segment as a record of
+ * {@code [int length][int crc32][payload]}, the payload being the {@link PatientRecordCodec} encoding.
+ * Records are framed and queued under the store's write lock, which keeps them in store order, and written
+ * once the lock is released: each saving thread writes whatever is queued by then in one gathering write
+ * (group commit), so disk I/O and fsyncs never hold up readers or other writers of the store. Records leave
+ * the queue only once written; if a write fails, the segment is cut back to where the write started (or a new
+ * segment is started when it cannot be), and every save whose record was in that write fails.
+ * Once enough records have been appended since the last snapshot, the journal is compacted: a new
+ * segment is started, the store's current contents are written to a snapshot that names the first
+ * segment it does not cover, and the older segments are deleted. Upserts are full replacements, so
+ * replaying records that the snapshot already contains is harmless.
+ * <p>
+ * On startup the snapshot and the remaining segments are read through memory-mapped buffers and replayed
+ * into the store. A torn record at the end of a segment, left by a crash mid-write, is cut off.
+ * <p>
+ * How often appends are forced to the device is set by {@code patients.journal.fsync}: after every
+ * record, batched on a fixed interval, or never (left to the OS).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PatientJournal implements PatientStoreListener, SmartInitializingSingleton {
+
+    public enum FsyncPolicy {
+        ALWAYS, BATCHED, OFF
+    }
+
+    static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x50534e50;
+    private static final int SNAPSHOT_HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final long MAX_MAPPED_WINDOW = 1L << 30;
+
+    private final PatientStore patientStore;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    // Records waiting to be written, in store order; guarded by itself
+    private final List<PendingRecord> pending = new ArrayList<>();
+    // The record onUpsert queued for the saving thread, picked up by its afterUpsert
+    private final ThreadLocal<PendingRecord> queued = new ThreadLocal<>();
+    private final Object compactionLock = new Object();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "patient-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${patients.journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${patients.journal.dir:data/journal}")
+    private String directory;
+
+    @Value("${patients.journal.fsync:BATCHED}")
+    private FsyncPolicy fsyncPolicy;
+
+    @Value("${patients.journal.compact-after-records:100000}")
+    private long compactAfterRecords;
+
+    private Path journalDirectory;
+    private FileChannel segment;
+    private long segmentNumber;
+    private long recordsSinceSnapshot;
+    private boolean dirty;
+    private volatile boolean replaying;
+
+    /**
+     * Replays the snapshot and journal into the store once all beans, including the store's other
+     * listeners, exist, then opens the journal for appending.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            journalDirectory = Path.of(directory);
+            Files.createDirectories(journalDirectory);
+
+            long start = System.nanoTime();
+            long restored = replay();
+            log.info("Restored {} patients from the journal in {} ms", restored, (System.nanoTime() - start) / 1_000_000);
+
+            synchronized (this) {
+                segment = openSegment(segmentNumber);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open patient journal in " + directory, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        compactor.shutdown();
+        if (segment == null) {
+            return;
+        }
+        try {
+            writePending();
+        } catch (IOException e) {
+            log.warn("Error writing pending records while closing the patient journal", e);
+        }
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            log.warn("Error closing patient journal", e);
+        }
+        segment = null;
+    }
+
+    /**
+     * Queues the upsert's record. Runs under the store's write lock, so the queue is in store order.
+     */
+    @Override
+    public void onUpsert(PatientSummary previous, PatientSummary current) {
+        if (replaying || !enabled) {
+            return;
+        }
+        PendingRecord record = new PendingRecord(frame(PatientRecordCodec.encode(current)));
+        synchronized (pending) {
+            pending.add(record);
+        }
+        queued.set(record);
+    }
+
+    /**
+     * Writes the queued records, including this upsert's unless another thread already did, and forces them
+     * to the device when the fsync policy is {@code ALWAYS}. Returns only once this upsert's record is written,
+     * and throws if the write that took it failed.
+     */
+    @Override
+    public void afterUpsert(PatientSummary previous, PatientSummary current) {
+        PendingRecord record = queued.get();
+        if (record == null) {
+            return;
+        }
+        queued.remove();
+
+        boolean compact;
+        synchronized (this) {
+            if (!record.written && record.failure == null) {
+                if (segment == null) {
+                    synchronized (pending) {
+                        pending.remove(record);
+                    }
+                    throw new IllegalStateException("Patient journal is closed, patient " + current.getId()
+                            + " was not appended");
+                }
+                try {
+                    writePending();
+                } catch (IOException e) {
+                    // Recorded on every record of the failed write, including this one
+                }
+            }
+            if (record.failure != null) {
+                throw new UncheckedIOException("Failed to append patient " + current.getId() + " to the journal",
+                        record.failure);
+            }
+            compact = recordsSinceSnapshot >= compactAfterRecords;
+        }
+
+        if (compact && compacting.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    log.error("Error compacting patient journal", e);
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the queued records to the current segment. A thread whose record was taken by another one
+     * blocks on the journal's monitor until that write is done, so it never returns before its record is written.
+     * Records are only taken off the queue once the write has succeeded. If it fails, the partial write is cut off
+     * so later appends do not follow a torn record, and the records are marked failed for their saving threads.
+     *
+     * @throws IOException if the write failed
+     */
+    private void writePending() throws IOException {
+        PendingRecord[] records;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            records = pending.toArray(PendingRecord[]::new);
+        }
+        ByteBuffer[] buffers = new ByteBuffer[records.length];
+        for (int i = 0; i < records.length; i++) {
+            buffers[i] = records[i].buffer;
+        }
+
+        long start = segment.size();
+        try {
+            ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                segment.write(buffers);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                segment.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            IOException failure = e instanceof IOException io ? io : new IOException(e);
+            discardFrom(start, failure);
+            synchronized (pending) {
+                pending.subList(0, records.length).clear();
+            }
+            for (PendingRecord record : records) {
+                record.failure = failure;
+            }
+            log.error("Failed to append {} patient records to the journal", records.length, e);
+            throw failure;
+        }
+
+        synchronized (pending) {
+            pending.subList(0, records.length).clear();
+        }
+        for (PendingRecord record : records) {
+            record.written = true;
+        }
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            dirty = true;
+        }
+        recordsSinceSnapshot += records.length;
+    }
+
+    /**
+     * Cuts the current segment back to the given size after a failed write. If that fails too, the segment is
+     * abandoned for a new one: replay stops at the torn record of the old segment and carries on with the next.
+     */
+    private void discardFrom(long size, IOException failure) {
+        try {
+            segment.truncate(size);
+            return;
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+        try {
+            segment = openSegment(++segmentNumber);
+            log.warn("Started journal segment {} after a failed append", segmentNumber);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+            segment = null;
+        }
+    }
+
+    /**
+     * Forces appended records to the device when the fsync policy is {@code BATCHED}.
+     */
+    @Scheduled(fixedDelayString = "${patients.journal.fsync-interval-ms:1000}")
+    public synchronized void flush() {
+        if (fsyncPolicy != FsyncPolicy.BATCHED || !dirty || segment == null) {
+            return;
+        }
+        try {
+            segment.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            log.error("Error syncing patient journal", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the store and deletes the journal segments it supersedes.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        long firstUncoveredSegment;
+        synchronized (this) {
+            if (segment == null) {
+                return;
+            }
+            segment.force(false);
+            segment.close();
+            segment = openSegment(++segmentNumber);
+            firstUncoveredSegment = segmentNumber;
+            recordsSinceSnapshot = 0;
+            dirty = false;
+        }
+
+        long start = System.nanoTime();
+        List<PatientSummary> patients = patientStore.findAll();
+        Path temporary = journalDirectory.resolve(SNAPSHOT_FILE + ".tmp");
+
+        try (FileChannel snapshot = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES)
+                    .putInt(SNAPSHOT_MAGIC)
+                    .putInt(patients.size())
+                    .putLong(firstUncoveredSegment)
+                    .flip();
+            writeFully(snapshot, header);
+
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            for (PatientSummary patient : patients) {
+                ByteBuffer record = frame(PatientRecordCodec.encode(patient));
+                if (buffer.remaining() < record.remaining()) {
+                    writeFully(snapshot, buffer.flip());
+                    buffer.clear();
+                }
+                if (buffer.remaining() < record.remaining()) {
+                    writeFully(snapshot, record);
+                } else {
+                    buffer.put(record);
+                }
+            }
+            writeFully(snapshot, buffer.flip());
+            snapshot.force(true);
+        }
+        Files.move(temporary, journalDirectory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long number : segmentNumbers()) {
+            if (number < firstUncoveredSegment) {
+                Files.deleteIfExists(segmentPath(number));
+            }
+        }
+        log.info("Compacted patient journal into a snapshot of {} patients in {} ms",
+                patients.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Loads the snapshot and replays the journal segments it does not cover, in order.
+     *
+     * @return number of records replayed
+     */
+    private long replay() throws IOException {
+        long[] restored = new long[1];
+        Consumer<PatientSummary> restore = patient -> {
+            patientStore.save(patient);
+            restored[0]++;
+        };
+
+        replaying = true;
+        try {
+            long firstUncoveredSegment = 0;
+            Path snapshot = journalDirectory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) {
+                try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                    ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES);
+                    if (header.getInt() != SNAPSHOT_MAGIC) {
+                        throw new IOException("Not a patient snapshot: " + snapshot);
+                    }
+                    header.getInt();
+                    firstUncoveredSegment = header.getLong();
+                    long end = readRecords(channel, SNAPSHOT_HEADER_BYTES, restore);
+                    if (end != channel.size()) {
+                        throw new IOException("Corrupt patient snapshot at offset " + end);
+                    }
+                }
+            }
+
+            segmentNumber = firstUncoveredSegment;
+            for (long number : segmentNumbers()) {
+                if (number < firstUncoveredSegment) {
+                    Files.deleteIfExists(segmentPath(number));
+                    continue;
+                }
+                long replayedBefore = restored[0];
+                try (FileChannel channel = FileChannel.open(segmentPath(number),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    long end = readRecords(channel, 0, restore);
+                    if (end < channel.size()) {
+                        log.warn("Truncating torn record at offset {} of journal segment {}", end, number);
+                        channel.truncate(end);
+                    }
+                    recordsSinceSnapshot += restored[0] - replayedBefore;
+                }
+                segmentNumber = number;
+            }
+        } finally {
+            replaying = false;
+        }
+        return restored[0];
+    }
+
+    /**
+     * Reads framed records from the channel through memory-mapped windows, starting at the given offset.
+     *
+     * @return offset just past the last intact record
+     */
+    private static long readRecords(FileChannel channel, long offset, Consumer<PatientSummary> sink) throws IOException {
+        long size = channel.size();
+        long position = offset;
+        CRC32 crc = new CRC32();
+
+        while (position < size) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(size - position, MAX_MAPPED_WINDOW));
+
+            while (window.remaining() >= RECORD_HEADER_BYTES) {
+                int start = window.position();
+                int length = window.getInt();
+                int checksum = window.getInt();
+                if (length < 0 || length > MAX_RECORD_BYTES) {
+                    return position + start;
+                }
+                if (window.remaining() < length) {
+                    window.position(start);
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                window.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    return position + start;
+                }
+                sink.accept(PatientRecordCodec.decode(payload));
+            }
+
+            if (window.position() == 0) {
+                return position;
+            }
+            position += window.position();
+        }
+        return position;
+    }
+
+    /**
+     * A framed record queued by {@link #onUpsert}; its outcome is guarded by the journal's monitor.
+     */
+    private static final class PendingRecord {
+        private final ByteBuffer buffer;
+        private boolean written;
+        private IOException failure;
+
+        private PendingRecord(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private static ByteBuffer frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long number) {
+        return journalDirectory.resolve(SEGMENT_PREFIX + String.format("%019d", number) + SEGMENT_SUFFIX);
+    }
+
+    private List<Long> segmentNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> numbers.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
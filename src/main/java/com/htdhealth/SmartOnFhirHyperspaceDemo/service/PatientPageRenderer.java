@@ -0,0 +1,218 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.PageRenderEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.SmartFlowEvent;
+import lombok.Getter;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the patient pages from pre-encoded UTF-8 parts.
+ * <p>
+ * Each stored patient's "Patient Information" block is rendered and encoded once and cached until the
+ * patient is upserted again. A page is then just the static head, the cached fragments and the static
+ * tail, which are written to the response one after the other without building the page as a String.
+ * A cached fragment remembers the summary it was rendered from, so a fragment rendered from a summary
+ * that was replaced in the meantime is never served.
+ */
+@Service
+public class PatientPageRenderer implements PatientStoreListener {
+
+    private static final String PAGE_HEAD = """
+            <!DOCTYPE html>
+            <html>
+            <head>
+                <title>SMART on FHIR Authentication Success</title>
+                <style>
+                    body { font-family: Arial, sans-serif; margin: 40px; background-color: #f5f5f5; }
+                    .container { max-width: 600px; margin: 0 auto; background: white; padding: 30px; border-radius: 8px; box-shadow: 0 2px 10px rgba(0,0,0,0.1); }
+                    .success { color: #28a745; font-size: 24px; margin-bottom: 20px; }
+                    .patient-info { background: #f8f9fa; padding: 20px; border-radius: 5px; margin: 20px 0; }
+                    .field { margin: 10px 0; }
+                    .label { font-weight: bold; color: #495057; }
+                    .value { color: #212529; }
+                    .footer { margin-top: 30px; padding-top: 20px; border-top: 1px solid #dee2e6; color: #6c757d; font-size: 14px; }
+                </style>
+            </head>
+            <body>
+                <div class="container">
+                   <img src="https://mma.prnewswire.com/media/220268/availity_logo.jpg" width=200 />
+            """;
+
+    private static final String PATIENT_FRAGMENT = """
+            <div class="patient-info" id="patient-%s">
+                        <h3>Patient Information</h3>
+                        <div class="field">
+                            <span class="label">Name:</span>
+                            <span class="value">%s</span>
+                        </div>
+                        <div class="field">
+                            <span class="label">Patient ID:</span>
+                            <span class="value">%s</span>
+                        </div>
+                        <div class="field">
+                            <span class="label">Birth Date:</span>
+                            <span class="value">%s</span>
+                        </div>
+                        <div class="field">
+                            <span class="label">Gender:</span>
+                            <span class="value">%s</span>
+                        </div>
+                    </div>
+            """;
+
+    private static final String SHOW_ALL_BUTTON = """
+                    <a href="/patients/all"><button>Show all</button></a>
+            """;
+
+    private static final String PAGE_TAIL = """
+                </div>
+            </body>
+            </html>
+            """;
+
+    private static final String LIST_PAGE_TAIL = """
+                </div>
+                <script>
+                    const events = new EventSource('/patients/events');
+                    events.addEventListener('patient', event => {
+                        const patient = JSON.parse(event.data);
+                        const template = document.createElement('template');
+                        template.innerHTML = patient.html.trim();
+                        const existing = document.getElementById('patient-' + patient.id);
+                        if (existing) {
+                            existing.replaceWith(template.content.firstChild);
+                        } else {
+                            document.querySelector('.container').appendChild(template.content.firstChild);
+                        }
+                    });
+                    events.addEventListener('resync', () => location.reload());
+                </script>
+            </body>
+            </html>
+            """;
+
+    private static final byte[] PAGE_HEAD_BYTES = PAGE_HEAD.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SHOW_ALL_BUTTON_BYTES = SHOW_ALL_BUTTON.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAGE_TAIL_BYTES = PAGE_TAIL.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LIST_PAGE_TAIL_BYTES = LIST_PAGE_TAIL.getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrentHashMap<String, Fragment> fragments = new ConcurrentHashMap<>();
+
+    @Override
+    public void onUpsert(PatientSummary previous, PatientSummary current) {
+        fragments.remove(current.getId());
+    }
+
+    /**
+     * Assembles the page listing the given patients. The page subscribes to {@code /patients/events}
+     * and inserts or replaces the fragments of patients stored after it was rendered.
+     *
+     * @param patients the patients to list, in display order
+     * @return the page parts
+     */
+    public RenderedPage renderList(List<PatientSummary> patients) {
+        PageRenderEvent event = new PageRenderEvent();
+        event.begin();
+        List<byte[]> parts = new ArrayList<>(patients.size() + 2);
+        parts.add(PAGE_HEAD_BYTES);
+        for (PatientSummary patient : patients) {
+            parts.add(fragment(patient));
+        }
+        parts.add(LIST_PAGE_TAIL_BYTES);
+        RenderedPage page = new RenderedPage(parts);
+        event.complete(null, "Patient", page.getContentLength(), SmartFlowEvent.SUCCESS);
+        return page;
+    }
+
+    /**
+     * Assembles the page shown after a patient has been imported.
+     *
+     * @param patient the imported patient
+     * @return the page parts
+     */
+    public RenderedPage renderImported(PatientSummary patient) {
+        PageRenderEvent event = new PageRenderEvent();
+        event.begin();
+        RenderedPage page = new RenderedPage(List.of(PAGE_HEAD_BYTES, fragment(patient), SHOW_ALL_BUTTON_BYTES, PAGE_TAIL_BYTES));
+        event.complete(null, "Patient", page.getContentLength(), SmartFlowEvent.SUCCESS);
+        return page;
+    }
+
+    /**
+     * Returns the number of cached patient fragments.
+     *
+     * @return cached fragment count
+     */
+    public int cachedFragments() {
+        return fragments.size();
+    }
+
+    /**
+     * Returns the patient's pre-encoded fragment, rendering and caching it if needed.
+     *
+     * @param patient the stored patient
+     * @return the UTF-8 encoded fragment
+     */
+    byte[] fragment(PatientSummary patient) {
+        Fragment cached = fragments.get(patient.getId());
+        if (cached != null && cached.source == patient) {
+            return cached.bytes;
+        }
+
+        byte[] bytes = renderFragment(patient).getBytes(StandardCharsets.UTF_8);
+        fragments.put(patient.getId(), new Fragment(patient, bytes));
+        return bytes;
+    }
+
+    static String renderFragment(PatientSummary patient) {
+        String birthDate = patient.getBirthDate() != null ?
+                patient.getBirthDate().toString() : "Not available";
+
+        String gender = patient.getGender() != null ?
+                patient.genderDisplay() : "Not specified";
+
+        return PATIENT_FRAGMENT.formatted(patient.getId(), patient.getDisplayName(), patient.getId(), birthDate, gender);
+    }
+
+    private record Fragment(PatientSummary source, byte[] bytes) {
+    }
+
+    /**
+     * A page as a sequence of pre-encoded UTF-8 parts.
+     */
+    public static class RenderedPage {
+
+        private final List<byte[]> parts;
+        @Getter
+        private final long contentLength;
+
+        RenderedPage(List<byte[]> parts) {
+            this.parts = parts;
+            long length = 0;
+            for (byte[] part : parts) {
+                length += part.length;
+            }
+            this.contentLength = length;
+        }
+
+        /**
+         * Writes the page parts to the stream in order.
+         *
+         * @param outputStream the response stream
+         * @throws IOException if writing fails
+         */
+        public void writeTo(OutputStream outputStream) throws IOException {
+            for (byte[] part : parts) {
+                outputStream.write(part);
+            }
+        }
+    }
+}
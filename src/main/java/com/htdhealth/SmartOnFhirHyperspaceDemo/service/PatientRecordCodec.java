@@ -0,0 +1,99 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Compact binary encoding of a {@link PatientSummary} for the patient journal and snapshots.
+ * Strings are length-prefixed modified UTF-8 behind a presence flag, dates are epoch days
+ * and instants epoch milliseconds. The first byte is a format version.
+ */
+final class PatientRecordCodec {
+
+    private static final int VERSION = 1;
+
+    private PatientRecordCodec() {
+    }
+
+    static byte[] encode(PatientSummary patient) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeString(out, patient.getId());
+            writeString(out, patient.getVersionId());
+            out.writeBoolean(patient.getLastUpdated() != null);
+            if (patient.getLastUpdated() != null) {
+                out.writeLong(patient.getLastUpdated().toEpochMilli());
+            }
+            writeString(out, patient.getDisplayName());
+            out.writeShort(patient.getGivenNames().size());
+            for (String given : patient.getGivenNames()) {
+                writeString(out, given);
+            }
+            writeString(out, patient.getFamilyName());
+            out.writeBoolean(patient.getBirthDate() != null);
+            if (patient.getBirthDate() != null) {
+                out.writeInt((int) patient.getBirthDate().toEpochDay());
+            }
+            writeString(out, patient.getGender());
+            out.writeShort(patient.getIdentifiers().size());
+            for (PatientIdentifier identifier : patient.getIdentifiers()) {
+                writeString(out, identifier.getSystem());
+                writeString(out, identifier.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static PatientSummary decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported patient record version " + version);
+        }
+
+        PatientSummary.PatientSummaryBuilder builder = PatientSummary.builder()
+                .id(readString(in))
+                .versionId(readString(in));
+        if (in.readBoolean()) {
+            builder.lastUpdated(Instant.ofEpochMilli(in.readLong()));
+        }
+        builder.displayName(readString(in));
+        int givenNames = in.readUnsignedShort();
+        for (int i = 0; i < givenNames; i++) {
+            builder.givenName(readString(in));
+        }
+        builder.familyName(readString(in));
+        if (in.readBoolean()) {
+            builder.birthDate(LocalDate.ofEpochDay(in.readInt()));
+        }
+        builder.gender(readString(in));
+        int identifiers = in.readUnsignedShort();
+        for (int i = 0; i < identifiers; i++) {
+            builder.identifier(PatientIdentifier.of(readString(in), readString(in)));
+        }
+        return builder.build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,310 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import lombok.Builder;
+import lombok.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory search index over the patient store, maintained on every upsert.
+ * <p>
+ * Supports prefix lookups on normalized name tokens (a sorted token map, so a prefix is a
+ * contiguous key range), exact identifier lookups on either the value or "system|value", and
+ * birth date range queries. Queries enumerate candidates from the criterion with the fewest postings
+ * (counting stops as soon as a criterion has more than the smallest one so far), check the remaining
+ * criteria against each candidate and stop as soon as the limit is reached. The query is tokenized
+ * once per search, and each patient's name tokens are kept so candidates are not re-tokenized.
+ */
+@Service
+public class PatientSearchIndex implements PatientStoreListener {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Rough per-entry costs on a 64-bit JVM with compressed oops, used for the memory estimate
+    private static final long TREE_ENTRY_BYTES = 40;
+    private static final long HASH_ENTRY_BYTES = 48;
+    private static final long SET_BYTES = 64;
+    private static final long STRING_BYTES = 40;
+    private static final long ARRAY_BYTES = 16;
+    private static final long REFERENCE_BYTES = 4;
+
+    private final Map<String, PatientSummary> patients = new HashMap<>();
+    private final Map<String, String[]> nameTokensById = new HashMap<>();
+    private final TreeMap<String, Set<String>> nameTokens = new TreeMap<>();
+    private final Map<String, Set<String>> identifiers = new HashMap<>();
+    private final TreeMap<LocalDate, Set<String>> birthDates = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void onUpsert(PatientSummary previous, PatientSummary current) {
+        lock.writeLock().lock();
+        try {
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(current);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the index. All supplied criteria must match; null criteria are ignored.
+     *
+     * @param name          whitespace separated name prefixes, each must prefix one of the patient's name tokens
+     * @param identifier    exact identifier value, or "system|value"
+     * @param birthDateFrom inclusive lower bound of the birth date
+     * @param birthDateTo   inclusive upper bound of the birth date
+     * @param limit         maximum number of results
+     * @return matching summaries, at most {@code limit} of them; none if the birth date range is empty
+     */
+    public List<PatientSummary> search(String name, String identifier,
+                                       LocalDate birthDateFrom, LocalDate birthDateTo, int limit) {
+        List<String> nameQuery = name == null ? List.of() : tokenize(name);
+        boolean hasIdentifier = identifier != null && !identifier.isEmpty();
+        boolean hasBirthRange = birthDateFrom != null || birthDateTo != null;
+
+        if (nameQuery.isEmpty() && !hasIdentifier && !hasBirthRange) {
+            return List.of();
+        }
+
+        LocalDate from = birthDateFrom != null ? birthDateFrom : LocalDate.MIN;
+        LocalDate to = birthDateTo != null ? birthDateTo : LocalDate.MAX;
+        if (from.isAfter(to)) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            Predicate<PatientSummary> matches = summary ->
+                    (!hasIdentifier || identifiers.getOrDefault(identifier, Set.of()).contains(summary.getId()))
+                            && (nameQuery.isEmpty() || matchesName(nameTokensById.get(summary.getId()), nameQuery))
+                            && (!hasBirthRange || inRange(summary.getBirthDate(), from, to));
+
+            Collection<Set<String>> candidates = null;
+            long fewest = Long.MAX_VALUE;
+            if (hasIdentifier) {
+                candidates = List.of(identifiers.getOrDefault(identifier, Set.of()));
+                fewest = candidates.iterator().next().size();
+            }
+            for (String prefix : nameQuery) {
+                Collection<Set<String>> range = prefixRange(prefix).values();
+                long postings = countPostings(range, fewest);
+                if (postings < fewest) {
+                    candidates = range;
+                    fewest = postings;
+                }
+            }
+            if (hasBirthRange) {
+                Collection<Set<String>> range = birthDates.subMap(from, true, to, true).values();
+                if (countPostings(range, fewest) < fewest) {
+                    candidates = range;
+                }
+            }
+
+            Set<String> seen = new HashSet<>();
+            List<PatientSummary> results = new ArrayList<>();
+            for (Set<String> ids : candidates) {
+                if (results.size() >= limit) {
+                    break;
+                }
+                for (String id : ids) {
+                    PatientSummary summary = patients.get(id);
+                    if (seen.add(id) && matches.test(summary)) {
+                        results.add(summary);
+                        if (results.size() >= limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reports the size of the index and an estimate of the heap it occupies,
+     * excluding the summaries themselves, which are shared with the store.
+     *
+     * @return index statistics
+     */
+    public Stats stats() {
+        lock.readLock().lock();
+        try {
+            long tokenBytes = 0;
+            long postings = 0;
+            for (Map.Entry<String, Set<String>> entry : nameTokens.entrySet()) {
+                tokenBytes += STRING_BYTES + entry.getKey().length();
+                postings += entry.getValue().size();
+            }
+            long identifierPostings = identifiers.values().stream().mapToLong(Set::size).sum();
+            long birthDatePostings = birthDates.values().stream().mapToLong(Set::size).sum();
+
+            long estimatedBytes = patients.size() * (2 * HASH_ENTRY_BYTES + ARRAY_BYTES) + postings * REFERENCE_BYTES
+                    + nameTokens.size() * (TREE_ENTRY_BYTES + SET_BYTES) + tokenBytes + postings * HASH_ENTRY_BYTES
+                    + identifiers.size() * (HASH_ENTRY_BYTES + SET_BYTES + STRING_BYTES) + identifierPostings * HASH_ENTRY_BYTES
+                    + birthDates.size() * (TREE_ENTRY_BYTES + SET_BYTES) + birthDatePostings * HASH_ENTRY_BYTES;
+
+            return Stats.builder()
+                    .patients(patients.size())
+                    .nameTokens(nameTokens.size())
+                    .namePostings(postings)
+                    .identifiers(identifiers.size())
+                    .birthDates(birthDates.size())
+                    .estimatedBytes(estimatedBytes)
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Normalizes a name for indexing: strips diacritics, lower-cases and splits into tokens.
+     *
+     * @param value free text name
+     * @return normalized tokens
+     */
+    static List<String> tokenize(String value) {
+        String normalized = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(normalized)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private void index(PatientSummary summary) {
+        String id = summary.getId();
+        patients.put(id, summary);
+        String[] tokens = nameTokensOf(summary).toArray(String[]::new);
+        nameTokensById.put(id, tokens);
+        for (String token : tokens) {
+            nameTokens.computeIfAbsent(token, key -> new HashSet<>()).add(id);
+        }
+        for (String key : identifierKeysOf(summary)) {
+            identifiers.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+        }
+        if (summary.getBirthDate() != null) {
+            birthDates.computeIfAbsent(summary.getBirthDate(), key -> new HashSet<>()).add(id);
+        }
+    }
+
+    private void unindex(PatientSummary summary) {
+        String id = summary.getId();
+        patients.remove(id);
+        for (String token : nameTokensById.remove(id)) {
+            removePosting(nameTokens, token, id);
+        }
+        for (String key : identifierKeysOf(summary)) {
+            removePosting(identifiers, key, id);
+        }
+        if (summary.getBirthDate() != null) {
+            removePosting(birthDates, summary.getBirthDate(), id);
+        }
+    }
+
+    private static <K> void removePosting(Map<K, Set<String>> postings, K key, String id) {
+        Set<String> ids = postings.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    /**
+     * Counts the postings of a candidate source, stopping once the count reaches {@code atMost}.
+     */
+    private static long countPostings(Collection<Set<String>> postings, long atMost) {
+        long count = 0;
+        for (Set<String> ids : postings) {
+            count += ids.size();
+            if (count >= atMost) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private NavigableMap<String, Set<String>> prefixRange(String prefix) {
+        return nameTokens.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static Set<String> nameTokensOf(PatientSummary summary) {
+        Set<String> tokens = new LinkedHashSet<>();
+        summary.getGivenNames().forEach(given -> tokens.addAll(tokenize(given)));
+        if (summary.getFamilyName() != null) {
+            tokens.addAll(tokenize(summary.getFamilyName()));
+        }
+        return tokens;
+    }
+
+    private static Set<String> identifierKeysOf(PatientSummary summary) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (PatientIdentifier identifier : summary.getIdentifiers()) {
+            if (identifier.getValue() == null) {
+                continue;
+            }
+            keys.add(identifier.getValue());
+            if (identifier.getSystem() != null) {
+                keys.add(identifier.getSystem() + "|" + identifier.getValue());
+            }
+        }
+        return keys;
+    }
+
+    private static boolean matchesName(String[] tokens, List<String> query) {
+        for (String prefix : query) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean inRange(LocalDate date, LocalDate from, LocalDate to) {
+        return date != null && !date.isBefore(from) && !date.isAfter(to);
+    }
+
+    @Value
+    @Builder
+    public static class Stats {
+        int patients;
+        int nameTokens;
+        long namePostings;
+        int identifiers;
+        int birthDates;
+        long estimatedBytes;
+    }
+}
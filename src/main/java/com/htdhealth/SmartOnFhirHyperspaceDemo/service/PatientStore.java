@@ -0,0 +1,201 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory store of imported patients, keyed by FHIR resource id and kept in import order.
+ * Every upsert is forwarded to the registered {@link PatientStoreListener}s, which keep
+ * derived state such as the search index in step with the store. A failing listener is logged and does
+ * not stop the others; the save then rethrows its failure once all listeners have run.
+ * <p>
+ * Writers holding data fetched a while ago use {@link #saveIfNewer}, which compares versions and stores under
+ * the same write lock, so a slow sync or import never overwrites a newer version another writer just stored.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PatientStore {
+
+    private final ObjectProvider<PatientStoreListener> listeners;
+    private final LinkedHashMap<String, PatientSummary> patients = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    private volatile long version;
+
+    /**
+     * Inserts a patient, or replaces the stored patient with the same id.
+     *
+     * @param summary the patient to store
+     * @return the summary that was replaced, or null if the patient is new
+     */
+    public PatientSummary save(PatientSummary summary) {
+        return upsert(summary, false).previous();
+    }
+
+    /**
+     * Stores the patient only if it is new or a newer version of the stored one, as decided by {@link #isNewer}.
+     * The comparison and the write happen under the same lock, so concurrent writers cannot replace a newer
+     * version with an older one.
+     *
+     * @param summary the patient to store
+     * @return true if the patient was stored
+     */
+    public boolean saveIfNewer(PatientSummary summary) {
+        return upsert(summary, true).stored();
+    }
+
+    /**
+     * Returns whether the incoming summary is a newer version of the stored patient: a later
+     * {@code meta.lastUpdated}, then a higher numeric {@code meta.versionId}, and otherwise different content.
+     *
+     * @param existing the stored summary, or null
+     * @param incoming the summary about to be stored
+     * @return true if the incoming summary should replace the stored one
+     */
+    public static boolean isNewer(PatientSummary existing, PatientSummary incoming) {
+        if (existing == null) {
+            return true;
+        }
+        if (existing.getLastUpdated() != null && incoming.getLastUpdated() != null
+                && !existing.getLastUpdated().equals(incoming.getLastUpdated())) {
+            return incoming.getLastUpdated().isAfter(existing.getLastUpdated());
+        }
+        try {
+            if (existing.getVersionId() != null && incoming.getVersionId() != null) {
+                return Long.parseLong(incoming.getVersionId()) > Long.parseLong(existing.getVersionId());
+            }
+        } catch (NumberFormatException e) {
+            // Opaque version ids, fall through to comparing content
+        }
+        return !Objects.equals(existing, incoming);
+    }
+
+    private Upsert upsert(PatientSummary summary, boolean onlyIfNewer) {
+        List<PatientStoreListener> current = listeners.orderedStream().toList();
+        PatientSummary previous;
+        RuntimeException failure;
+        lock.writeLock().lock();
+        try {
+            if (onlyIfNewer && !isNewer(patients.get(summary.getId()), summary)) {
+                return new Upsert(false, patients.get(summary.getId()));
+            }
+            previous = patients.put(summary.getId(), summary);
+            version++;
+            failure = notifyListeners(current, listener -> listener.onUpsert(previous, summary), null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        failure = notifyListeners(current, listener -> listener.afterUpsert(previous, summary), failure);
+        if (failure != null) {
+            throw failure;
+        }
+        return new Upsert(true, previous);
+    }
+
+    /**
+     * Calls every listener, so one that throws does not keep the others from seeing the upsert.
+     *
+     * @return the first failure, with later ones suppressed, or null if all listeners succeeded
+     */
+    private static RuntimeException notifyListeners(List<PatientStoreListener> listeners,
+                                           Consumer<PatientStoreListener> callback, RuntimeException failure) {
+        for (PatientStoreListener listener : listeners) {
+            try {
+                callback.accept(listener);
+            } catch (RuntimeException e) {
+                log.error("Patient store listener {} failed", listener.getClass().getSimpleName(), e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Looks up a stored patient by FHIR resource id.
+     *
+     * @param id the FHIR resource id
+     * @return the stored summary, if any
+     */
+    public Optional<PatientSummary> findById(String id) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(patients.get(id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a tag that changes whenever a patient is stored, including across restarts. Read it before
+     * {@link #findAll()}, so a page built from the snapshot is never older than the tag it is served with.
+     *
+     * @return the store's current version tag
+     */
+    public String versionTag() {
+        return epoch + "-" + version;
+    }
+
+    /**
+     * Returns a snapshot of all stored patients in import order.
+     *
+     * @return list of stored summaries
+     */
+    public List<PatientSummary> findAll() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(patients.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the ids of all stored patients in import order.
+     *
+     * @return list of FHIR resource ids
+     */
+    public List<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(patients.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of stored patients.
+     *
+     * @return patient count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return patients.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private record Upsert(boolean stored, PatientSummary previous) {
+    }
+}
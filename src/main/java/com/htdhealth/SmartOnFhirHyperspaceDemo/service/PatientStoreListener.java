@@ -0,0 +1,30 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+
+/**
+ * Callback for components that derive state from the patient store.
+ * {@link #onUpsert} is invoked synchronously under the store's write lock, so it sees upserts in store order
+ * and must be fast; I/O belongs in {@link #afterUpsert}, which runs on the same thread once the lock is released.
+ * A listener that throws does not keep the other listeners from being called.
+ */
+public interface PatientStoreListener {
+
+    /**
+     * Called under the store's write lock after a patient has been inserted or replaced.
+     *
+     * @param previous the summary that was replaced, or null for a new patient
+     * @param current  the summary now held by the store
+     */
+    void onUpsert(PatientSummary previous, PatientSummary current);
+
+    /**
+     * Called after the store's write lock has been released, before the save returns.
+     * Upserts of concurrent saves may arrive here in any order.
+     *
+     * @param previous the summary that was replaced, or null for a new patient
+     * @param current  the summary that was stored
+     */
+    default void afterUpsert(PatientSummary previous, PatientSummary current) {
+    }
+}
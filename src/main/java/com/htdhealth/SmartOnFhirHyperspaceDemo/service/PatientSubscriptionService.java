@@ -0,0 +1,188 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Subscription;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Registers FHIR R4 rest-hook Subscriptions for the patients we hold, so the EHR pushes their changes
+ * instead of waiting for the next {@link PatientSyncService} cycle.
+ * <p>
+ * Newly stored patients are collected and registered on a schedule, {@code subscriptions.batch-size} per
+ * {@code Patient?_id=...} Subscription, with a backend services token. Each Subscription carries a random
+ * token in the {@value #TOKEN_HEADER} channel header; the EHR sends it back with every notification, which
+ * both authenticates the notification and tells which patients it is about. Subscriptions already registered
+ * for our endpoint are rediscovered by searching {@code Subscription?url=<endpoint>} before the first
+ * registration, so a restart does not register the patients again.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PatientSubscriptionService implements PatientStoreListener {
+
+    public static final String TOKEN_HEADER = "X-Subscription-Token";
+    private static final String FHIR_JSON = "application/fhir+json";
+    private static final String CRITERIA_PREFIX = "Patient?_id=";
+
+    private final FhirService fhirService;
+    private final BackendTokenService backendTokenService;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final ConcurrentHashMap<String, Set<String>> patientsByToken = new ConcurrentHashMap<>();
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+    private final Set<String> unregistered = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean discovered;
+
+    @Value("${subscriptions.enabled:false}")
+    private boolean enabled;
+
+    @Value("${subscriptions.endpoint:}")
+    private String endpoint;
+
+    @Value("${subscriptions.full-resource-payload:true}")
+    private boolean fullResourcePayload;
+
+    @Value("${subscriptions.batch-size:100}")
+    private int batchSize;
+
+    @Override
+    public void onUpsert(PatientSummary previous, PatientSummary current) {
+        if (enabled && previous == null && !subscribed.contains(current.getId())) {
+            unregistered.add(current.getId());
+        }
+    }
+
+    /**
+     * Registers the pending patients on the configured schedule, unless subscriptions are disabled.
+     */
+    @Scheduled(fixedDelayString = "${subscriptions.register-interval-ms:30000}",
+            initialDelayString = "${subscriptions.initial-delay-ms:10000}")
+    public void scheduledRegistration() {
+        if (!enabled) {
+            return;
+        }
+        if (!backendTokenService.isConfigured() || endpoint.isEmpty()) {
+            log.warn("Subscriptions are enabled but no backend services client or subscriptions.endpoint is configured, skipping");
+            return;
+        }
+        registerPending();
+    }
+
+    /**
+     * Registers Subscriptions for the stored patients that are not covered by one yet.
+     *
+     * @return number of patients registered, or -1 if a registration was already running
+     */
+    public int registerPending() {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+
+        try {
+            String accessToken = backendTokenService.getAccessToken();
+            if (!discovered) {
+                discover(accessToken);
+                discovered = true;
+            }
+
+            List<String> ids = unregistered.stream().sorted().toList();
+            int registered = 0;
+            for (int offset = 0; offset < ids.size(); offset += batchSize) {
+                List<String> batch = ids.subList(offset, Math.min(offset + batchSize, ids.size()));
+                String token = newToken();
+
+                String subscriptionId = fhirService.createSubscription(newSubscription(batch, token), accessToken);
+                patientsByToken.put(token, Set.copyOf(batch));
+                subscribed.addAll(batch);
+                batch.forEach(unregistered::remove);
+                registered += batch.size();
+                log.info("Registered Subscription {} for {} patients", subscriptionId, batch.size());
+            }
+            return registered;
+        } catch (Exception e) {
+            log.error("Registering patient subscriptions failed, will retry", e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Looks up the patients a notification token was registered for.
+     *
+     * @param token the {@value #TOKEN_HEADER} value of a notification
+     * @return the patient ids, or empty if the token is not one of ours
+     */
+    public Optional<Set<String>> subscribedPatients(String token) {
+        return token == null ? Optional.empty() : Optional.ofNullable(patientsByToken.get(token));
+    }
+
+    private void discover(String accessToken) {
+        for (Subscription subscription : fhirService.searchSubscriptions(endpoint, accessToken)) {
+            if (subscription.getStatus() == Subscription.SubscriptionStatus.OFF
+                    || subscription.getStatus() == Subscription.SubscriptionStatus.ERROR
+                    || !subscription.hasCriteria() || !subscription.getCriteria().startsWith(CRITERIA_PREFIX)) {
+                continue;
+            }
+            String token = token(subscription.getChannel());
+            if (token == null) {
+                continue;
+            }
+
+            Set<String> ids = Arrays.stream(subscription.getCriteria().substring(CRITERIA_PREFIX.length()).split(","))
+                    .filter(id -> !id.isBlank())
+                    .collect(Collectors.toUnmodifiableSet());
+            patientsByToken.put(token, ids);
+            subscribed.addAll(ids);
+            unregistered.removeAll(ids);
+        }
+        log.info("Found {} existing Subscriptions covering {} patients", patientsByToken.size(), subscribed.size());
+    }
+
+    private Subscription newSubscription(List<String> patientIds, String token) {
+        Subscription subscription = new Subscription()
+                .setStatus(Subscription.SubscriptionStatus.REQUESTED)
+                .setReason("Keep imported patients up to date")
+                .setCriteria(CRITERIA_PREFIX + String.join(",", patientIds));
+
+        Subscription.SubscriptionChannelComponent channel = subscription.getChannel()
+                .setType(Subscription.SubscriptionChannelType.RESTHOOK)
+                .setEndpoint(endpoint);
+        if (fullResourcePayload) {
+            channel.setPayload(FHIR_JSON);
+        }
+        channel.addHeader(TOKEN_HEADER + ": " + token);
+        return subscription;
+    }
+
+    private static String token(Subscription.SubscriptionChannelComponent channel) {
+        for (StringType header : channel.getHeader()) {
+            String value = header.getValue();
+            if (value != null && value.regionMatches(true, 0, TOKEN_HEADER + ":", 0, TOKEN_HEADER.length() + 1)) {
+                return value.substring(TOKEN_HEADER.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[32];
+        secureRandom.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,320 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reader that decodes Patient JSON straight into a {@link PatientSummary}, without building the
+ * HAPI object model. Only the fields the summary keeps are read, everything else is skipped token by token.
+ * The result matches {@link FhirService#toSummary} on the HAPI-parsed resource: values HAPI would reject
+ * (an unknown gender code, an unparsable date) are left out, and {@code meta.lastUpdated} is truncated to
+ * milliseconds like HAPI's {@code InstantType}.
+ */
+final class PatientSummaryReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Set<String> GENDER_CODES = Set.of("male", "female", "other", "unknown");
+
+    private PatientSummaryReader() {
+    }
+
+    /**
+     * Reads a single Patient resource.
+     *
+     * @param in Patient JSON
+     * @return the patient's summary
+     * @throws IOException if the JSON is malformed or not a Patient
+     */
+    static PatientSummary readPatient(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a Patient resource");
+            }
+            PatientSummary patient = readResource(parser);
+            if (patient == null) {
+                throw new IOException("Expected a Patient resource");
+            }
+            return patient;
+        }
+    }
+
+    /**
+     * Reads one page of a search Bundle, passing each Patient entry to the sink. Other resources in the
+     * page (such as an {@code OperationOutcome}) are skipped.
+     *
+     * @param in   Bundle JSON
+     * @param sink receives the summaries in entry order
+     * @return the URL of the next page, or null for the last page
+     * @throws IOException if the JSON is malformed or not a Bundle
+     */
+    static String readSearchBundle(InputStream in, Consumer<PatientSummary> sink) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a Bundle");
+            }
+
+            String resourceType = null;
+            String next = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "resourceType" -> resourceType = text(parser);
+                    case "link" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            next = readNextLink(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "entry" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            readEntries(parser, sink);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (!"Bundle".equals(resourceType)) {
+                throw new IOException("Expected a Bundle but got " + resourceType);
+            }
+            return next;
+        }
+    }
+
+    private static String readNextLink(JsonParser parser) throws IOException {
+        String next = null;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String relation = null;
+            String url = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "relation" -> relation = text(parser);
+                    case "url" -> url = text(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            if ("next".equals(relation)) {
+                next = url;
+            }
+        }
+        return next;
+    }
+
+    private static void readEntries(JsonParser parser, Consumer<PatientSummary> sink) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("resource".equals(field) && value == JsonToken.START_OBJECT) {
+                    PatientSummary patient = readResource(parser);
+                    if (patient != null) {
+                        sink.accept(patient);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the resource object the parser is positioned at, up to and including its closing brace.
+     *
+     * @return the summary, or null if the resource is not a Patient
+     */
+    private static PatientSummary readResource(JsonParser parser) throws IOException {
+        String resourceType = null;
+        PatientSummary.PatientSummaryBuilder builder = PatientSummary.builder();
+        FirstName name = new FirstName();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "resourceType" -> resourceType = text(parser);
+                case "id" -> builder.id(text(parser));
+                case "meta" -> readMeta(parser, builder);
+                case "name" -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        readFirstName(parser, name);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                case "birthDate" -> builder.birthDate(date(text(parser)));
+                case "gender" -> {
+                    String gender = text(parser);
+                    builder.gender(gender != null && GENDER_CODES.contains(gender) ? gender : null);
+                }
+                case "identifier" -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        readIdentifiers(parser, builder);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (!"Patient".equals(resourceType)) {
+            return null;
+        }
+
+        return builder
+                .displayName(displayName(name))
+                .givenNames(name.givenNames)
+                .familyName(name.family)
+                .build();
+    }
+
+    private static void readMeta(JsonParser parser, PatientSummary.PatientSummaryBuilder builder) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "versionId" -> builder.versionId(text(parser));
+                case "lastUpdated" -> builder.lastUpdated(instant(text(parser)));
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the given and family names of the first HumanName and skips the rest of the array.
+     */
+    private static void readFirstName(JsonParser parser, FirstName name) throws IOException {
+        boolean read = false;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (read || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            read = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("family".equals(field)) {
+                    name.family = text(parser);
+                } else if ("given".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        String given = text(parser);
+                        if (given != null) {
+                            name.givenNames.add(given);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readIdentifiers(JsonParser parser, PatientSummary.PatientSummaryBuilder builder)
+            throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String system = null;
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "system" -> system = text(parser);
+                    case "value" -> value = text(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            builder.identifier(PatientIdentifier.of(system, value));
+        }
+    }
+
+    /**
+     * Same rules as {@link FhirService#getPatientDisplayName}: given names, then the family name,
+     * blank parts left out.
+     */
+    private static String displayName(FirstName name) {
+        StringBuilder displayName = new StringBuilder();
+        if (name.givenNames.stream().anyMatch(given -> !given.isBlank())) {
+            displayName.append(String.join(" ", name.givenNames));
+        }
+        if (name.family != null && !name.family.isBlank()) {
+            if (!displayName.isEmpty()) {
+                displayName.append(" ");
+            }
+            displayName.append(name.family);
+        }
+        return !displayName.isEmpty() ? displayName.toString() : "Unknown Patient";
+    }
+
+    /**
+     * Returns the text of the scalar the parser is positioned at, or null for JSON null and
+     * for objects and arrays, which are skipped.
+     */
+    private static String text(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        return token == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    private static Instant instant(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().truncatedTo(ChronoUnit.MILLIS);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static LocalDate date(String value) {
+        try {
+            return PatientSummary.parseFhirDate(value);
+        } catch (DateTimeException | NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static final class FirstName {
+        private final List<String> givenNames = new ArrayList<>(2);
+        private String family;
+    }
+}
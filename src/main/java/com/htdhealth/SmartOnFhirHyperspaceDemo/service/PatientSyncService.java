@@ -0,0 +1,248 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scheduled incremental sync of already-imported patients.
+ * <p>
+ * Each cycle searches the patients we hold in batches of ids with a {@code _lastUpdated} filter, authenticated
+ * with a backend services token, and applies the returned resources to the store, so only patients we hold
+ * are ever fetched. With {@code sync.unscoped-search} enabled, cycles after the first instead ask once for
+ * everything changed on the server with {@code Patient?_lastUpdated=gt<watermark>} and keep the patients we
+ * hold; that downloads other patients' data too and grows with the whole server's change volume, so it is off
+ * by default, and it falls back to id batches when the server rejects it. Every page request is rate limited.
+ * The watermark and the position within the current cycle are persisted after every batch, so an interrupted
+ * cycle resumes where it stopped, and the watermark only advances once a cycle has completed. Every stored
+ * change is audited as {@code PATIENT_SYNC} with the backend services client as the actor.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PatientSyncService {
+
+    private final FhirService fhirService;
+    private final BackendTokenService backendTokenService;
+    private final PatientStore patientStore;
+    private final AuditTrail auditTrail;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${sync.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sync.batch-size:50}")
+    private int batchSize;
+
+    @Value("${sync.requests-per-second:5}")
+    private double requestsPerSecond;
+
+    @Value("${sync.overlap-ms:60000}")
+    private long overlapMs;
+
+    @Value("${sync.state-file:sync-state.properties}")
+    private String stateFile;
+
+    @Value("${sync.unscoped-search:false}")
+    private boolean unscopedSearchEnabled;
+
+    private RateLimiter rateLimiter;
+
+    // Cleared once the server rejects the unscoped search
+    private volatile boolean unscopedSearch = true;
+
+    /**
+     * Runs a sync cycle on the configured schedule, unless sync is disabled or a cycle is still running.
+     */
+    @Scheduled(fixedDelayString = "${sync.interval-ms:300000}", initialDelayString = "${sync.initial-delay-ms:60000}")
+    public void scheduledSync() {
+        if (!enabled) {
+            return;
+        }
+        if (!backendTokenService.isConfigured()) {
+            log.warn("Patient sync is enabled but no backend services client is configured, skipping");
+            return;
+        }
+        syncChangedPatients();
+    }
+
+    /**
+     * Runs (or resumes) one sync cycle.
+     *
+     * @return number of patients updated in the store, or -1 if a cycle was already running
+     */
+    public int syncChangedPatients() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Patient sync already running");
+            return -1;
+        }
+
+        try {
+            SyncState state = loadState();
+            if (state.cycleStart == null) {
+                state.cycleStart = Instant.now();
+                state.nextOffset = 0;
+                saveState(state);
+            }
+
+            int updated = 0;
+            List<String> ids = patientStore.ids().stream().sorted().toList();
+            if (unscopedSearchEnabled && unscopedSearch && state.watermark != null && state.nextOffset == 0) {
+                Integer changed = syncUpdatedSince(state.watermark, ids);
+                if (changed != null) {
+                    updated = changed;
+                    state.nextOffset = ids.size();
+                }
+            }
+            log.info("Syncing {} patients from offset {} with watermark {}", ids.size(), state.nextOffset, state.watermark);
+
+            for (int offset = state.nextOffset; offset < ids.size(); offset += batchSize) {
+                List<String> batch = ids.subList(offset, Math.min(offset + batchSize, ids.size()));
+
+                List<PatientSummary> changed = fhirService.searchPatientSummaries(batch, state.watermark,
+                        backendTokenService.getAccessToken(), rateLimiter());
+                updated += apply(changed);
+
+                state.nextOffset = offset + batch.size();
+                saveState(state);
+            }
+
+            state.watermark = state.cycleStart.minusMillis(overlapMs);
+            state.cycleStart = null;
+            state.nextOffset = 0;
+            saveState(state);
+
+            log.info("Patient sync completed, {} patients updated", updated);
+            return updated;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                log.warn("Patient sync interrupted, will resume from the last completed batch");
+            } else {
+                log.error("Patient sync failed, will resume from the last completed batch", e);
+            }
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Applies everything changed since the watermark with one unscoped search, keeping only patients we hold.
+     *
+     * @return number of patients updated, or null if the server rejected the search and id batches must be used
+     */
+    private Integer syncUpdatedSince(Instant watermark, List<String> ids) {
+        List<PatientSummary> changed;
+        try {
+            changed = fhirService.searchUpdatedPatientSummaries(watermark, backendTokenService.getAccessToken(),
+                    rateLimiter());
+        } catch (RuntimeException e) {
+            if (!isRejected(e)) {
+                throw e;
+            }
+            unscopedSearch = false;
+            log.warn("FHIR server rejected the unscoped _lastUpdated search, syncing in batches of ids from now on", e);
+            return null;
+        }
+
+        Set<String> held = new HashSet<>(ids);
+        return apply(changed.stream()
+                .filter(summary -> held.contains(summary.getId()))
+                .toList());
+    }
+
+    /**
+     * Whether the failure is the server refusing the search itself (a 4xx other than 401 and 429, or 501),
+     * as opposed to an outage or an expired token, which fail the cycle as usual.
+     */
+    private static boolean isRejected(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BaseServerResponseException response) {
+                int status = response.getStatusCode();
+                return status == 501 || (status >= 400 && status < 500 && status != 401 && status != 429);
+            }
+        }
+        return false;
+    }
+
+    private int apply(List<PatientSummary> changed) {
+        String issuer = fhirService.getDefaultIssuer();
+        int updated = 0;
+        for (PatientSummary summary : changed) {
+            if (patientStore.saveIfNewer(summary)) {
+                auditTrail.record(AuditRecord.Action.PATIENT_SYNC, issuer, backendTokenService.getClientId(),
+                        summary.getId(), true);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    private synchronized RateLimiter rateLimiter() {
+        if (rateLimiter == null) {
+            rateLimiter = new RateLimiter(requestsPerSecond);
+        }
+        return rateLimiter;
+    }
+
+    private SyncState loadState() throws IOException {
+        SyncState state = new SyncState();
+        Path path = Path.of(stateFile);
+        if (!Files.exists(path)) {
+            return state;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+        String watermark = properties.getProperty("watermark");
+        String cycleStart = properties.getProperty("cycleStart");
+        state.watermark = watermark != null ? Instant.parse(watermark) : null;
+        state.cycleStart = cycleStart != null ? Instant.parse(cycleStart) : null;
+        state.nextOffset = Integer.parseInt(properties.getProperty("nextOffset", "0"));
+        return state;
+    }
+
+    private void saveState(SyncState state) throws IOException {
+        Properties properties = new Properties();
+        if (state.watermark != null) {
+            properties.setProperty("watermark", state.watermark.toString());
+        }
+        if (state.cycleStart != null) {
+            properties.setProperty("cycleStart", state.cycleStart.toString());
+        }
+        properties.setProperty("nextOffset", String.valueOf(state.nextOffset));
+
+        Path path = Path.of(stateFile).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            properties.store(writer, "Patient sync state");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class SyncState {
+        private Instant watermark;
+        private Instant cycleStart;
+        private int nextOffset;
+    }
+}
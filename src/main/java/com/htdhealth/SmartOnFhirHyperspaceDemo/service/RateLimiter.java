@@ -0,0 +1,82 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Permits are refilled continuously at the configured rate,
+ * and up to one second worth of permits can accumulate as burst capacity.
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final double maxPermits;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        this.availablePermits = maxPermits;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Blocks until a permit is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos = reserve();
+            if (waitNanos == 0) {
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a permit, waiting at most the given time for one to become available.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return true if a permit was taken
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long waitNanos = reserve();
+            if (waitNanos == 0) {
+                return true;
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a permit if one is available, otherwise returns the time until the next one.
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        availablePermits = Math.min(maxPermits,
+                availablePermits + (now - lastRefillNanos) * permitsPerSecond / 1_000_000_000.0);
+        lastRefillNanos = now;
+
+        if (availablePermits >= 1) {
+            availablePermits -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - availablePermits) * 1_000_000_000.0 / permitsPerSecond);
+    }
+}
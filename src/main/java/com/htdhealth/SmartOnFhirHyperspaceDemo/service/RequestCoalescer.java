@@ -0,0 +1,92 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of concurrent identical upstream requests.
+ * The first caller for a key performs the request, every caller arriving while it is
+ * still in flight waits on the same future and receives the same result (or exception).
+ * Nothing is cached once the request completes. A caller that joins waits no longer than its own
+ * {@link Deadline}, not the one of the caller performing the request.
+ * <p>
+ * Only use this for idempotent reads, and make sure the key contains everything that
+ * affects the result, including the authorization context the request is made with.
+ */
+@Component
+@Slf4j
+public class RequestCoalescer {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Executes the loader for the given key, or joins an identical request already in flight.
+     *
+     * @param key    identity of the request, including its authorization context
+     * @param loader the upstream call to perform when no identical request is in flight
+     * @param <T>    result type
+     * @return the result shared by all concurrent callers for the key
+     * @throws DeadlineExceededException if the joined request does not complete before the caller's deadline
+     * @throws RuntimeException the exception raised by the loader, rethrown to every waiting caller
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            log.debug("Joining in-flight request for key: {}", key);
+            return (T) join(key, existing);
+        }
+
+        try {
+            T result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the number of distinct requests currently in flight.
+     *
+     * @return number of in-flight keys
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static Object join(String key, CompletableFuture<Object> future) {
+        Deadline deadline = Deadline.current();
+        try {
+            return deadline == null
+                    ? future.get()
+                    : future.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Joined request " + key
+                    + " did not complete within the request deadline");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for joined request " + key, e);
+        }
+    }
+}
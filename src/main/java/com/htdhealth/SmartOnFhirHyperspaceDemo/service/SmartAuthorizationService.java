@@ -1,10 +1,16 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IssuerConfig;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.AuthorizationUrlEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.PkceGenerationEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.SmartFlowEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Service for handling SMART on FHIR authorization flows with PKCE.
  * This service orchestrates the OAuth 2.0 authorization process
@@ -17,15 +23,17 @@ public class SmartAuthorizationService {
     private final FhirCapabilityService fhirCapabilityService;
     private final PkceService pkceService;
     private final AuthUrlBuilder authUrlBuilder;
-
-    @Value("${epic.client-id}")
-    private String clientId;
+    private final IssuerRegistry issuerRegistry;
+    private final ConcurrentHashMap<String, String> stateIssuers = new ConcurrentHashMap<>();
 
     @Value("${epic.redirect-uri}")
     private String redirectUri;
 
     /**
      * Builds a complete OAuth 2.0 authorization URL for SMART on FHIR authentication.
+     * The issuer is resolved from the registry, which supplies the client id and, if configured,
+     * the authorization endpoint. The issuer is remembered for the state so the callback can
+     * exchange the code with the same issuer.
      *
      * @param url    The base FHIR server URL to authenticate against
      * @param state  A unique state parameter for CSRF protection and session tracking
@@ -35,22 +43,31 @@ public class SmartAuthorizationService {
      * @throws RuntimeException if unable to build URL
      */
     public String buildAuthorizationUrl(String url, String state, String scope, String launch) {
-        log.info("Building authorization URL for state: {} and scope: {}", state, scope);
+        log.debug("Building authorization URL for scope: {}", scope);
 
         try {
-            String authEndpoint = fhirCapabilityService.getAuthorizationEndpoint(url);
-            log.info("Retrieved authorization endpoint: {}", authEndpoint);
+            IssuerConfig issuer = issuerRegistry.resolve(url).getConfig();
+            String authEndpoint = issuer.getAuthorizeUrl() != null ?
+                    issuer.getAuthorizeUrl() : fhirCapabilityService.getAuthorizationEndpoint(url);
+            log.debug("Retrieved authorization endpoint: {}", authEndpoint);
 
+            PkceGenerationEvent pkceEvent = new PkceGenerationEvent();
+            pkceEvent.begin();
             String codeVerifier = pkceService.generateCodeVerifier();
             String codeChallenge = pkceService.generateCodeChallenge(codeVerifier);
+            pkceEvent.complete(issuer.getIssuer(), null, codeChallenge.length(), SmartFlowEvent.SUCCESS);
 
             pkceService.storeCodeVerifier(state, codeVerifier);
+            stateIssuers.put(state, issuer.getIssuer());
 
+            AuthorizationUrlEvent urlEvent = new AuthorizationUrlEvent();
+            urlEvent.begin();
             String authUrl = authUrlBuilder.buildAuthorizationUrl(
-                    authEndpoint, clientId, redirectUri, scope, state, url, codeChallenge, launch
+                    authEndpoint, issuer.getClientId(), redirectUri, scope, state, url, codeChallenge, launch
             );
+            urlEvent.complete(issuer.getIssuer(), null, authUrl.length(), SmartFlowEvent.SUCCESS);
 
-            log.info("Successfully built authorization URL");
+            log.debug("Successfully built authorization URL");
             return authUrl;
 
         } catch (Exception e) {
@@ -69,4 +86,14 @@ public class SmartAuthorizationService {
     public String retrieveCodeVerifier(String state) {
         return pkceService.retrieveCodeVerifier(state);
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves and removes the issuer the authorization for the given state was started with.
+     *
+     * @param state The state parameter used to identify the authorization
+     * @return The issuer URL, or null if the state is unknown
+     */
+    public String retrieveIssuer(String state) {
+        return stateIssuers.remove(state);
+    }
+}
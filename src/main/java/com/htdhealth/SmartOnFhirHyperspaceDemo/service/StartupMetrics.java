@@ -0,0 +1,28 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records how long after JVM start the first login completed, which is the number
+ * the startup warm-up and the AppCDS archive are meant to bring down.
+ */
+@Component
+@Slf4j
+public class StartupMetrics {
+
+    private final AtomicBoolean firstLoginRecorded = new AtomicBoolean();
+
+    /**
+     * Logs the time to first successful login the first time it is called, and is a no-op afterwards.
+     */
+    public void recordSuccessfulLogin() {
+        if (!firstLoginRecorded.get() && firstLoginRecorded.compareAndSet(false, true)) {
+            log.info("Time to first successful login: {} ms after JVM start",
+                    ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+}
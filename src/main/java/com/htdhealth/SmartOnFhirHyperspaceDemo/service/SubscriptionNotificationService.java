@@ -0,0 +1,169 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Patient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies FHIR Subscription notifications to the patient store.
+ * <p>
+ * A notification carrying the changed Patient is applied as is. An id-only notification triggers a search of
+ * the Subscription's patients with {@code _lastUpdated} after the previous fetch for that Subscription, so only
+ * the changed resources are transferred. Handling is idempotent: a patient is only replaced by a newer version
+ * ({@code meta.lastUpdated}, then {@code meta.versionId}) through {@link PatientStore#saveIfNewer}, which the
+ * sync and batch imports use too, so redelivered and out-of-order notifications are harmless. Notifications that are already queued are deduplicated: the same patient version, or a second ping
+ * for a Subscription whose fetch has not started yet, is acknowledged without queueing more work.
+ * <p>
+ * Work is queued for {@code subscriptions.workers} threads in a queue of {@code subscriptions.queue-capacity}
+ * tasks. When it is full, notifications are answered as {@link Result#BUSY}, so the EHR retries them later
+ * rather than the application buffering without bound.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SubscriptionNotificationService {
+
+    public enum Result {
+        ACCEPTED, DUPLICATE, UNKNOWN_SUBSCRIPTION, BUSY
+    }
+
+    private final PatientSubscriptionService subscriptionService;
+    private final FhirService fhirService;
+    private final BackendTokenService backendTokenService;
+    private final PatientStore patientStore;
+    private final AuditTrail auditTrail;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Instant> fetchedUpTo = new ConcurrentHashMap<>();
+    private final AtomicLong applied = new AtomicLong();
+
+    @Value("${subscriptions.workers:2}")
+    private int workers;
+
+    @Value("${subscriptions.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${subscriptions.overlap-ms:60000}")
+    private long overlapMs;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "subscription-notification-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Handles a notification carrying the changed patient.
+     *
+     * @param token   the notification's {@value PatientSubscriptionService#TOKEN_HEADER}
+     * @param patient the changed Patient resource
+     * @return how the notification was handled
+     */
+    public Result onPatient(String token, Patient patient) {
+        PatientSummary summary = fhirService.toSummary(patient);
+        boolean covered = subscriptionService.subscribedPatients(token)
+                .map(ids -> ids.contains(summary.getId()))
+                .orElse(false);
+        if (!covered) {
+            return Result.UNKNOWN_SUBSCRIPTION;
+        }
+        if (!PatientStore.isNewer(patientStore.findById(summary.getId()).orElse(null), summary)) {
+            return Result.DUPLICATE;
+        }
+        return submit("patient:" + summary.getId() + "|" + summary.getVersionId() + "|" + summary.getLastUpdated(),
+                () -> apply(summary));
+    }
+
+    /**
+     * Handles an id-only notification by fetching the Subscription's changed patients.
+     *
+     * @param token the notification's {@value PatientSubscriptionService#TOKEN_HEADER}
+     * @return how the notification was handled
+     */
+    public Result onPing(String token) {
+        Set<String> patientIds = subscriptionService.subscribedPatients(token).orElse(null);
+        if (patientIds == null) {
+            return Result.UNKNOWN_SUBSCRIPTION;
+        }
+        return submit("fetch:" + token, () -> fetchChanged(token, patientIds));
+    }
+
+    /**
+     * Returns the number of patient versions applied to the store.
+     *
+     * @return applied update count
+     */
+    public long applied() {
+        return applied.get();
+    }
+
+    private Result submit(String key, Runnable task) {
+        if (!queued.add(key)) {
+            return Result.DUPLICATE;
+        }
+        try {
+            executor.execute(() -> {
+                queued.remove(key);
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Error handling subscription notification {}", key, e);
+                }
+            });
+            return Result.ACCEPTED;
+        } catch (RejectedExecutionException e) {
+            queued.remove(key);
+            return Result.BUSY;
+        }
+    }
+
+    private void fetchChanged(String token, Set<String> patientIds) {
+        Instant started = Instant.now();
+        List<PatientSummary> changed = fhirService.searchPatientSummaries(patientIds, fetchedUpTo.get(token),
+                backendTokenService.getAccessToken());
+        int updated = 0;
+        for (PatientSummary summary : changed) {
+            if (apply(summary)) {
+                updated++;
+            }
+        }
+        fetchedUpTo.put(token, started.minusMillis(overlapMs));
+        log.info("Subscription notification updated {} of {} changed patients", updated, changed.size());
+    }
+
+    private boolean apply(PatientSummary summary) {
+        if (patientStore.findById(summary.getId()).isEmpty() || !patientStore.saveIfNewer(summary)) {
+            return false;
+        }
+        auditTrail.record(AuditRecord.Action.PATIENT_SUBSCRIPTION_UPDATE, fhirService.getDefaultIssuer(),
+                backendTokenService.getClientId(), summary.getId(), true);
+        applied.incrementAndGet();
+        return true;
+    }
+}
@@ -1,6 +1,10 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IssuerConfig;
 import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.TokenResponse;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.SmartFlowEvent;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.jfr.TokenExchangeEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,7 +15,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.RestClientException;
 
 import java.util.Map;
 
@@ -26,23 +30,21 @@ import java.util.Map;
 public class TokenService {
 
     private final SmartAuthorizationService authService;
-
-    @Value("${epic.client-id}")
-    private String clientId;
+    private final IssuerRegistry issuerRegistry;
+    private final IdTokenValidator idTokenValidator;
+    private final HedgedCaller hedgedCaller;
 
     @Value("${epic.redirect-uri}")
     private String redirectUri;
 
-    @Value("${epic.token-url:https://fhir.epic.com/interconnect-fhir-oauth/oauth2/token}")
-    private String tokenUrl;
-
     /**
      * Exchanges an OAuth 2.0 authorization code for an access token using the PKCE flow.
      * This method completes the second phase of the SMART on FHIR authorization process by:
-     * 1. Retrieving the stored PKCE code verifier for the given state
-     * 2. Making a POST request to the token endpoint with the authorization code
+     * 1. Retrieving the stored PKCE code verifier and issuer for the given state
+     * 2. Making a POST request to the issuer's token endpoint with the authorization code
      * 3. Validating the PKCE code verifier against the original code challenge
      * 4. Parsing the token response into a structured TokenResponse object
+     * 5. Verifying the id_token, if one was issued, against the issuer's signing keys
      *
      * @param authorizationCode The authorization code received from the authorization server callback
      * @param state             The state parameter used to retrieve the corresponding PKCE code verifier
@@ -50,10 +52,18 @@ public class TokenService {
      * @throws RuntimeException if code verifier retrieval fails, token exchange fails, or response parsing fails
      */
     public TokenResponse exchangeCodeForToken(String authorizationCode, String state) {
-        log.info("Exchanging authorization code for token, state: {}", state);
+        log.debug("Exchanging authorization code for token");
 
+        TokenExchangeEvent event = new TokenExchangeEvent();
+        event.begin();
+        String eventIssuer = null;
+        long payloadBytes = -1;
+        String outcome = SmartFlowEvent.FAILURE;
         try {
             String codeVerifier = authService.retrieveCodeVerifier(state);
+            IssuerClient issuer = issuerRegistry.resolve(authService.retrieveIssuer(state));
+            IssuerConfig issuerConfig = issuer.getConfig();
+            eventIssuer = issuerConfig.getIssuer();
 
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
@@ -62,19 +72,27 @@ public class TokenService {
             params.add("grant_type", "authorization_code");
             params.add("code", authorizationCode);
             params.add("redirect_uri", redirectUri);
-            params.add("client_id", clientId);
+            params.add("client_id", issuerConfig.getClientId());
             params.add("code_verifier", codeVerifier);
 
             HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(params, headers);
 
-            RestTemplate restTemplate = new RestTemplate();
-            ResponseEntity<Map> response = restTemplate.postForEntity(tokenUrl, request, Map.class);
+            // Authorization codes are single use, so the exchange is bounded by the deadline but never hedged
+            ResponseEntity<Map> response = hedgedCaller.call("token|" + issuerConfig.getTokenUrl(), false,
+                    issuer.getCallExecutor(), () -> issuer.call(() -> issuer.getTokenRestTemplate()
+                            .postForEntity(issuerConfig.getTokenUrl(), request, Map.class)));
 
+            payloadBytes = response.getHeaders().getContentLength();
             if (response.getBody() == null) {
                 throw new RuntimeException("Empty response from token endpoint");
             }
 
             Map<String, Object> body = response.getBody();
+            String idToken = (String) body.get("id_token");
+            // On a cold cache validation runs discovery and a JWKS fetch, which count against the same deadline
+            IdTokenClaims idTokenClaims = idToken == null ? null : hedgedCaller.call(
+                    "id_token|" + issuerConfig.getIssuer(), false, issuer.getCallExecutor(),
+                    () -> idTokenValidator.validate(idToken, issuer));
 
             TokenResponse tokenResponse = TokenResponse.builder()
                     .accessToken((String) body.get("access_token"))
@@ -83,14 +101,38 @@ public class TokenService {
                     .scope((String) body.get("scope"))
                     .refreshToken((String) body.get("refresh_token"))
                     .patient((String) body.get("patient"))
+                    .issuer(issuerConfig.getIssuer())
+                    .idToken(idToken)
+                    .idTokenClaims(idTokenClaims)
                     .build();
 
             log.info("Successfully exchanged code for token");
+            outcome = SmartFlowEvent.SUCCESS;
             return tokenResponse;
 
+        } catch (DeadlineExceededException e) {
+            log.error("Token exchange did not complete within the request deadline");
+            outcome = "deadline exceeded";
+            throw e;
         } catch (Exception e) {
             log.error("Error exchanging code for token", e);
             throw new RuntimeException("Failed to exchange code for token", e);
+        } finally {
+            event.complete(eventIssuer, "token", payloadBytes, outcome);
+        }
+    }
+
+    /**
+     * Opens a connection to the default issuer's token endpoint so the first code exchange after startup
+     * does not pay for DNS resolution and the TLS handshake. Any HTTP status is fine here,
+     * only the connection matters.
+     */
+    public void warmUp() {
+        try {
+            IssuerClient issuer = issuerRegistry.getDefault();
+            issuer.getTokenRestTemplate().headForHeaders(issuer.getConfig().getTokenUrl());
+        } catch (RestClientException e) {
+            log.debug("Token endpoint warm-up request completed with: {}", e.getMessage());
         }
     }
 }
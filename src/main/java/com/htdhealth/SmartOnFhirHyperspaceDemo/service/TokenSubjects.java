@@ -0,0 +1,39 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Derives an authorization-context identifier from an OAuth 2.0 access token.
+ * Two tokens of the same user may differ in scopes or SMART launch context, so every token is its own
+ * context: the identifier is a SHA-256 hash of the whole token, whether it is a JWT or opaque.
+ */
+public final class TokenSubjects {
+
+    private TokenSubjects() {
+    }
+
+    /**
+     * Returns the authorization context of the access token, a SHA-256 hash of the token.
+     * Different tokens never share a context, even when they were issued to the same user.
+     *
+     * @param accessToken the OAuth 2.0 access token
+     * @return identifier of the authorization context the token belongs to
+     */
+    public static String subjectOf(String accessToken) {
+        if (accessToken == null || accessToken.isEmpty()) {
+            return "anonymous";
+        }
+        return "tok:" + sha256(accessToken);
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(messageDigest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to hash access token", e);
+        }
+    }
+}
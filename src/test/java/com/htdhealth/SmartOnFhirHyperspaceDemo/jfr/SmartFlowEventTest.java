@@ -0,0 +1,112 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.jfr;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.service.PatientPageRenderer;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmartFlowEventTest {
+
+    private static final Path PROFILE = Path.of("jfr", "smart-flow.jfc");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void profile_ShouldEnableEveryPhase() throws Exception {
+        Configuration configuration = Configuration.create(PROFILE);
+
+        for (String phase : List.of("CapabilityDiscovery", "PkceGeneration", "AuthorizationUrl",
+                "TokenExchange", "FhirRead", "FhirParse", "PageRender")) {
+            assertEquals("true", configuration.getSettings().get("com.htdhealth.smart." + phase + "#enabled"), phase);
+        }
+    }
+
+    @Test
+    void renderList_WithProfile_ShouldRecordPageSizeWithoutPatientData() throws Exception {
+        PatientSummary patient = PatientSummary.builder()
+                .id("1")
+                .displayName("Camila Lopez")
+                .givenName("Camila")
+                .familyName("Lopez")
+                .birthDate(LocalDate.parse("1987-09-12"))
+                .identifier(PatientIdentifier.of("urn:mrn", "MRN-1"))
+                .build();
+        PatientPageRenderer.RenderedPage page;
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording(Configuration.create(PROFILE))) {
+            recording.enable(PageRenderEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            page = new PatientPageRenderer().renderList(List.of(patient));
+            recording.stop();
+            events = read(recording, "com.htdhealth.smart.PageRender");
+        }
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("Patient", event.getString("resourceType"));
+        assertEquals(page.getContentLength(), event.getLong("payloadBytes"));
+        assertEquals(SmartFlowEvent.SUCCESS, event.getString("outcome"));
+        for (ValueDescriptor field : event.getFields()) {
+            if (field.getTypeName().equals("java.lang.String")) {
+                String value = event.getString(field.getName());
+                assertFalse(value != null && (value.contains("Camila") || value.contains("MRN-1")), field.getName());
+            }
+        }
+    }
+
+    @Test
+    void complete_WithoutProfile_ShouldNotRecord() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.start();
+            TokenExchangeEvent event = new TokenExchangeEvent();
+            event.begin();
+            event.complete("https://fhir.example.org/R4", "token", 1024, SmartFlowEvent.SUCCESS);
+            recording.stop();
+            events = read(recording, "com.htdhealth.smart.TokenExchange");
+        }
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void complete_WithProfile_ShouldRecordFields() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording(Configuration.create(PROFILE))) {
+            recording.start();
+            TokenExchangeEvent event = new TokenExchangeEvent();
+            event.begin();
+            event.complete("https://fhir.example.org/R4", "token", 1024, SmartFlowEvent.FAILURE);
+            recording.stop();
+            events = read(recording, "com.htdhealth.smart.TokenExchange");
+        }
+
+        assertEquals(1, events.size());
+        assertEquals("https://fhir.example.org/R4", events.get(0).getString("issuer"));
+        assertEquals(1024, events.get(0).getLong("payloadBytes"));
+        assertEquals(SmartFlowEvent.FAILURE, events.get(0).getString("outcome"));
+    }
+
+    private List<RecordedEvent> read(Recording recording, String eventName) throws Exception {
+        Path file = tempDir.resolve(eventName + ".jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals(eventName))
+                .toList();
+    }
+}
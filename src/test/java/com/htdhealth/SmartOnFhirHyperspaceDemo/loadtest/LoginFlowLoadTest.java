@@ -0,0 +1,80 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end login throughput test against the local SMART/FHIR stub server.
+ * Excluded from the regular test run, execute it with {@code ./gradlew loadTest}.
+ * <p>
+ * Tunable through system properties: {@code loadtest.users}, {@code loadtest.logins},
+ * {@code loadtest.latencyMs} (stub latency for token and Patient calls) and
+ * {@code loadtest.errorRate} (stub failure rate for token and Patient calls).
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "server.ssl.enabled=false")
+class LoginFlowLoadTest {
+
+    private static final StubSmartServer STUB = startStub();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void stubProperties(DynamicPropertyRegistry registry) {
+        registry.add("epic.fhir-base-url", STUB::fhirBaseUrl);
+        registry.add("epic.token-url", STUB::tokenUrl);
+        registry.add("epic.redirect-uri", () -> "http://localhost/auth/callback");
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.close();
+    }
+
+    @Test
+    void loginFlow_UnderConcurrentLoad_ShouldReportThroughputAndLatency() throws Exception {
+        int users = Integer.getInteger("loadtest.users", 16);
+        int logins = Integer.getInteger("loadtest.logins", 2_000);
+        long latencyMs = Long.getLong("loadtest.latencyMs", 0L);
+        double errorRate = Double.parseDouble(System.getProperty("loadtest.errorRate", "0"));
+
+        STUB.latency(StubSmartServer.Endpoint.TOKEN, latencyMs)
+                .latency(StubSmartServer.Endpoint.PATIENT, latencyMs)
+                .errorRate(StubSmartServer.Endpoint.TOKEN, errorRate)
+                .errorRate(StubSmartServer.Endpoint.PATIENT, errorRate);
+
+        LoginLoadGenerator generator = new LoginLoadGenerator("http://localhost:" + port, STUB.fhirBaseUrl());
+
+        // Warm up the JIT and connection pools before measuring
+        generator.run(users, Math.min(200, logins));
+        LoginLoadGenerator.Report report = generator.run(users, logins);
+
+        System.out.printf("Login flow load test: users=%d stubLatency=%dms stubErrorRate=%.3f%n%s",
+                users, latencyMs, errorRate, report);
+
+        assertTrue(report.logins() > 0, "No login completed");
+        if (errorRate == 0) {
+            assertEquals(logins, report.logins());
+        }
+    }
+
+    private static StubSmartServer startStub() {
+        try {
+            return new StubSmartServer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
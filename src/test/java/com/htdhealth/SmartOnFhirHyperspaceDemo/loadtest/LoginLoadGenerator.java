@@ -0,0 +1,199 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the running application through the complete SMART login flow:
+ * {@code /auth/launch} → stub authorize → {@code /auth/callback} → {@code /patients/import}.
+ * Reports completed logins per second and latency percentiles for each hop on the application.
+ */
+public class LoginLoadGenerator {
+
+    public enum Hop {
+        LAUNCH, CALLBACK, IMPORT
+    }
+
+    private final String appBaseUrl;
+    private final String issuer;
+    private final HttpClient httpClient;
+
+    public LoginLoadGenerator(String appBaseUrl, String issuer) {
+        this.appBaseUrl = appBaseUrl;
+        this.issuer = issuer;
+        this.httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    /**
+     * Runs the given number of logins spread across concurrent virtual users.
+     *
+     * @param users  number of concurrent virtual users
+     * @param logins total number of logins to perform
+     * @return the collected report
+     */
+    public Report run(int users, int logins) throws InterruptedException {
+        Report report = new Report();
+        AtomicInteger remaining = new AtomicInteger(logins);
+        ExecutorService executor = Executors.newFixedThreadPool(users);
+
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                workers.add(executor.submit(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        login(report);
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Load generator worker failed", e);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void login(Report report) {
+        try {
+            String launchUrl = appBaseUrl + "/auth/launch?launch=" + System.nanoTime()
+                    + "&iss=" + URLEncoder.encode(issuer, StandardCharsets.UTF_8);
+            HttpResponse<String> launch = timed(report, Hop.LAUNCH, launchUrl, 302);
+            if (launch == null) {
+                return;
+            }
+
+            // The stub authorize endpoint stands in for the user's browser at the EHR
+            HttpResponse<String> authorize = get(launch.headers().firstValue("Location").orElseThrow());
+            if (authorize.statusCode() != 302) {
+                report.failures.get(Hop.LAUNCH).incrementAndGet();
+                return;
+            }
+            URI redirect = URI.create(authorize.headers().firstValue("Location").orElseThrow());
+
+            HttpResponse<String> callback = timed(report, Hop.CALLBACK,
+                    appBaseUrl + "/auth/callback?" + redirect.getRawQuery(), 302);
+            if (callback == null) {
+                return;
+            }
+
+            HttpResponse<String> imported = timed(report, Hop.IMPORT,
+                    appBaseUrl + callback.headers().firstValue("Location").orElseThrow(), 200);
+            if (imported != null) {
+                report.logins.incrementAndGet();
+            }
+        } catch (Exception e) {
+            report.errors.incrementAndGet();
+        }
+    }
+
+    private HttpResponse<String> timed(Report report, Hop hop, String url, int expectedStatus) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<String> response = get(url);
+        report.latencies.get(hop).add(System.nanoTime() - start);
+
+        if (response.statusCode() != expectedStatus) {
+            report.failures.get(hop).incrementAndGet();
+            return null;
+        }
+        return response;
+    }
+
+    private HttpResponse<String> get(String url) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(60))
+                .GET()
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Throughput and per-hop latency collected during a run.
+     */
+    public static class Report {
+        private final Map<Hop, ConcurrentLinkedQueue<Long>> latencies = new EnumMap<>(Hop.class);
+        private final Map<Hop, AtomicLong> failures = new EnumMap<>(Hop.class);
+        private final AtomicLong logins = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private long elapsedNanos;
+
+        Report() {
+            for (Hop hop : Hop.values()) {
+                latencies.put(hop, new ConcurrentLinkedQueue<>());
+                failures.put(hop, new AtomicLong());
+            }
+        }
+
+        public long logins() {
+            return logins.get();
+        }
+
+        public long failures(Hop hop) {
+            return failures.get(hop).get();
+        }
+
+        public long errors() {
+            return errors.get();
+        }
+
+        public double loginsPerSecond() {
+            return elapsedNanos == 0 ? 0 : logins.get() / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        /**
+         * Returns the latency percentile for a hop in milliseconds.
+         *
+         * @param hop        the hop on the application
+         * @param percentile percentile between 0 and 100
+         * @return latency in milliseconds, or 0 if the hop was never reached
+         */
+        public double percentileMillis(Hop hop, double percentile) {
+            long[] samples = latencies.get(hop).stream().mapToLong(Long::longValue).toArray();
+            if (samples.length == 0) {
+                return 0;
+            }
+            Arrays.sort(samples);
+            int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+            return samples[Math.max(0, Math.min(index, samples.length - 1))] / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder()
+                    .append(String.format("logins=%d errors=%d elapsed=%.2fs throughput=%.1f logins/s%n",
+                            logins.get(), errors.get(), elapsedNanos / 1_000_000_000.0, loginsPerSecond()));
+            for (Hop hop : Hop.values()) {
+                builder.append(String.format("  %-8s n=%-6d failures=%-5d p50=%7.2fms p95=%7.2fms p99=%7.2fms max=%7.2fms%n",
+                        hop, latencies.get(hop).size(), failures(hop),
+                        percentileMillis(hop, 50), percentileMillis(hop, 95),
+                        percentileMillis(hop, 99), percentileMillis(hop, 100)));
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for an EHR's SMART authorization server and FHIR server.
+ * Serves the SMART configuration document, the capability statement with the oauth-uris extension,
+ * the authorize redirect, the token endpoint issuing signed id_tokens, the JWKS and Patient reads, each with configurable latency and error injection.
+ * <p>
+ * {@code Patient?_id=} rest-hook Subscriptions can be created and searched by endpoint; {@link #updatePatient}
+ * bumps a patient's version and sends the notifications like an EHR would.
+ * <p>
+ * The FHIR base URL is {@code http://localhost:<port>/fhir}.
+ */
+public class StubSmartServer implements AutoCloseable {
+
+    public enum Endpoint {
+        SMART_CONFIGURATION, METADATA, AUTHORIZE, TOKEN, JWKS, PATIENT, PATIENT_SEARCH, SUBSCRIPTION
+    }
+
+    private static final PatientVersion INITIAL_VERSION = new PatientVersion(1, Instant.parse("2024-01-01T00:00:00Z"));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<Endpoint, Long> latencyMillis = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Double> errorRates = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, AtomicLong> requestCounts = new EnumMap<>(Endpoint.class);
+    private final ConcurrentHashMap<String, String> codeToPatient = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PatientVersion> patientVersions = new ConcurrentHashMap<>();
+    private final List<StubSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger subscriptionIds = new AtomicInteger();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient notificationClient = HttpClient.newHttpClient();
+    private volatile String defaultPatientId = "erXuFYUfucBZaryVksYEcMg3";
+    private volatile boolean rejectUnscopedPatientSearch;
+    private volatile KeyPair signingKey;
+    private volatile String signingKeyId;
+
+    public StubSmartServer() throws IOException {
+        this(0);
+    }
+
+    public StubSmartServer(int port) throws IOException {
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencyMillis.put(endpoint, 0L);
+            errorRates.put(endpoint, 0.0);
+            requestCounts.put(endpoint, new AtomicLong());
+        }
+
+        rotateSigningKey();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 512);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/fhir/.well-known/smart-configuration",
+                exchange -> handle(exchange, Endpoint.SMART_CONFIGURATION, this::smartConfiguration));
+        server.createContext("/fhir/metadata", exchange -> handle(exchange, Endpoint.METADATA, this::metadata));
+        server.createContext("/fhir/Patient/", exchange -> handle(exchange, Endpoint.PATIENT, this::patient));
+        server.createContext("/fhir/Patient", exchange -> handle(exchange, Endpoint.PATIENT_SEARCH, this::patientSearch));
+        server.createContext("/fhir/Subscription", exchange -> handle(exchange, Endpoint.SUBSCRIPTION, this::subscription));
+        server.createContext("/oauth2/authorize", exchange -> handle(exchange, Endpoint.AUTHORIZE, this::authorize));
+        server.createContext("/oauth2/token", exchange -> handle(exchange, Endpoint.TOKEN, this::token));
+        server.createContext("/oauth2/jwks", exchange -> handle(exchange, Endpoint.JWKS, this::jwks));
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public String fhirBaseUrl() {
+        return baseUrl() + "/fhir";
+    }
+
+    public String tokenUrl() {
+        return baseUrl() + "/oauth2/token";
+    }
+
+    public StubSmartServer latency(Endpoint endpoint, long millis) {
+        latencyMillis.put(endpoint, millis);
+        return this;
+    }
+
+    public StubSmartServer errorRate(Endpoint endpoint, double rate) {
+        errorRates.put(endpoint, rate);
+        return this;
+    }
+
+    public StubSmartServer rejectUnscopedPatientSearch(boolean reject) {
+        rejectUnscopedPatientSearch = reject;
+        return this;
+    }
+
+    public StubSmartServer defaultPatientId(String patientId) {
+        this.defaultPatientId = patientId;
+        return this;
+    }
+
+    /**
+     * Replaces the id_token signing key with a new one under a new key id, like an issuer rotating its keys.
+     * Only the new key is published afterwards.
+     */
+    public StubSmartServer rotateSigningKey() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            signingKey = generator.generateKeyPair();
+            signingKeyId = UUID.randomUUID().toString();
+            return this;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Issues an id_token signed with the current signing key.
+     *
+     * @param clientId    audience of the token
+     * @param ttlSeconds  lifetime of the token
+     * @return the compact-serialized id_token
+     */
+    public String idToken(String clientId, long ttlSeconds) {
+        long now = Instant.now().getEpochSecond();
+        String header = "{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"%s\"}".formatted(signingKeyId);
+        String claims = """
+                {"iss":"%s","sub":"stub-user","aud":"%s","fhirUser":"%s/Practitioner/stub-user","iat":%d,"exp":%d}""".formatted(
+                fhirBaseUrl(), clientId, fhirBaseUrl(), now, now + ttlSeconds);
+
+        try {
+            Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+            String signingInput = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8))
+                    + "." + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8));
+
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(signingKey.getPrivate());
+            signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+            return signingInput + "." + encoder.encodeToString(signature.sign());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the Subscriptions created so far.
+     *
+     * @return number of Subscriptions
+     */
+    public int subscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Bumps the patient's version and notifies every Subscription whose criteria include it: a full-resource
+     * payload is PUT to {@code [endpoint]/Patient/[id]}, an id-only notification is an empty POST to the endpoint.
+     *
+     * @param patientId FHIR resource id of the patient
+     * @return the HTTP status of each notification sent
+     */
+    public List<Integer> updatePatient(String patientId) {
+        patientVersions.compute(patientId, (id, current) ->
+                new PatientVersion(current == null ? 2 : current.version() + 1, Instant.now()));
+        return redeliver(patientId);
+    }
+
+    /**
+     * Sends a subscription's notification for the patient again, at the current version, like a redelivery.
+     *
+     * @param patientId FHIR resource id of the patient
+     * @return the HTTP status of each notification sent
+     */
+    public List<Integer> redeliver(String patientId) {
+        List<Integer> statuses = new ArrayList<>();
+        for (StubSubscription subscription : subscriptions) {
+            if (subscription.patientIds().contains(patientId)) {
+                statuses.add(notify(subscription, patientId));
+            }
+        }
+        return statuses;
+    }
+
+    private int notify(StubSubscription subscription, String patientId) {
+        HttpRequest.Builder request;
+        if (subscription.payload() != null) {
+            request = HttpRequest.newBuilder(URI.create(subscription.endpoint() + "/Patient/" + patientId))
+                    .header("Content-Type", subscription.payload())
+                    .PUT(HttpRequest.BodyPublishers.ofString(patientJson(patientId)));
+        } else {
+            request = HttpRequest.newBuilder(URI.create(subscription.endpoint()))
+                    .POST(HttpRequest.BodyPublishers.noBody());
+        }
+        subscription.headers().forEach(request::header);
+        try {
+            return notificationClient.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    public long requestCount(Endpoint endpoint) {
+        return requestCounts.get(endpoint).get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint, Handler handler) throws IOException {
+        try (exchange) {
+            requestCounts.get(endpoint).incrementAndGet();
+            long latency = latencyMillis.get(endpoint);
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errorRates.get(endpoint)) {
+                send(exchange, 500, "text/plain", "Injected failure");
+                return;
+            }
+            handler.handle(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void smartConfiguration(HttpExchange exchange) throws IOException {
+        String body = """
+                {
+                  "issuer": "%s",
+                  "authorization_endpoint": "%s/oauth2/authorize",
+                  "token_endpoint": "%s/oauth2/token",
+                  "jwks_uri": "%s/oauth2/jwks",
+                  "token_endpoint_auth_methods_supported": ["private_key_jwt"],
+                  "scopes_supported": ["openid", "fhirUser", "launch", "patient/*.read"],
+                  "code_challenge_methods_supported": ["S256"],
+                  "capabilities": ["launch-ehr", "client-public", "context-ehr-patient", "sso-openid-connect"]
+                }
+                """.formatted(fhirBaseUrl(), baseUrl(), baseUrl(), baseUrl());
+        send(exchange, 200, "application/json", body);
+    }
+
+    private void metadata(HttpExchange exchange) throws IOException {
+        String body = """
+                {
+                  "resourceType": "CapabilityStatement",
+                  "status": "active",
+                  "date": "2024-01-01",
+                  "kind": "instance",
+                  "fhirVersion": "4.0.1",
+                  "format": ["json"],
+                  "rest": [{
+                    "mode": "server",
+                    "security": {
+                      "extension": [{
+                        "url": "http://fhir-registry.smarthealthit.org/StructureDefinition/oauth-uris",
+                        "extension": [
+                          {"url": "authorize", "valueUri": "%s/oauth2/authorize"},
+                          {"url": "token", "valueUri": "%s/oauth2/token"}
+                        ]
+                      }]
+                    }
+                  }]
+                }
+                """.formatted(baseUrl(), baseUrl());
+        send(exchange, 200, "application/fhir+json", body);
+    }
+
+    private void authorize(HttpExchange exchange) throws IOException {
+        Map<String, String> params = queryParams(exchange.getRequestURI());
+        String code = UUID.randomUUID().toString();
+        codeToPatient.put(code, defaultPatientId);
+
+        String location = params.get("redirect_uri") + "?code=" + code + "&state=" + params.get("state");
+        exchange.getResponseHeaders().add("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Map<String, String> params = parseQuery(form);
+        String patientId = codeToPatient.remove(params.getOrDefault("code", ""));
+
+        if (patientId == null) {
+            send(exchange, 400, "application/json", "{\"error\":\"invalid_grant\"}");
+            return;
+        }
+
+        String body = """
+                {
+                  "access_token": "%s",
+                  "token_type": "Bearer",
+                  "expires_in": 3600,
+                  "scope": "launch patient/*.read openid fhirUser",
+                  "patient": "%s",
+                  "id_token": "%s"
+                }
+                """.formatted(UUID.randomUUID(), patientId, idToken(params.getOrDefault("client_id", ""), 3600));
+        send(exchange, 200, "application/json", body);
+    }
+
+    private void jwks(HttpExchange exchange) throws IOException {
+        RSAPublicKey publicKey = (RSAPublicKey) signingKey.getPublic();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String body = """
+                {"keys": [{"kty": "RSA", "use": "sig", "alg": "RS256", "kid": "%s", "n": "%s", "e": "%s"}]}
+                """.formatted(signingKeyId,
+                encoder.encodeToString(unsigned(publicKey.getModulus())),
+                encoder.encodeToString(unsigned(publicKey.getPublicExponent())));
+        send(exchange, 200, "application/json", body);
+    }
+
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    /**
+     * Creates a Subscription (POST) or searches them by {@code url}, the channel endpoint (GET).
+     */
+    private void subscription(HttpExchange exchange) throws IOException {
+        if ("GET".equals(exchange.getRequestMethod())) {
+            String url = queryParams(exchange.getRequestURI()).get("url");
+            StringBuilder entries = new StringBuilder();
+            int total = 0;
+            for (StubSubscription subscription : subscriptions) {
+                if (url == null || url.equals(subscription.endpoint())) {
+                    if (total++ > 0) {
+                        entries.append(',');
+                    }
+                    entries.append("{\"fullUrl\":\"").append(fhirBaseUrl()).append("/Subscription/")
+                            .append(subscription.id()).append("\",\"resource\":").append(subscription.json()).append('}');
+                }
+            }
+            send(exchange, 200, "application/fhir+json", "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":"
+                    + total + ",\"entry\":[" + entries + "]}");
+            return;
+        }
+
+        ObjectNode resource = (ObjectNode) objectMapper.readTree(exchange.getRequestBody());
+        String criteria = resource.path("criteria").asText();
+        if (!criteria.startsWith("Patient?_id=")) {
+            send(exchange, 422, "text/plain", "Unsupported criteria");
+            return;
+        }
+        String id = String.valueOf(subscriptionIds.incrementAndGet());
+        resource.put("id", id);
+        resource.put("status", "active");
+
+        JsonNode channel = resource.path("channel");
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (JsonNode header : channel.path("header")) {
+            int separator = header.asText().indexOf(':');
+            headers.put(header.asText().substring(0, separator).trim(), header.asText().substring(separator + 1).trim());
+        }
+        subscriptions.add(new StubSubscription(id, Set.of(criteria.substring("Patient?_id=".length()).split(",")),
+                channel.path("endpoint").asText(), channel.hasNonNull("payload") ? channel.get("payload").asText() : null,
+                headers, resource.toString()));
+
+        exchange.getResponseHeaders().add("Location", fhirBaseUrl() + "/Subscription/" + id + "/_history/1");
+        send(exchange, 201, "application/fhir+json", resource.toString());
+    }
+
+    private void patient(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String patientId = path.substring(path.lastIndexOf('/') + 1);
+        send(exchange, 200, "application/fhir+json", patientJson(patientId));
+    }
+
+    /**
+     * Answers {@code Patient?_id=a,b,c} with a single searchset page. Ids starting with "missing" are not found.
+     * A {@code _lastUpdated=gt<instant>} parameter restricts the page to patients updated after the instant.
+     * Without {@code _id} the search covers the patients passed to {@link #updatePatient}, unless
+     * {@link #rejectUnscopedPatientSearch(boolean)} makes it answer 400 like EHRs that require {@code _id}.
+     */
+    private void patientSearch(HttpExchange exchange) throws IOException {
+        Map<String, String> params = queryParams(exchange.getRequestURI());
+        if (!params.containsKey("_id") && rejectUnscopedPatientSearch) {
+            send(exchange, 400, "application/fhir+json", """
+                    {"resourceType": "OperationOutcome", "issue": [{"severity": "error", "code": "required",
+                     "diagnostics": "The _id parameter is required"}]}
+                    """);
+            return;
+        }
+        String ids = params.containsKey("_id") ? params.get("_id") : String.join(",", patientVersions.keySet());
+        String lastUpdated = params.get("_lastUpdated");
+        Instant updatedAfter = lastUpdated != null && lastUpdated.startsWith("gt")
+                ? OffsetDateTime.parse(lastUpdated.substring(2)).toInstant() : null;
+        StringBuilder entries = new StringBuilder();
+        int total = 0;
+        for (String id : ids.split(",")) {
+            if (id.isEmpty() || id.startsWith("missing")) {
+                continue;
+            }
+            if (updatedAfter != null && !patientVersion(id).lastUpdated().isAfter(updatedAfter)) {
+                continue;
+            }
+            if (total++ > 0) {
+                entries.append(',');
+            }
+            entries.append("{\"fullUrl\":\"").append(fhirBaseUrl()).append("/Patient/").append(id)
+                    .append("\",\"resource\":").append(patientJson(id)).append('}');
+        }
+        String body = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":" + total
+                + ",\"entry\":[" + entries + "]}";
+        send(exchange, 200, "application/fhir+json", body);
+    }
+
+    private PatientVersion patientVersion(String patientId) {
+        return patientVersions.getOrDefault(patientId, INITIAL_VERSION);
+    }
+
+    private String patientJson(String patientId) {
+        PatientVersion version = patientVersion(patientId);
+        return patientJson(patientId, version.version(), version.lastUpdated());
+    }
+
+    static String patientJson(String patientId, int version, Instant lastUpdated) {
+        return """
+                {
+                  "resourceType": "Patient",
+                  "id": "%s",
+                  "meta": {"versionId": "%d", "lastUpdated": "%s"},
+                  "identifier": [{"system": "urn:oid:1.2.840.114350.1.13.0.1.7.5.737384.0", "value": "MRN-%s"}],
+                  "name": [{"use": "official", "family": "Lopez", "given": ["Camila", "Maria"]}],
+                  "gender": "female",
+                  "birthDate": "1987-09-12"
+                }
+                """.formatted(patientId, version, lastUpdated, patientId);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    static Map<String, String> queryParams(URI uri) {
+        return uri.getRawQuery() == null ? Map.of() : parseQuery(uri.getRawQuery());
+    }
+
+    static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private record PatientVersion(int version, Instant lastUpdated) {
+    }
+
+    private record StubSubscription(String id, Set<String> patientIds, String endpoint, String payload,
+                                    Map<String, String> headers, String json) {
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
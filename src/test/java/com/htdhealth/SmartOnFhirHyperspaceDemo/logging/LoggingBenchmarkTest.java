@@ -0,0 +1,122 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Request-thread cost of the log lines of one login callback: a synchronous appender with plain messages,
+ * as before, against the asynchronous appender with redaction, with and without sampling. The appenders
+ * write to a file standing in for the console. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class LoggingBenchmarkTest {
+
+    private static final String AUTH_URL = "https://ehr.example.org/oauth2/authorize?response_type=code&client_id=demo"
+            + "&redirect_uri=https://localhost:8080/auth/callback&scope=launch+openid+fhirUser+patient/*.read"
+            + "&state=6f1c9a3e-1d2b-4c5d-9e8f-0a1b2c3d4e5f&aud=https://ehr.example.org/fhir&code_challenge="
+            + "E9Melhoa2OwvFrEMTJguCHaoeK1t8URWbuGJSstw-cM&code_challenge_method=S256";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void logCost_SynchronousVersusAsynchronous() throws Exception {
+        int requests = Integer.getInteger("benchmark.logRequests", 200_000);
+
+        String sync = """
+                <configuration>
+                  <appender name="FILE" class="ch.qos.logback.core.FileAppender">
+                    <file>%s</file>
+                    <encoder><pattern>%%d %%5p [%%15.15t] %%-40.40logger{39} : %%m%%n</pattern></encoder>
+                  </appender>
+                  <root level="INFO"><appender-ref ref="FILE"/></root>
+                </configuration>
+                """.formatted(tempDir.resolve("sync.log"));
+        String async = """
+                <configuration>
+                  <conversionRule conversionWord="redactedMessage"
+                                  converterClass="com.htdhealth.SmartOnFhirHyperspaceDemo.logging.RedactingMessageConverter"/>
+                  %s
+                  <appender name="FILE" class="ch.qos.logback.core.FileAppender">
+                    <file>%s</file>
+                    <encoder><pattern>%%d %%5p [%%15.15t] %%-40.40logger{39} : %%redactedMessage%%n</pattern></encoder>
+                  </appender>
+                  <appender name="ASYNC" class="ch.qos.logback.classic.AsyncAppender">
+                    <queueSize>8192</queueSize>
+                    <neverBlock>true</neverBlock>
+                    <appender-ref ref="FILE"/>
+                  </appender>
+                  <root level="INFO"><appender-ref ref="ASYNC"/></root>
+                </configuration>
+                """;
+        String sampling = """
+                <turboFilter class="com.htdhealth.SmartOnFhirHyperspaceDemo.logging.SamplingTurboFilter">
+                  <loggerPrefix>com.htdhealth</loggerPrefix>
+                  <permitsPerSecond>20</permitsPerSecond>
+                  <sampleOneIn>100</sampleOneIn>
+                </turboFilter>
+                """;
+
+        System.out.printf("Logging the lines of %,d login callbacks%n", requests);
+        for (int threads : new int[]{1, 8}) {
+            run("synchronous, plain", sync, threads, requests);
+            run("async, redacted", async.formatted("", tempDir.resolve("async.log")), threads, requests);
+            run("async, redacted, sampled", async.formatted(sampling, tempDir.resolve("sampled.log")), threads, requests);
+        }
+    }
+
+    private void run(String name, String configuration, int threads, int requests) throws Exception {
+        LoggerContext context = new LoggerContext();
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(new ByteArrayInputStream(configuration.getBytes(StandardCharsets.UTF_8)));
+
+        Logger controller = context.getLogger("com.htdhealth.SmartOnFhirHyperspaceDemo.controller.AuthController");
+        Logger fhir = context.getLogger("com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirService");
+        int perThread = requests / threads;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch begin = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                begin.await();
+                for (int i = 0; i < perThread; i++) {
+                    controller.info("Launch request received - launch: {}, iss: {}", "present", "https://ehr.example.org/fhir");
+                    controller.info("Redirecting to authorization URL {}", AUTH_URL);
+                    controller.info("Authorization callback received - code: {}, state: {}, error: {}, error_description: {}",
+                            "present", "present", null, null);
+                    fhir.info("Retrieved patient {}", "erXuFYUfucBZaryVksYEcMg3");
+                    controller.info("Authorization successful for patient {}", "erXuFYUfucBZaryVksYEcMg3");
+                }
+                return null;
+            });
+        }
+        long start = System.nanoTime();
+        begin.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.MINUTES));
+        long elapsed = System.nanoTime() - start;
+
+        AsyncAppender async = (AsyncAppender) context.getLogger(Logger.ROOT_LOGGER_NAME).getAppender("ASYNC");
+        int queued = async != null ? async.getNumberOfElementsInQueue() : 0;
+        context.stop();
+
+        System.out.printf("%-26s %d thread(s): %,7d ns per request on the request thread (%d still queued)%n",
+                name, threads, elapsed / perThread, queued);
+    }
+}
@@ -0,0 +1,65 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SamplingTurboFilterTest {
+
+    private LoggerContext context;
+    private SamplingTurboFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        context = new LoggerContext();
+        filter = new SamplingTurboFilter();
+        filter.setContext(context);
+        filter.setLoggerPrefix("com.htdhealth");
+        filter.setPermitsPerSecond(5);
+        filter.setSampleOneIn(10);
+        filter.start();
+    }
+
+    @Test
+    void decide_OverBudget_ShouldLogOneInSampleRate() {
+        Logger logger = context.getLogger("com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirService");
+
+        int logged = 0;
+        for (int i = 0; i < 105; i++) {
+            if (filter.decide(null, logger, Level.INFO, "Retrieved patient {}", null, null) == FilterReply.NEUTRAL) {
+                logged++;
+            }
+        }
+
+        assertEquals(5 + 10, logged);
+        assertEquals(90, filter.getSuppressed());
+    }
+
+    @Test
+    void decide_BudgetIsPerMessageTemplate() {
+        Logger logger = context.getLogger("com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirService");
+        for (int i = 0; i < 5; i++) {
+            filter.decide(null, logger, Level.INFO, "Retrieved patient {}", null, null);
+        }
+
+        assertEquals(FilterReply.DENY, filter.decide(null, logger, Level.INFO, "Retrieved patient {}", null, null));
+        assertEquals(FilterReply.NEUTRAL, filter.decide(null, logger, Level.INFO, "Search returned {} patients", null, null));
+    }
+
+    @Test
+    void decide_WarningsAndOtherLoggers_ShouldNeverBeSampled() {
+        Logger application = context.getLogger("com.htdhealth.SmartOnFhirHyperspaceDemo.service.FhirService");
+        Logger library = context.getLogger("ca.uhn.fhir.context.FhirContext");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(FilterReply.NEUTRAL, filter.decide(null, application, Level.WARN, "Slow read {}", null, null));
+            assertEquals(FilterReply.NEUTRAL, filter.decide(null, library, Level.INFO, "Creating context", null, null));
+        }
+        assertEquals(0, filter.getSuppressed());
+    }
+}
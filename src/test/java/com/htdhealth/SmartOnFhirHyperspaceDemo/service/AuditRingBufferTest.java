@@ -0,0 +1,86 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuditRingBufferTest {
+
+    @Test
+    void capacity_ShouldRoundUpToPowerOfTwo() {
+        assertEquals(8, new AuditRingBuffer<>(8).capacity());
+        assertEquals(16, new AuditRingBuffer<>(9).capacity());
+    }
+
+    @Test
+    void offer_FullRing_ShouldFailUntilDrained() {
+        AuditRingBuffer<Integer> ring = new AuditRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, ring.drainTo(drained, 2));
+        assertEquals(List.of(0, 1), drained);
+        assertTrue(ring.offer(4));
+        assertTrue(ring.offer(5));
+        assertFalse(ring.offer(6));
+
+        drained.clear();
+        assertEquals(4, ring.drainTo(drained, 10));
+        assertEquals(List.of(2, 3, 4, 5), drained);
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void offer_ConcurrentProducers_ShouldDeliverEveryElementInProducerOrder() throws Exception {
+        int producers = 8;
+        int perProducer = 100_000;
+        AuditRingBuffer<long[]> ring = new AuditRingBuffer<>(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            executor.submit(() -> {
+                start.await();
+                for (long i = 0; i < perProducer; i++) {
+                    long[] element = {producer, i};
+                    while (!ring.offer(element)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+
+        long[] next = new long[producers];
+        List<long[]> batch = new ArrayList<>();
+        long received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received < (long) producers * perProducer && System.nanoTime() < deadline) {
+            batch.clear();
+            ring.drainTo(batch, 256);
+            for (long[] element : batch) {
+                int producer = (int) element[0];
+                assertEquals(next[producer], element[1], "producer " + producer + " out of order");
+                next[producer]++;
+            }
+            received += batch.size();
+        }
+        executor.shutdown();
+
+        assertEquals((long) producers * perProducer, received);
+        assertEquals(0, ring.size());
+    }
+}
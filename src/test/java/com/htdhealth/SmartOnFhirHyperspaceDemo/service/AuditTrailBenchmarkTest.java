@@ -0,0 +1,73 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cost of auditing on the request thread: a synchronous fsync'ed append per access against queueing the
+ * record for the group-committing writer, with 1 and 8 request threads.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class AuditTrailBenchmarkTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recordCost_SynchronousVersusQueued() throws Exception {
+        int records = Integer.getInteger("benchmark.auditRecords", 1_000_000);
+        int syncRecords = Math.min(records, 2_000);
+
+        try (FileAuditSink sink = new FileAuditSink(tempDir.resolve("sync.log"), true)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < syncRecords; i++) {
+                sink.write(List.of(AuditRecord.of(System.currentTimeMillis(), AuditRecord.Action.PATIENT_READ,
+                        true, "issuer", "user", "patient-" + i)));
+            }
+            System.out.printf("synchronous fsync'ed append: %,10d ns/record%n", (System.nanoTime() - start) / syncRecords);
+        }
+
+        for (int threads : new int[]{1, 8}) {
+            AuditTrail auditTrail = AuditTrailTest.auditTrail(65536, AuditTrail.OverflowPolicy.BLOCK);
+            auditTrail.start(new FileAuditSink(tempDir.resolve("queued-" + threads + ".log"), true));
+
+            int perThread = records / threads;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch begin = new CountDownLatch(1);
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    begin.await();
+                    for (int i = 0; i < perThread; i++) {
+                        auditTrail.record(AuditRecord.Action.PATIENT_READ, "issuer", "user", "patient-" + i, true);
+                    }
+                    return null;
+                });
+            }
+            long start = System.nanoTime();
+            begin.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+            long enqueueNanos = System.nanoTime() - start;
+            auditTrail.close();
+            long totalNanos = System.nanoTime() - start;
+
+            System.out.printf("queued, %d thread(s):        %,10d ns/record on the request thread, "
+                            + "%,.0f records/s written, %,d dropped%n",
+                    threads, enqueueNanos * threads / ((long) perThread * threads),
+                    auditTrail.written() * 1e9 / totalNanos, auditTrail.dropped());
+            assertEquals((long) perThread * threads, auditTrail.written() + auditTrail.dropped());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.TokenResponse;
+import org.hl7.fhir.r4.model.AuditEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AuditTrailTest {
+
+    @TempDir
+    Path tempDir;
+
+    private AuditTrail auditTrail;
+
+    @AfterEach
+    void tearDown() {
+        if (auditTrail != null) {
+            auditTrail.close();
+        }
+    }
+
+    static AuditTrail auditTrail(int capacity, AuditTrail.OverflowPolicy overflowPolicy) {
+        AuditTrail auditTrail = new AuditTrail(FhirContext.forR4Cached(), mock(BackendTokenService.class));
+        ReflectionTestUtils.setField(auditTrail, "sinkType", AuditTrail.Sink.FILE);
+        ReflectionTestUtils.setField(auditTrail, "capacity", capacity);
+        ReflectionTestUtils.setField(auditTrail, "batchSize", 512);
+        ReflectionTestUtils.setField(auditTrail, "flushIntervalMs", 10L);
+        ReflectionTestUtils.setField(auditTrail, "overflowPolicy", overflowPolicy);
+        ReflectionTestUtils.setField(auditTrail, "blockTimeoutMs", 50L);
+        return auditTrail;
+    }
+
+    @Test
+    void record_ConcurrentRequests_ShouldWriteEveryRecordToFileOnClose() throws Exception {
+        Path file = tempDir.resolve("audit.log");
+        auditTrail = auditTrail(1024, AuditTrail.OverflowPolicy.BLOCK);
+        auditTrail.start(new FileAuditSink(file, false));
+
+        int threads = 4;
+        int perThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    auditTrail.record(AuditRecord.Action.PATIENT_BATCH_IMPORT, "https://ehr.example.org", null,
+                            "patient-" + i, true);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        auditTrail.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(threads * perThread, lines.size());
+        assertEquals(threads * perThread, auditTrail.written());
+        assertEquals(0, auditTrail.dropped());
+
+        JsonNode line = new ObjectMapper().readTree(lines.get(0));
+        assertEquals("PATIENT_BATCH_IMPORT", line.get("action").asText());
+        assertEquals("success", line.get("outcome").asText());
+        assertEquals("https://ehr.example.org", line.get("issuer").asText());
+        assertTrue(line.get("patient").asText().startsWith("patient-"));
+        assertNotNull(line.get("recorded"));
+        assertNull(line.get("user"));
+    }
+
+    @Test
+    void record_TokenResponse_ShouldAuditVerifiedUser() throws Exception {
+        Path file = tempDir.resolve("audit.log");
+        auditTrail = auditTrail(16, AuditTrail.OverflowPolicy.BLOCK);
+        auditTrail.start(new FileAuditSink(file, false));
+
+        TokenResponse tokenResponse = TokenResponse.builder()
+                .issuer("https://ehr.example.org")
+                .patient("erXuFYUfucBZaryVksYEcMg3")
+                .idTokenClaims(IdTokenClaims.builder()
+                        .subject("user-1")
+                        .fhirUser("Practitioner/123")
+                        .build())
+                .build();
+
+        auditTrail.record(AuditRecord.Action.PATIENT_READ, tokenResponse, false);
+        auditTrail.close();
+
+        JsonNode line = new ObjectMapper().readTree(Files.readAllLines(file).get(0));
+        assertEquals("PATIENT_READ", line.get("action").asText());
+        assertEquals("failure", line.get("outcome").asText());
+        assertEquals("Practitioner/123", line.get("user").asText());
+        assertEquals("erXuFYUfucBZaryVksYEcMg3", line.get("patient").asText());
+    }
+
+    @Test
+    void record_FullBufferWithDropPolicy_ShouldDropWithoutBlocking() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        auditTrail = auditTrail(4, AuditTrail.OverflowPolicy.DROP);
+        auditTrail.start(records -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            auditTrail.record(AuditRecord.Action.PATIENT_READ, "issuer", "user", "patient-" + i, true);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(auditTrail.dropped() > 0);
+        assertTrue(elapsedMs < 1000, "dropping should not wait for the sink, took " + elapsedMs + " ms");
+        release.countDown();
+    }
+
+    @Test
+    void record_FailingSink_ShouldRetryBatch() {
+        int[] calls = new int[1];
+        auditTrail = auditTrail(16, AuditTrail.OverflowPolicy.BLOCK);
+        auditTrail.start(records -> {
+            if (calls[0]++ == 0) {
+                throw new IOException("sink unavailable");
+            }
+        });
+
+        auditTrail.record(AuditRecord.Action.PATIENT_READ, "issuer", "user", "patient-1", true);
+        auditTrail.close();
+
+        assertEquals(2, calls[0]);
+        assertEquals(1, auditTrail.written());
+    }
+
+    @Test
+    void toAuditEvent_ShouldDescribeRestReadOfPatient() {
+        AuditEvent event = FhirAuditSink.toAuditEvent(AuditRecord.of(1_700_000_000_000L,
+                AuditRecord.Action.PATIENT_IMPORT, true, "https://ehr.example.org", "Practitioner/123", "abc"));
+
+        assertEquals("rest", event.getType().getCode());
+        assertEquals("read", event.getSubtypeFirstRep().getCode());
+        assertEquals(AuditEvent.AuditEventAction.R, event.getAction());
+        assertEquals(AuditEvent.AuditEventOutcome._0, event.getOutcome());
+        assertEquals("PATIENT_IMPORT", event.getOutcomeDesc());
+        assertEquals(1_700_000_000_000L, event.getRecorded().getTime());
+        assertEquals("Practitioner/123", event.getAgentFirstRep().getWho().getDisplay());
+        assertEquals("https://ehr.example.org", event.getSource().getSite());
+        assertEquals("Patient/abc", event.getEntityFirstRep().getWhat().getReference());
+    }
+
+    @Test
+    void toAuditEvent_BatchImportFailure_ShouldNameBackendClient() {
+        AuditEvent event = FhirAuditSink.toAuditEvent(AuditRecord.of(0L,
+                AuditRecord.Action.PATIENT_BATCH_IMPORT, false, "https://ehr.example.org", null, "abc"));
+
+        assertEquals(AuditEvent.AuditEventOutcome._4, event.getOutcome());
+        assertEquals("backend services client", event.getAgentFirstRep().getWho().getDisplay());
+    }
+}
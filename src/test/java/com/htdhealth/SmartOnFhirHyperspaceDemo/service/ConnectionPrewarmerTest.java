@@ -0,0 +1,112 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPrewarmerTest {
+
+    private static FhirContext fhirContext;
+
+    private StubSmartServer stub;
+    private IssuerRegistry issuerRegistry;
+    private ConnectionPrewarmer connectionPrewarmer;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubSmartServer();
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "test-client");
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+        issuerRegistry.init();
+
+        connectionPrewarmer = new ConnectionPrewarmer(issuerRegistry);
+        ReflectionTestUtils.setField(connectionPrewarmer, "enabled", true);
+        ReflectionTestUtils.setField(connectionPrewarmer, "maxInFlight", 2);
+        ReflectionTestUtils.setField(connectionPrewarmer, "minIntervalMs", 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionPrewarmer.shutdown();
+        issuerRegistry.shutdown();
+        stub.close();
+    }
+
+    @Test
+    void prewarm_ShouldReachTokenEndpointAndFhirServer() throws Exception {
+        assertTrue(connectionPrewarmer.prewarm(stub.fhirBaseUrl()));
+
+        awaitRequests(StubSmartServer.Endpoint.METADATA, 1);
+        assertEquals(1, stub.requestCount(StubSmartServer.Endpoint.TOKEN));
+        assertEquals(1, stub.requestCount(StubSmartServer.Endpoint.METADATA));
+    }
+
+    @Test
+    void prewarm_LaunchStorm_ShouldBeBoundedPerIssuer() throws Exception {
+        stub.latency(StubSmartServer.Endpoint.TOKEN, 500);
+
+        int started = 0;
+        for (int i = 0; i < 50; i++) {
+            if (connectionPrewarmer.prewarm(stub.fhirBaseUrl())) {
+                started++;
+            }
+        }
+
+        assertTrue(started >= 1 && started <= 2, "started " + started + " pre-warms");
+        awaitRequests(StubSmartServer.Endpoint.METADATA, started);
+        assertEquals(started, stub.requestCount(StubSmartServer.Endpoint.TOKEN));
+    }
+
+    @Test
+    void prewarm_WithinMinInterval_ShouldBeSkipped() {
+        ReflectionTestUtils.setField(connectionPrewarmer, "minIntervalMs", 60_000L);
+
+        assertTrue(connectionPrewarmer.prewarm(null));
+        assertFalse(connectionPrewarmer.prewarm(null));
+    }
+
+    @Test
+    void prewarm_Rejected_ShouldReleaseTheClaimedSlot() {
+        connectionPrewarmer.shutdown();
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(connectionPrewarmer.prewarm(null));
+        }
+
+        assertTrue(issuerRegistry.getDefault().tryClaimPrewarm(1, 0));
+    }
+
+    @Test
+    void prewarm_Disabled_ShouldNotConnect() throws Exception {
+        ReflectionTestUtils.setField(connectionPrewarmer, "enabled", false);
+
+        assertFalse(connectionPrewarmer.prewarm(stub.fhirBaseUrl()));
+        Thread.sleep(100);
+        assertEquals(0, stub.requestCount(StubSmartServer.Endpoint.TOKEN));
+    }
+
+    private void awaitRequests(StubSmartServer.Endpoint endpoint, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stub.requestCount(endpoint) < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, stub.requestCount(endpoint));
+    }
+}
@@ -0,0 +1,102 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.SmartConfiguration;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirCapabilityServiceImplTest {
+
+    private static FhirContext fhirContext;
+
+    private StubSmartServer stub;
+    private IssuerRegistry issuerRegistry;
+    private FhirCapabilityServiceImpl fhirCapabilityService;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubSmartServer();
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "test-client");
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+        issuerRegistry.init();
+
+        fhirCapabilityService = new FhirCapabilityServiceImpl(fhirContext, new RequestCoalescer(), issuerRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        issuerRegistry.shutdown();
+        stub.close();
+    }
+
+    @Test
+    void discover_WellKnownAvailable_ShouldNotFetchCapabilityStatement() {
+        SmartConfiguration configuration = fhirCapabilityService.discover(stub.fhirBaseUrl());
+
+        assertEquals(SmartConfiguration.Source.WELL_KNOWN, configuration.getSource());
+        assertEquals(stub.baseUrl() + "/oauth2/authorize", configuration.getAuthorizationEndpoint());
+        assertEquals(stub.tokenUrl(), configuration.getTokenEndpoint());
+        assertTrue(configuration.getCapabilities().contains("launch-ehr"));
+        assertTrue(configuration.getBytes() > 0);
+        assertEquals(0, stub.requestCount(StubSmartServer.Endpoint.METADATA));
+    }
+
+    @Test
+    void discover_WellKnownFailing_ShouldFallBackToCapabilityStatement() {
+        stub.errorRate(StubSmartServer.Endpoint.SMART_CONFIGURATION, 1.0);
+
+        SmartConfiguration configuration = fhirCapabilityService.discover(stub.fhirBaseUrl());
+
+        assertEquals(SmartConfiguration.Source.CAPABILITY_STATEMENT, configuration.getSource());
+        assertEquals(stub.baseUrl() + "/oauth2/authorize", configuration.getAuthorizationEndpoint());
+        assertEquals(stub.tokenUrl(), configuration.getTokenEndpoint());
+        assertEquals(1, stub.requestCount(StubSmartServer.Endpoint.METADATA));
+    }
+
+    @Test
+    void getAuthorizationEndpoint_ServerUnavailable_ShouldReturnEpicFallback() {
+        stub.errorRate(StubSmartServer.Endpoint.SMART_CONFIGURATION, 1.0)
+                .errorRate(StubSmartServer.Endpoint.METADATA, 1.0);
+
+        assertEquals("https://fhir.epic.com/interconnect-fhir-oauth/oauth2/authorize",
+                fhirCapabilityService.getAuthorizationEndpoint(stub.fhirBaseUrl()));
+    }
+
+    @Test
+    void parseSmartConfiguration_ShouldSkipUnknownNestedFields() throws Exception {
+        String json = """
+                {
+                  "grant_types_supported": ["authorization_code"],
+                  "management_endpoint": {"nested": {"deep": [1, 2, {"x": "y"}]}},
+                  "authorization_endpoint": "https://ehr.example.org/authorize",
+                  "capabilities": ["launch-standalone", 42, "permission-patient"],
+                  "jwks_uri": "https://ehr.example.org/jwks"
+                }
+                """;
+
+        SmartConfiguration configuration = fhirCapabilityService.parseSmartConfiguration(json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("https://ehr.example.org/authorize", configuration.getAuthorizationEndpoint());
+        assertEquals("https://ehr.example.org/jwks", configuration.getJwksUri());
+        assertEquals(List.of("launch-standalone", "permission-patient"), configuration.getCapabilities());
+        assertNull(configuration.getTokenEndpoint());
+    }
+}
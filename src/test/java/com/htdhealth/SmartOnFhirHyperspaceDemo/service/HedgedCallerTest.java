@@ -0,0 +1,220 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgedCallerTest {
+
+    private HedgedCaller hedgedCaller;
+    private HedgedCaller.CallExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        hedgedCaller = new HedgedCaller();
+        executor = new HedgedCaller.CallExecutor("test-call", 4);
+        ReflectionTestUtils.setField(hedgedCaller, "hedgingEnabled", true);
+        ReflectionTestUtils.setField(hedgedCaller, "maxHedgeRatio", 1.0);
+        ReflectionTestUtils.setField(hedgedCaller, "minHedgeDelayMs", 20L);
+        ReflectionTestUtils.setField(hedgedCaller, "minSamples", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void call_SlowPrimary_ShouldBeAnsweredByHedge() {
+        warmUp("read", 20);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = hedgedCaller.call("read", true, executor, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                sleep(2000);
+                return "primary";
+            }
+            return "hedge";
+        });
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("hedge", result);
+        assertEquals(2, attempts.get());
+        assertTrue(elapsedMs < 1000, "hedge should answer long before the slow primary, took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void call_HedgeAnswered_ShouldInterruptSlowPrimary() throws Exception {
+        warmUp("read", 20);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch primaryInterrupted = new CountDownLatch(1);
+
+        String result = hedgedCaller.call("read", true, executor, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    primaryInterrupted.countDown();
+                }
+                return "primary";
+            }
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertTrue(primaryInterrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void call_ExecutorSaturated_ShouldSkipHedgeOrRejectPrimary() throws Exception {
+        executor.shutdown();
+        executor = new HedgedCaller.CallExecutor("test-call", 1);
+        warmUp("read", 20);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = hedgedCaller.call("read", true, executor, () -> {
+            attempts.incrementAndGet();
+            sleep(300);
+            return "primary";
+        });
+        assertEquals("primary", result);
+        assertEquals(1, attempts.get());
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocked = new Thread(() -> hedgedCaller.call("read", true, executor, () -> {
+            running.countDown();
+            return await(release);
+        }));
+        blocked.start();
+        try {
+            assertTrue(running.await(1, TimeUnit.SECONDS));
+            assertThrows(RuntimeException.class, () -> hedgedCaller.call("read", true, executor, () -> "rejected"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void call_NotIdempotent_ShouldNeverHedge() {
+        warmUp("token", 20);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = hedgedCaller.call("token", false, executor, () -> {
+            attempts.incrementAndGet();
+            sleep(200);
+            return "token";
+        });
+
+        assertEquals("token", result);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void call_NoHedgeBudget_ShouldNotHedge() {
+        ReflectionTestUtils.setField(hedgedCaller, "maxHedgeRatio", 0.0);
+        warmUp("read", 20);
+        AtomicInteger attempts = new AtomicInteger();
+
+        hedgedCaller.call("read", true, executor, () -> {
+            attempts.incrementAndGet();
+            sleep(200);
+            return "primary";
+        });
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void call_TooFewSamples_ShouldNotHedge() {
+        warmUp("read", 5);
+
+        assertEquals(-1, hedgedCaller.hedgeDelayMillis("read"));
+    }
+
+    @Test
+    void call_DeadlineExceeded_ShouldFailFast() {
+        long start = System.nanoTime();
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(100)).attach()) {
+            assertThrows(DeadlineExceededException.class, () -> hedgedCaller.call("read", true, executor, () -> {
+                sleep(5000);
+                return "late";
+            }));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMs < 1000, "deadline should cut the call short, took " + elapsedMs + " ms");
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    void call_DeadlineAlreadyPassed_ShouldNotStartRequest() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (Deadline.Scope ignored = Deadline.after(Duration.ZERO).attach()) {
+            assertThrows(DeadlineExceededException.class, () -> hedgedCaller.call("read", true, executor, () -> {
+                attempts.incrementAndGet();
+                return "value";
+            }));
+        }
+
+        assertEquals(0, attempts.get());
+    }
+
+    @Test
+    void call_FailingRequest_ShouldPropagateException() {
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofSeconds(5)).attach()) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> hedgedCaller.call("read", true, executor, () -> {
+                throw new IllegalStateException("upstream failed");
+            }));
+            assertEquals("upstream failed", e.getMessage());
+        }
+    }
+
+    @Test
+    void attach_NestedLaterDeadline_ShouldKeepEarlierOne() {
+        Deadline outer = Deadline.after(Duration.ofMillis(100));
+        try (Deadline.Scope ignored = outer.attach()) {
+            try (Deadline.Scope nested = Deadline.after(Duration.ofSeconds(10)).attach()) {
+                assertSame(outer, Deadline.current());
+            }
+            assertSame(outer, Deadline.current());
+        }
+        assertNull(Deadline.current());
+    }
+
+    private void warmUp(String operation, int calls) {
+        for (int i = 0; i < calls; i++) {
+            hedgedCaller.call(operation, true, executor, () -> {
+                sleep(1);
+                return "warm";
+            });
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IdTokenClaims;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdTokenValidatorTest {
+
+    private static final String CLIENT_ID = "test-client";
+
+    private static FhirContext fhirContext;
+
+    private StubSmartServer stub;
+    private IssuerRegistry issuerRegistry;
+    private JwksCache jwksCache;
+    private IdTokenValidator idTokenValidator;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubSmartServer();
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", CLIENT_ID);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+        issuerRegistry.init();
+
+        RequestCoalescer requestCoalescer = new RequestCoalescer();
+        jwksCache = new JwksCache(new FhirCapabilityServiceImpl(fhirContext, requestCoalescer, issuerRegistry),
+                requestCoalescer);
+        ReflectionTestUtils.setField(jwksCache, "minRefreshIntervalMs", 0L);
+        ReflectionTestUtils.setField(jwksCache, "maxAgeMs", 86_400_000L);
+
+        idTokenValidator = new IdTokenValidator(jwksCache);
+        ReflectionTestUtils.setField(idTokenValidator, "clockSkewSeconds", 60L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        issuerRegistry.shutdown();
+        stub.close();
+    }
+
+    @Test
+    void validate_ValidToken_ShouldReturnClaimsAndFetchKeysOnce() {
+        IdTokenClaims claims = idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), issuerRegistry.getDefault());
+        idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), issuerRegistry.getDefault());
+
+        assertEquals("stub-user", claims.getSubject());
+        assertEquals(stub.fhirBaseUrl(), claims.getIssuer());
+        assertEquals(stub.fhirBaseUrl() + "/Practitioner/stub-user", claims.getFhirUser());
+        assertEquals(1, stub.requestCount(StubSmartServer.Endpoint.JWKS));
+    }
+
+    @Test
+    void validate_RotatedKey_ShouldRefreshKeys() {
+        idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), issuerRegistry.getDefault());
+
+        stub.rotateSigningKey();
+        IdTokenClaims claims = idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), issuerRegistry.getDefault());
+
+        assertEquals("stub-user", claims.getSubject());
+        assertEquals(2, stub.requestCount(StubSmartServer.Endpoint.JWKS));
+    }
+
+    @Test
+    void validate_UnknownKeyWithinRefreshInterval_ShouldRejectWithoutFetching() {
+        ReflectionTestUtils.setField(jwksCache, "minRefreshIntervalMs", 60_000L);
+        idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), issuerRegistry.getDefault());
+
+        stub.rotateSigningKey();
+        String token = stub.idToken(CLIENT_ID, 300);
+
+        assertThrows(RuntimeException.class, () -> idTokenValidator.validate(token, issuerRegistry.getDefault()));
+        assertThrows(RuntimeException.class, () -> idTokenValidator.validate(token, issuerRegistry.getDefault()));
+        assertEquals(1, stub.requestCount(StubSmartServer.Endpoint.JWKS));
+    }
+
+    @Test
+    void validate_ReplacedIssuerClient_ShouldDiscoverKeysAgain() {
+        idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), issuerRegistry.getDefault());
+        IssuerClient replacement = new IssuerClient(fhirContext, issuerRegistry.getDefault().getConfig());
+
+        try {
+            IdTokenClaims claims = idTokenValidator.validate(stub.idToken(CLIENT_ID, 300), replacement);
+
+            assertEquals("stub-user", claims.getSubject());
+            assertEquals(2, stub.requestCount(StubSmartServer.Endpoint.JWKS));
+        } finally {
+            replacement.close();
+        }
+    }
+
+    @Test
+    void validate_TamperedToken_ShouldThrow() {
+        String[] parts = stub.idToken(CLIENT_ID, 300).split("\\.");
+        String forged = stub.idToken("other-client", 300).split("\\.")[1];
+
+        assertThrows(RuntimeException.class, () -> idTokenValidator.validate(
+                parts[0] + "." + forged + "." + parts[2], issuerRegistry.getDefault()));
+    }
+
+    @Test
+    void validate_WrongAudience_ShouldThrow() {
+        assertThrows(RuntimeException.class, () -> idTokenValidator.validate(
+                stub.idToken("other-client", 300), issuerRegistry.getDefault()));
+    }
+
+    @Test
+    void validate_ExpiredToken_ShouldThrow() {
+        assertThrows(RuntimeException.class, () -> idTokenValidator.validate(
+                stub.idToken(CLIENT_ID, -120), issuerRegistry.getDefault()));
+    }
+}
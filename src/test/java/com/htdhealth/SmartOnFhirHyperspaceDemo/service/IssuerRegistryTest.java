@@ -0,0 +1,183 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IssuerRegistryTest {
+
+    private static final String DEFAULT_ISSUER = "https://fhir.epic.com/interconnect-fhir-oauth/api/FHIR/R4";
+    private static final String OTHER_ISSUER = "https://fhir.other-ehr.org/R4";
+
+    private static FhirContext fhirContext;
+
+    @TempDir
+    Path tempDir;
+
+    private Path registryFile;
+    private IssuerRegistry issuerRegistry;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registryFile = tempDir.resolve("issuers.json");
+        writeRegistry("other-client");
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", DEFAULT_ISSUER);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "default-client");
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", "https://fhir.epic.com/oauth2/token");
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", registryFile.toString());
+        issuerRegistry.init();
+    }
+
+    @Test
+    void resolve_RegisteredIssuer_ShouldReturnItsConfig() {
+        IssuerClient client = issuerRegistry.resolve(OTHER_ISSUER + "/");
+
+        assertEquals("other-client", client.getConfig().getClientId());
+        assertEquals("https://fhir.other-ehr.org/oauth2/token", client.getConfig().getTokenUrl());
+        assertEquals(OTHER_ISSUER, client.getConfig().getFhirBaseUrl());
+        assertEquals(5, client.getConfig().getMaxConnections());
+    }
+
+    @Test
+    void resolve_UnregisteredOrMissingIssuer_ShouldFallBackToDefault() {
+        assertEquals("default-client", issuerRegistry.resolve("https://unknown.example.org/R4").getConfig().getClientId());
+        assertEquals("default-client", issuerRegistry.resolve(null).getConfig().getClientId());
+        assertEquals(2, issuerRegistry.getAll().size());
+    }
+
+    @Test
+    void reload_ChangedIssuer_ShouldReplaceOnlyThatClient() throws Exception {
+        IssuerClient defaultClient = issuerRegistry.getDefault();
+        IssuerClient otherClient = issuerRegistry.resolve(OTHER_ISSUER);
+
+        writeRegistry("rotated-client");
+        issuerRegistry.reload();
+
+        assertSame(defaultClient, issuerRegistry.getDefault());
+        assertNotSame(otherClient, issuerRegistry.resolve(OTHER_ISSUER));
+        assertEquals("rotated-client", issuerRegistry.resolve(OTHER_ISSUER).getConfig().getClientId());
+    }
+
+    @Test
+    void closeRetired_ReplacedClient_ShouldCloseOnceItsCallsFinished() throws Exception {
+        ReflectionTestUtils.setField(issuerRegistry, "retireGraceMs", 60_000L);
+        IssuerClient otherClient = issuerRegistry.resolve(OTHER_ISSUER);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<Boolean> call = executor.submit(() -> otherClient.call(() -> await(release)));
+            while (otherClient.inFlight() < 1) {
+                Thread.onSpinWait();
+            }
+
+            writeRegistry("rotated-client");
+            issuerRegistry.reload();
+            issuerRegistry.closeRetired();
+            assertFalse(otherClient.isClosed());
+
+            release.countDown();
+            assertTrue(call.get(5, TimeUnit.SECONDS));
+            issuerRegistry.closeRetired();
+            assertTrue(otherClient.isClosed());
+            assertFalse(issuerRegistry.getDefault().isClosed());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void reload_InvalidFile_ShouldKeepCurrentRegistry() throws Exception {
+        Files.writeString(registryFile, "not json");
+        issuerRegistry.reload();
+
+        assertEquals("other-client", issuerRegistry.resolve(OTHER_ISSUER).getConfig().getClientId());
+    }
+
+    @Test
+    void call_WhenBulkheadIsFull_ShouldFailFast() throws Exception {
+        IssuerClient client = issuerRegistry.resolve(OTHER_ISSUER);
+        client.getConfig().setAcquireTimeoutMs(10);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                executor.submit(() -> client.call(() -> await(release)));
+            }
+            while (client.inFlight() < 5) {
+                Thread.onSpinWait();
+            }
+
+            assertThrows(RuntimeException.class, () -> client.call(() -> "rejected"));
+            assertEquals("default", issuerRegistry.getDefault().call(() -> "default"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void reload_InvalidOrDuplicateEntries_ShouldBeSkipped() throws Exception {
+        Files.writeString(registryFile, """
+                [
+                  {"clientId": "no-issuer", "tokenUrl": "https://fhir.other-ehr.org/oauth2/token"},
+                  {"issuer": "https://no-token-url.example.org/R4", "clientId": "no-token-url"},
+                  {"issuer": "https://no-client-id.example.org/R4", "tokenUrl": "https://no-client-id.example.org/token"},
+                  {"issuer": "%s/", "clientId": "shadow", "tokenUrl": "https://attacker.example.com/token"},
+                  {"issuer": "%s", "clientId": "other-client", "tokenUrl": "https://fhir.other-ehr.org/oauth2/token"},
+                  {"issuer": "%s", "clientId": "second-other", "tokenUrl": "https://fhir.other-ehr.org/oauth2/token"}
+                ]
+                """.formatted(DEFAULT_ISSUER, OTHER_ISSUER, OTHER_ISSUER));
+        issuerRegistry.reload();
+
+        assertEquals(2, issuerRegistry.getAll().size());
+        assertEquals("default-client", issuerRegistry.getDefault().getConfig().getClientId());
+        assertEquals("https://fhir.epic.com/oauth2/token", issuerRegistry.getDefault().getConfig().getTokenUrl());
+        assertEquals("other-client", issuerRegistry.resolve(OTHER_ISSUER).getConfig().getClientId());
+        assertEquals("default-client",
+                issuerRegistry.resolve("https://no-token-url.example.org/R4").getConfig().getClientId());
+    }
+
+    private void writeRegistry(String clientId) throws Exception {
+        Files.writeString(registryFile, """
+                [{
+                  "issuer": "%s",
+                  "clientId": "%s",
+                  "tokenUrl": "https://fhir.other-ehr.org/oauth2/token",
+                  "maxConnections": 5,
+                  "requestsPerSecond": 100
+                }]
+                """.formatted(OTHER_ISSUER, clientId));
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
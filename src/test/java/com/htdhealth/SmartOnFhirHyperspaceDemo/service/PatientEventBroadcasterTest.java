@@ -0,0 +1,157 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatientEventBroadcasterTest {
+
+    private CapturingEmitter emitter;
+    private PatientEventBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        emitter = new CapturingEmitter();
+        broadcaster = new PatientEventBroadcaster(new PatientPageRenderer()) {
+            @Override
+            SseEmitter createEmitter(long timeout) {
+                return emitter;
+            }
+        };
+        ReflectionTestUtils.setField(broadcaster, "maxSubscribers", 1);
+        ReflectionTestUtils.setField(broadcaster, "queueCapacity", 4);
+        ReflectionTestUtils.setField(broadcaster, "timeoutMs", 60_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        emitter.release.countDown();
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void onUpsert_ShouldSendPatientEventWithFragment() throws Exception {
+        broadcaster.subscribe();
+        emitter.release.countDown();
+
+        broadcaster.onUpsert(null, patient("1"));
+
+        String event = emitter.awaitEvents(1).get(0);
+        assertTrue(event.contains("event:patient"));
+        assertTrue(event.contains("patient-1"));
+    }
+
+    @Test
+    void onUpsert_SlowConsumer_ShouldCoalesceRepeatedUpsertsOfAPatient() throws Exception {
+        broadcaster.subscribe();
+        broadcaster.onUpsert(null, patient("1"));
+        emitter.awaitSendStarted();
+
+        for (int i = 0; i < 10; i++) {
+            broadcaster.onUpsert(null, patient("2"));
+        }
+        emitter.release.countDown();
+
+        List<String> events = emitter.awaitEvents(2);
+        Thread.sleep(100);
+        assertEquals(2, emitter.events.size());
+        assertTrue(events.get(1).contains("patient-2"));
+    }
+
+    @Test
+    void onUpsert_ConsumerFallingBehind_ShouldSendResyncInsteadOfBuffering() throws Exception {
+        broadcaster.subscribe();
+        broadcaster.onUpsert(null, patient("0"));
+        emitter.awaitSendStarted();
+
+        for (int i = 1; i <= 10; i++) {
+            broadcaster.onUpsert(null, patient(String.valueOf(i)));
+        }
+        emitter.release.countDown();
+
+        List<String> events = emitter.awaitEvents(2);
+        assertTrue(events.get(1).contains("event:resync"));
+    }
+
+    @Test
+    void heartbeat_DeadClient_ShouldRemoveSubscriber() throws Exception {
+        broadcaster.subscribe();
+        emitter.release.countDown();
+        emitter.failing = true;
+
+        broadcaster.heartbeat();
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (broadcaster.subscriberCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void subscribe_AboveLimit_ShouldThrow() {
+        broadcaster.subscribe();
+
+        assertThrows(IllegalStateException.class, () -> broadcaster.subscribe());
+    }
+
+    private static PatientSummary patient(String id) {
+        return PatientSearchIndexTest.patient(id, "Camila", "Lopez", "1987-09-12", "MRN-" + id);
+    }
+
+    /**
+     * Emitter that records sent events and blocks its first send until released, like a slow client.
+     */
+    private static class CapturingEmitter extends SseEmitter {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch sendStarted = new CountDownLatch(1);
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private volatile boolean failing;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            sendStarted.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            events.add(builder.build().stream()
+                    .map(part -> String.valueOf(part.getData()))
+                    .collect(Collectors.joining()));
+        }
+
+        @Override
+        public synchronized void completeWithError(Throwable ex) {
+        }
+
+        private void awaitSendStarted() throws InterruptedException {
+            assertTrue(sendStarted.await(5, TimeUnit.SECONDS));
+        }
+
+        private List<String> awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(events.size() >= count);
+            return events;
+        }
+    }
+}
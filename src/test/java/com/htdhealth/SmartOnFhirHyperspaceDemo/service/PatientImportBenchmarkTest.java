@@ -0,0 +1,75 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportJobStatus;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Batch import throughput per worker count against the local stub server, with a fixed latency per
+ * batched search standing in for the EHR. The issuer's rate limit is lifted so only the worker count,
+ * the batch size and the latency bound the rate.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PatientImportBenchmarkTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void importThroughput_PerWorkerCount() throws Exception {
+        int patients = Integer.getInteger("benchmark.importPatients", 20_000);
+        int batchSize = Integer.getInteger("benchmark.importBatchSize", 50);
+        long latencyMs = Long.getLong("benchmark.importLatencyMs", 50);
+
+        try (StubSmartServer stub = new StubSmartServer()) {
+            stub.latency(StubSmartServer.Endpoint.PATIENT_SEARCH, latencyMs);
+
+            Path registryFile = tempDir.resolve("issuers.json");
+            Files.writeString(registryFile, """
+                    [{"issuer": "%s", "clientId": "benchmark", "tokenUrl": "%s",
+                      "maxConnections": 64, "requestsPerSecond": 100000}]
+                    """.formatted(stub.fhirBaseUrl(), stub.tokenUrl()));
+
+            IssuerRegistry issuerRegistry = new IssuerRegistry(FhirContext.forR4());
+            ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+            ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "benchmark");
+            ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+            ReflectionTestUtils.setField(issuerRegistry, "registryFile", registryFile.toString());
+            issuerRegistry.init();
+
+            BackendTokenService backendTokenService = mock(BackendTokenService.class);
+            when(backendTokenService.isConfigured()).thenReturn(true);
+            when(backendTokenService.getAccessToken()).thenReturn("backend-token");
+
+            System.out.printf("Importing %d patients in batches of %d, %d ms per search%n", patients, batchSize, latencyMs);
+            for (int workers : new int[]{1, 2, 4, 8, 16, 32}) {
+                PatientStore store = new PatientStore(new DefaultListableBeanFactory().getBeanProvider(PatientStoreListener.class));
+                PatientImportService service = PatientImportServiceTest.importService(
+                        issuerRegistry, backendTokenService, store, workers, batchSize);
+                try {
+                    ImportJobStatus submitted = service.submit(PatientImportServiceTest.ids(patients));
+                    ImportJobStatus done = PatientImportServiceTest.awaitState(service, submitted.getId(),
+                            ImportJobStatus.State.COMPLETED);
+
+                    System.out.printf("%2d workers: %,8.0f patients/s%n", workers, done.getPatientsPerSecond());
+                    assertEquals(patients, store.size());
+                } finally {
+                    service.shutdown();
+                }
+            }
+            issuerRegistry.shutdown();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportFailure;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.ImportJobStatus;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PatientImportServiceTest {
+
+    private static FhirContext fhirContext;
+
+    private StubSmartServer stub;
+    private IssuerRegistry issuerRegistry;
+    private BackendTokenService backendTokenService;
+    private PatientStore patientStore;
+    private PatientImportService patientImportService;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubSmartServer();
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "test-client");
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+        issuerRegistry.init();
+
+        backendTokenService = mock(BackendTokenService.class);
+        when(backendTokenService.isConfigured()).thenReturn(true);
+        when(backendTokenService.getAccessToken()).thenReturn("backend-token");
+
+        patientStore = new PatientStore(new DefaultListableBeanFactory().getBeanProvider(PatientStoreListener.class));
+        patientImportService = importService(issuerRegistry, backendTokenService, patientStore, 2, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        patientImportService.shutdown();
+        issuerRegistry.shutdown();
+        stub.close();
+    }
+
+    static PatientImportService importService(IssuerRegistry issuerRegistry, BackendTokenService backendTokenService,
+                                              PatientStore patientStore, int workers, int batchSize) {
+        FhirService fhirService = new FhirService(new RequestCoalescer(), issuerRegistry, new HedgedCaller());
+        PatientImportService service = new PatientImportService(fhirService, backendTokenService, patientStore,
+                mock(AuditTrail.class));
+        ReflectionTestUtils.setField(service, "workers", workers);
+        ReflectionTestUtils.setField(service, "batchSize", batchSize);
+        ReflectionTestUtils.setField(service, "maxIdsPerJob", 1_000_000);
+        ReflectionTestUtils.setField(service, "maxBatchAttempts", 10);
+        ReflectionTestUtils.setField(service, "maxConsecutiveBatchErrors", 3);
+        ReflectionTestUtils.setField(service, "maxReportedFailures", 1000);
+        service.start();
+        return service;
+    }
+
+    @Test
+    void submit_ShouldImportFoundPatientsInBatchesAndReportMissingOnes() throws Exception {
+        List<String> ids = ids(47);
+        ids.add("missing-1");
+        ids.add("missing-2");
+        ids.add("p-0");
+
+        ImportJobStatus queued = patientImportService.submit(ids);
+        ImportJobStatus done = awaitState(queued.getId(), ImportJobStatus.State.COMPLETED);
+
+        assertEquals(49, done.getTotal());
+        assertEquals(47, done.getImported());
+        assertEquals(2, done.getFailed());
+        assertEquals(49, done.getProcessed());
+        assertTrue(done.getPatientsPerSecond() > 0);
+        assertEquals(47, patientStore.size());
+        assertEquals(5, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        assertEquals(List.of(ImportFailure.of("missing-1", "Not found"), ImportFailure.of("missing-2", "Not found")),
+                patientImportService.getFailures(queued.getId()).orElseThrow());
+    }
+
+    @Test
+    void cancelAndResume_ShouldImportEveryBatchExactlyOnce() throws Exception {
+        stub.latency(StubSmartServer.Endpoint.PATIENT_SEARCH, 50);
+        ImportJobStatus queued = patientImportService.submit(ids(300));
+
+        awaitProgress(queued.getId(), 20);
+        patientImportService.cancel(queued.getId());
+        ImportJobStatus cancelled = awaitState(queued.getId(), ImportJobStatus.State.CANCELLED);
+        assertTrue(cancelled.getImported() < 300);
+        assertEquals(0, cancelled.getImported() % 10);
+        assertThrows(IllegalStateException.class, () -> patientImportService.cancel(queued.getId()));
+
+        patientImportService.resume(queued.getId());
+        ImportJobStatus done = awaitState(queued.getId(), ImportJobStatus.State.COMPLETED);
+
+        assertEquals(300, done.getImported());
+        assertEquals(300, patientStore.size());
+        assertEquals(30, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+    }
+
+    @Test
+    void cancel_QueuedJob_ShouldNeverRun() throws Exception {
+        stub.latency(StubSmartServer.Endpoint.PATIENT_SEARCH, 50);
+        ImportJobStatus first = patientImportService.submit(ids(100));
+        ImportJobStatus second = patientImportService.submit(List.of("q-1", "q-2"));
+
+        assertEquals(ImportJobStatus.State.CANCELLED, patientImportService.cancel(second.getId()).orElseThrow().getState());
+        awaitState(first.getId(), ImportJobStatus.State.COMPLETED);
+
+        assertTrue(patientStore.findById("q-1").isEmpty());
+    }
+
+    @Test
+    void upstreamOutage_ShouldFailJobAndResumeAfterRecovery() throws Exception {
+        stub.errorRate(StubSmartServer.Endpoint.PATIENT_SEARCH, 1.0);
+        ImportJobStatus queued = patientImportService.submit(ids(100));
+
+        ImportJobStatus failed = awaitState(queued.getId(), ImportJobStatus.State.FAILED);
+        assertTrue(failed.getBatchErrors() >= 3);
+        assertNotNull(failed.getLastError());
+        assertEquals(0, failed.getImported());
+
+        stub.errorRate(StubSmartServer.Endpoint.PATIENT_SEARCH, 0.0);
+        patientImportService.resume(queued.getId());
+        ImportJobStatus done = awaitState(queued.getId(), ImportJobStatus.State.COMPLETED);
+
+        assertEquals(100, done.getImported());
+        assertEquals(0, done.getFailed());
+    }
+
+    @Test
+    void resume_BatchesOutOfAttempts_ShouldBeRetriedAndTakenOffFailures() throws Exception {
+        ReflectionTestUtils.setField(patientImportService, "maxBatchAttempts", 1);
+        stub.errorRate(StubSmartServer.Endpoint.PATIENT_SEARCH, 1.0);
+        ImportJobStatus queued = patientImportService.submit(ids(100));
+
+        ImportJobStatus failed = awaitState(queued.getId(), ImportJobStatus.State.FAILED);
+        assertTrue(failed.getFailed() >= 30);
+        assertEquals(failed.getFailed(), patientImportService.getFailures(queued.getId()).orElseThrow().size());
+
+        stub.errorRate(StubSmartServer.Endpoint.PATIENT_SEARCH, 0.0);
+        patientImportService.resume(queued.getId());
+        ImportJobStatus done = awaitState(queued.getId(), ImportJobStatus.State.COMPLETED);
+
+        assertEquals(100, done.getImported());
+        assertEquals(0, done.getFailed());
+        assertEquals(List.of(), patientImportService.getFailures(queued.getId()).orElseThrow());
+    }
+
+    @Test
+    void submit_InvalidRequests_ShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> patientImportService.submit(List.of(" ", "")));
+
+        when(backendTokenService.isConfigured()).thenReturn(false);
+        assertThrows(IllegalStateException.class, () -> patientImportService.submit(List.of("p-1")));
+    }
+
+    @Test
+    void parseIds_ShouldReadLinesAndFirstCsvColumn() {
+        String file = "# patients to import\np-1\r\n\n p-2 ,Lopez,1987-09-12\np-3";
+
+        assertEquals(List.of("p-1", "p-2", "p-3"), PatientImportService.parseIds(file));
+    }
+
+    static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add("p-" + i);
+        }
+        return ids;
+    }
+
+    private void awaitProgress(String jobId, int processed) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (patientImportService.getStatus(jobId).orElseThrow().getProcessed() < processed) {
+            assertTrue(System.nanoTime() < deadline, "job made no progress");
+            Thread.sleep(5);
+        }
+    }
+
+    static ImportJobStatus awaitState(PatientImportService service, String jobId, ImportJobStatus.State state)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        ImportJobStatus status = service.getStatus(jobId).orElseThrow();
+        while (status.getState() != state) {
+            assertTrue(System.nanoTime() < deadline, "job is still " + status.getState());
+            Thread.sleep(10);
+            status = service.getStatus(jobId).orElseThrow();
+        }
+        return status;
+    }
+
+    private ImportJobStatus awaitState(String jobId, ImportJobStatus.State state) throws InterruptedException {
+        return awaitState(patientImportService, jobId, state);
+    }
+}
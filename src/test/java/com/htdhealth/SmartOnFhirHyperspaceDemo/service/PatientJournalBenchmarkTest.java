@@ -0,0 +1,95 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Import throughput of the journaled patient store per fsync policy, and the time to reload the store
+ * from the journal and from a compacted snapshot, at one million patients.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PatientJournalBenchmarkTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void importAndReload_AtOneMillionPatients() throws Exception {
+        int patients = Integer.getInteger("benchmark.journalPatients", 1_000_000);
+        int alwaysPatients = Integer.getInteger("benchmark.journalFsyncPatients", 10_000);
+
+        importPatients(directory.resolve("always"), PatientJournal.FsyncPolicy.ALWAYS, alwaysPatients);
+        importPatients(directory.resolve("batched"), PatientJournal.FsyncPolicy.BATCHED, patients);
+        Path journal = directory.resolve("off");
+        importPatients(journal, PatientJournal.FsyncPolicy.OFF, patients);
+
+        System.out.printf("Journal of %d patients: %.1f MB%n", patients, directorySize(journal) / 1_048_576.0);
+
+        long start = System.nanoTime();
+        Opened reopened = open(journal, PatientJournal.FsyncPolicy.OFF);
+        System.out.printf("Reloaded %d patients from the journal in %d ms%n",
+                reopened.store.size(), (System.nanoTime() - start) / 1_000_000);
+        assertEquals(patients, reopened.store.size());
+
+        start = System.nanoTime();
+        reopened.journal.compact();
+        System.out.printf("Compacted into a %.1f MB snapshot in %d ms%n",
+                Files.size(journal.resolve(PatientJournal.SNAPSHOT_FILE)) / 1_048_576.0, (System.nanoTime() - start) / 1_000_000);
+        reopened.journal.close();
+
+        start = System.nanoTime();
+        Opened fromSnapshot = open(journal, PatientJournal.FsyncPolicy.OFF);
+        System.out.printf("Reloaded %d patients from the snapshot in %d ms%n",
+                fromSnapshot.store.size(), (System.nanoTime() - start) / 1_000_000);
+        fromSnapshot.journal.close();
+        assertEquals(patients, fromSnapshot.store.size());
+    }
+
+    private static void importPatients(Path journalDirectory, PatientJournal.FsyncPolicy fsyncPolicy, int count) {
+        Opened opened = open(journalDirectory, fsyncPolicy);
+        LocalDate epoch = LocalDate.of(1930, 1, 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            PatientSummary patient = PatientSearchIndexTest.patient(String.valueOf(i), "Camila" + (i % 1000),
+                    "Lopez" + (i % 7919), epoch.plusDays(i % 33_000).toString(), "MRN-" + i);
+            opened.store.save(patient);
+        }
+        opened.journal.flush();
+        long nanos = System.nanoTime() - start;
+        opened.journal.close();
+
+        System.out.printf("fsync %s: imported %d patients in %d ms (%.0f imports/s)%n",
+                fsyncPolicy, count, nanos / 1_000_000, count / (nanos / 1_000_000_000.0));
+    }
+
+    private static Opened open(Path journalDirectory, PatientJournal.FsyncPolicy fsyncPolicy) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        PatientStore store = new PatientStore(beanFactory.getBeanProvider(PatientStoreListener.class));
+        PatientJournal journal = PatientJournalTest.journal(store, journalDirectory, fsyncPolicy, Long.MAX_VALUE);
+        beanFactory.registerSingleton("patientJournal", journal);
+        journal.afterSingletonsInstantiated();
+        return new Opened(store, journal);
+    }
+
+    private static long directorySize(Path path) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private record Opened(PatientStore store, PatientJournal journal) {
+    }
+}
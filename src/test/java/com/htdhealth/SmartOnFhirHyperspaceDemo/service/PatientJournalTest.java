@@ -0,0 +1,193 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatientJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<PatientJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        journals.forEach(PatientJournal::close);
+    }
+
+    @Test
+    void restart_ShouldRestoreStoredPatientsInOrder() {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+        PatientSummary first = PatientSearchIndexTest.patient("1", "Camila", "López", "1987-09-12", "MRN-1")
+                .toBuilder().versionId("3").lastUpdated(Instant.parse("2024-05-01T10:15:30.123Z")).build();
+        store.save(first);
+        store.save(PatientSearchIndexTest.patient("2", "Derrick", "Lin", "1973-06-03", "MRN-2"));
+        journals.get(0).close();
+
+        PatientStore restored = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+
+        assertEquals(List.of("1", "2"), restored.ids());
+        assertEquals(first, restored.findById("1").orElseThrow());
+    }
+
+    @Test
+    void restart_ShouldKeepLatestVersionOfUpsertedPatient() {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.OFF);
+        PatientSummary original = PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1");
+        store.save(original);
+        store.save(original.toBuilder().displayName("Camila Lopez-Garcia").build());
+        journals.get(0).close();
+
+        assertEquals("Camila Lopez-Garcia", openStore(PatientJournal.FsyncPolicy.OFF)
+                .findById("1").orElseThrow().getDisplayName());
+    }
+
+    @Test
+    void restart_TornRecordAtTail_ShouldBeTruncated() throws Exception {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+        store.save(PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1"));
+        store.save(PatientSearchIndexTest.patient("2", "Derrick", "Lin", "1973-06-03", "MRN-2"));
+        journals.get(0).close();
+
+        Path segment = segments().get(0);
+        long intactSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(intactSize - 5);
+        }
+
+        PatientStore restored = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+
+        assertEquals(List.of("1"), restored.ids());
+        restored.save(PatientSearchIndexTest.patient("3", "Elijah", "Davis", "1990-01-01", "MRN-3"));
+        journals.get(1).close();
+        assertEquals(List.of("1", "3"), openStore(PatientJournal.FsyncPolicy.ALWAYS).ids());
+    }
+
+    @Test
+    void compact_ShouldReplaceOldSegmentsWithSnapshot() throws Exception {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.BATCHED);
+        for (int i = 0; i < 10; i++) {
+            store.save(PatientSearchIndexTest.patient(String.valueOf(i), "Camila", "Lopez", "1987-09-12", "MRN-" + i));
+        }
+        journals.get(0).compact();
+        store.save(PatientSearchIndexTest.patient("10", "Derrick", "Lin", "1973-06-03", "MRN-10"));
+        journals.get(0).close();
+
+        assertTrue(Files.exists(directory.resolve(PatientJournal.SNAPSHOT_FILE)));
+        assertEquals(1, segments().size());
+
+        PatientStore restored = openStore(PatientJournal.FsyncPolicy.BATCHED);
+        assertEquals(11, restored.size());
+        assertEquals("Derrick Lin", restored.findById("10").orElseThrow().getDisplayName());
+    }
+
+    @Test
+    void restart_ShouldNotAppendReplayedRecordsAgain() throws Exception {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+        store.save(PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1"));
+        journals.get(0).close();
+        long size = Files.size(segments().get(0));
+
+        openStore(PatientJournal.FsyncPolicy.ALWAYS);
+        journals.get(1).close();
+
+        assertEquals(size, Files.size(segments().get(0)));
+    }
+
+    @Test
+    void save_FailingListener_ShouldStillJournalAndRethrow() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        PatientStore store = new PatientStore(beanFactory.getBeanProvider(PatientStoreListener.class));
+        beanFactory.registerSingleton("failingListener", (PatientStoreListener) (previous, current) -> {
+            throw new IllegalStateException("listener failed");
+        });
+        PatientJournal journal = journal(store, directory, PatientJournal.FsyncPolicy.ALWAYS, 1_000_000);
+        beanFactory.registerSingleton("patientJournal", journal);
+        journal.afterSingletonsInstantiated();
+        journals.add(journal);
+
+        assertThrows(IllegalStateException.class, () -> store.save(
+                PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1")));
+        journal.close();
+
+        assertEquals(List.of("1"), openStore(PatientJournal.FsyncPolicy.ALWAYS).ids());
+    }
+
+    @Test
+    void save_FailedAppend_ShouldFailThatSaveAndKeepLaterAppendsReplayable() throws Exception {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+        PatientJournal journal = journals.get(0);
+        store.save(PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1"));
+
+        FileChannel writable = (FileChannel) ReflectionTestUtils.getField(journal, "segment");
+        ReflectionTestUtils.setField(journal, "segment", FileChannel.open(segments().get(0), StandardOpenOption.READ));
+        writable.close();
+
+        assertThrows(UncheckedIOException.class, () -> store.save(
+                PatientSearchIndexTest.patient("2", "Derrick", "Lin", "1973-06-03", "MRN-2")));
+        store.save(PatientSearchIndexTest.patient("3", "Elijah", "Davis", "1990-01-01", "MRN-3"));
+        journal.close();
+
+        assertEquals(2, segments().size());
+        assertEquals(List.of("1", "3"), openStore(PatientJournal.FsyncPolicy.ALWAYS).ids());
+    }
+
+    @Test
+    void versionTag_ShouldChangeOnSaveAndAcrossRestarts() {
+        PatientStore store = openStore(PatientJournal.FsyncPolicy.ALWAYS);
+        String empty = store.versionTag();
+        store.save(PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1"));
+        String saved = store.versionTag();
+        journals.get(0).close();
+
+        assertNotEquals(empty, saved);
+        assertEquals(saved, store.versionTag());
+        assertNotEquals(saved, openStore(PatientJournal.FsyncPolicy.ALWAYS).versionTag());
+    }
+
+    /**
+     * Wires a store to a journal in the temp directory the way the application context does, and replays it.
+     */
+    private PatientStore openStore(PatientJournal.FsyncPolicy fsyncPolicy) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        PatientStore store = new PatientStore(beanFactory.getBeanProvider(PatientStoreListener.class));
+        PatientJournal journal = journal(store, directory, fsyncPolicy, 1_000_000);
+        beanFactory.registerSingleton("patientJournal", journal);
+
+        journal.afterSingletonsInstantiated();
+        journals.add(journal);
+        return store;
+    }
+
+    static PatientJournal journal(PatientStore store, Path directory, PatientJournal.FsyncPolicy fsyncPolicy,
+                                  long compactAfterRecords) {
+        PatientJournal journal = new PatientJournal(store);
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "fsyncPolicy", fsyncPolicy);
+        ReflectionTestUtils.setField(journal, "compactAfterRecords", compactAfterRecords);
+        return journal;
+    }
+
+    private List<Path> segments() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+}
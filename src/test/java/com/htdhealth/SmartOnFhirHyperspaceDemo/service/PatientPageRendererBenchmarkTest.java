@@ -0,0 +1,134 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Time to produce the {@code /patients/all} page at ten thousand stored patients, rendering every patient
+ * per request as the controller used to versus writing the renderer's cached fragments, and the bytes on
+ * the wire and CPU time of a browser refresh with and without gzip and conditional GET.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PatientPageRendererBenchmarkTest {
+
+    @Test
+    void renderList_AtTenThousandPatients_ShouldBeFasterThanRenderingPerRequest() throws Exception {
+        int patientCount = Integer.getInteger("benchmark.pagePatients", 10_000);
+        List<PatientSummary> patients = patients(patientCount);
+        PatientPageRenderer renderer = new PatientPageRenderer();
+        OutputStream sink = OutputStream.nullOutputStream();
+
+        double perRequestMillis = averageMillis(() -> sink.write(renderPerRequest(patients).getBytes(StandardCharsets.UTF_8)));
+        double cachedMillis = averageMillis(() -> renderer.renderList(patients).writeTo(sink));
+
+        System.out.printf("%d patients, page size %.1f KB: per-request rendering %.2f ms, cached fragments %.2f ms (%.1fx)%n",
+                patientCount, renderer.renderList(patients).getContentLength() / 1024.0,
+                perRequestMillis, cachedMillis, perRequestMillis / cachedMillis);
+
+        assertTrue(cachedMillis < perRequestMillis);
+    }
+
+    @Test
+    void refresh_AtTenThousandPatients_ShouldSendLessWithGzipAndNotModified() throws Exception {
+        int patientCount = Integer.getInteger("benchmark.pagePatients", 10_000);
+        List<PatientSummary> patients = patients(patientCount);
+        PatientPageRenderer renderer = new PatientPageRenderer();
+        PatientStore store = new PatientStore(new DefaultListableBeanFactory().getBeanProvider(PatientStoreListener.class));
+        patients.forEach(store::save);
+        String etag = "W/\"" + store.versionTag() + "\"";
+
+        long plainBytes = renderer.renderList(store.findAll()).getContentLength();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            renderer.renderList(store.findAll()).writeTo(gzip);
+        }
+        long gzipBytes = compressed.size();
+
+        OutputStream sink = OutputStream.nullOutputStream();
+        double plainCpuMillis = averageCpuMillis(() -> renderer.renderList(store.findAll()).writeTo(sink));
+        double gzipCpuMillis = averageCpuMillis(() -> {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(OutputStream.nullOutputStream())) {
+                renderer.renderList(store.findAll()).writeTo(gzip);
+            }
+        });
+        double notModifiedCpuMillis = averageCpuMillis(() -> {
+            if (!etag.equals("W/\"" + store.versionTag() + "\"")) {
+                renderer.renderList(store.findAll()).writeTo(sink);
+            }
+        });
+
+        System.out.printf("%d patients per refresh: plain %.1f KB %.3f ms CPU, gzip %.1f KB %.3f ms CPU, "
+                        + "304 0 KB body %.4f ms CPU%n", patientCount, plainBytes / 1024.0, plainCpuMillis,
+                gzipBytes / 1024.0, gzipCpuMillis, notModifiedCpuMillis);
+
+        assertTrue(gzipBytes < plainBytes / 4);
+        assertTrue(notModifiedCpuMillis < plainCpuMillis);
+    }
+
+    private static List<PatientSummary> patients(int patientCount) {
+        List<PatientSummary> patients = new ArrayList<>(patientCount);
+        for (int i = 0; i < patientCount; i++) {
+            patients.add(PatientSearchIndexTest.patient(String.valueOf(i), "Camila" + i, "López",
+                    LocalDate.of(1930, 1, 1).plusDays(i).toString(), "MRN-" + i));
+        }
+        return patients;
+    }
+
+    /**
+     * The rendering the controller did before fragments were cached: every patient formatted into one String.
+     */
+    private static String renderPerRequest(List<PatientSummary> patients) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html>...");
+        for (PatientSummary patient : patients) {
+            html.append(PatientPageRenderer.renderFragment(patient));
+        }
+        html.append("</html>");
+        return html.toString();
+    }
+
+    private static double averageMillis(Page page) throws IOException {
+        for (int i = 0; i < 50; i++) {
+            page.write();
+        }
+        int iterations = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            page.write();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / iterations;
+    }
+
+    private static double averageCpuMillis(Page page) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < 50; i++) {
+            page.write();
+        }
+        int iterations = 200;
+        long start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            page.write();
+        }
+        return (threads.getCurrentThreadCpuTime() - start) / 1_000_000.0 / iterations;
+    }
+
+    @FunctionalInterface
+    private interface Page {
+        void write() throws IOException;
+    }
+}
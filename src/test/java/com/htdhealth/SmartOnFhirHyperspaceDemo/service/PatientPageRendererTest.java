@@ -0,0 +1,81 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatientPageRendererTest {
+
+    private PatientPageRenderer renderer;
+
+    @BeforeEach
+    void setUp() {
+        renderer = new PatientPageRenderer();
+    }
+
+    @Test
+    void renderList_ShouldContainEveryPatientInOrderWithExactContentLength() throws Exception {
+        List<PatientSummary> patients = List.of(
+                PatientSearchIndexTest.patient("1", "Camila", "López", "1987-09-12", "MRN-1"),
+                PatientSearchIndexTest.patient("2", "Derrick", "Lin", "1973-06-03", "MRN-2"));
+
+        PatientPageRenderer.RenderedPage page = renderer.renderList(patients);
+        byte[] bytes = write(page);
+        String html = new String(bytes, StandardCharsets.UTF_8);
+
+        assertEquals(page.getContentLength(), bytes.length);
+        assertTrue(html.startsWith("<!DOCTYPE html>"));
+        assertTrue(html.indexOf("Camila López") < html.indexOf("Derrick Lin"));
+        assertTrue(html.contains("1987-09-12"));
+        assertTrue(html.contains("Female"));
+        assertTrue(html.endsWith("</html>\n"));
+    }
+
+    @Test
+    void renderList_UnchangedPatient_ShouldReuseCachedFragment() throws Exception {
+        PatientSummary patient = PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1");
+
+        byte[] first = write(renderer.renderList(List.of(patient)));
+        byte[] second = write(renderer.renderList(List.of(patient)));
+
+        assertArrayEquals(first, second);
+        assertEquals(1, renderer.cachedFragments());
+    }
+
+    @Test
+    void onUpsert_ShouldInvalidateFragment() throws Exception {
+        PatientSummary original = PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1");
+        renderer.renderList(List.of(original));
+
+        PatientSummary renamed = original.toBuilder().displayName("Camila Lopez-Garcia").build();
+        renderer.onUpsert(original, renamed);
+        assertEquals(0, renderer.cachedFragments());
+
+        String html = new String(write(renderer.renderList(List.of(renamed))), StandardCharsets.UTF_8);
+        assertTrue(html.contains("Camila Lopez-Garcia"));
+    }
+
+    @Test
+    void renderList_StaleSnapshot_ShouldNotServeFragmentOfReplacedSummary() throws Exception {
+        PatientSummary original = PatientSearchIndexTest.patient("1", "Camila", "Lopez", "1987-09-12", "MRN-1");
+        PatientSummary renamed = original.toBuilder().displayName("Camila Lopez-Garcia").build();
+
+        renderer.onUpsert(original, renamed);
+        renderer.renderList(List.of(original));
+
+        String html = new String(write(renderer.renderList(List.of(renamed))), StandardCharsets.UTF_8);
+        assertTrue(html.contains("Camila Lopez-Garcia"));
+    }
+
+    private static byte[] write(PatientPageRenderer.RenderedPage page) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        page.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Query latency of the patient search index at one million stored patients.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PatientSearchIndexBenchmarkTest {
+
+    private static final String[] GIVEN = {"Camila", "Derrick", "Elijah", "Warren", "Olivia", "Amir", "Sofía",
+            "Nguyen", "Henry", "Aaliyah", "Theodore", "Marisol", "Kenji", "Fatima", "Liam", "Zoë"};
+    private static final String[] FAMILY = {"Lopez", "Lin", "Davis", "McGinnis", "Smith", "Okafor", "Müller",
+            "Tanaka", "Garcia", "Johnson", "Kowalski", "Andersson", "Haddad", "Ivanova", "O'Brien", "Patel"};
+
+    @Test
+    void search_AtOneMillionPatients_ShouldAnswerInSubMillisecond() {
+        int patients = Integer.getInteger("benchmark.patients", 1_000_000);
+        PatientSearchIndex index = new PatientSearchIndex();
+        Random random = new Random(42);
+
+        long indexStart = System.nanoTime();
+        for (int i = 0; i < patients; i++) {
+            String given = GIVEN[random.nextInt(GIVEN.length)] + (char) ('a' + random.nextInt(26));
+            String family = FAMILY[random.nextInt(FAMILY.length)] + random.nextInt(1000);
+            String birthDate = LocalDate.of(1930, 1, 1).plusDays(random.nextInt(33_000)).toString();
+            index.onUpsert(null, PatientSearchIndexTest.patient(String.valueOf(i), given, family, birthDate, "MRN-" + i));
+        }
+        long indexMillis = (System.nanoTime() - indexStart) / 1_000_000;
+
+        PatientSearchIndex.Stats stats = index.stats();
+        System.out.printf("Indexed %d patients in %d ms, %d name tokens, estimated index size %.1f MB%n",
+                stats.getPatients(), indexMillis, stats.getNameTokens(), stats.getEstimatedBytes() / 1_048_576.0);
+
+        double namePrefix = averageMicros(() -> index.search("lopez12", null, null, null, 50));
+        double twoPrefixes = averageMicros(() -> index.search("cam lop", null, null, null, 50));
+        double identifier = averageMicros(() -> index.search(null, "MRN-" + random.nextInt(patients), null, null, 50));
+        double birthRange = averageMicros(() -> index.search(null, null,
+                LocalDate.of(1987, 9, 1), LocalDate.of(1987, 9, 30), 50));
+
+        System.out.printf("name prefix %.1f us, two prefixes %.1f us, identifier %.1f us, birth date range %.1f us%n",
+                namePrefix, twoPrefixes, identifier, birthRange);
+
+        assertTrue(namePrefix < 1_000);
+        assertTrue(identifier < 1_000);
+        assertTrue(birthRange < 1_000);
+    }
+
+    private static double averageMicros(Runnable query) {
+        for (int i = 0; i < 2_000; i++) {
+            query.run();
+        }
+        int iterations = 10_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            query.run();
+        }
+        return (System.nanoTime() - start) / 1_000.0 / iterations;
+    }
+}
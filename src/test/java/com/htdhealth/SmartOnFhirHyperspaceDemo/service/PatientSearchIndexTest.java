@@ -0,0 +1,116 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientIdentifier;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PatientSearchIndexTest {
+
+    private PatientSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new PatientSearchIndex();
+        index.onUpsert(null, patient("1", "Camila", "López", "1987-09-12", "MRN-1"));
+        index.onUpsert(null, patient("2", "Derrick", "Lin", "1973-06-03", "MRN-2"));
+        index.onUpsert(null, patient("3", "Camden", "Lopes", "2001-01-20", "MRN-3"));
+    }
+
+    @Test
+    void search_ByNamePrefix_ShouldIgnoreCaseAndDiacritics() {
+        List<PatientSummary> results = index.search("LOP", null, null, null, 10);
+
+        assertEquals(List.of("1", "3"), ids(results).stream().sorted().toList());
+    }
+
+    @Test
+    void search_ByMultipleNamePrefixes_ShouldRequireAllOfThem() {
+        List<PatientSummary> results = index.search("cam lopez", null, null, null, 10);
+
+        assertEquals(List.of("1"), ids(results));
+    }
+
+    @Test
+    void search_ByIdentifier_ShouldMatchValueOrSystemAndValue() {
+        assertEquals(List.of("2"), ids(index.search(null, "MRN-2", null, null, 10)));
+        assertEquals(List.of("2"), ids(index.search(null, "urn:mrn|MRN-2", null, null, 10)));
+        assertTrue(index.search(null, "MRN", null, null, 10).isEmpty());
+    }
+
+    @Test
+    void search_ByBirthDateRange_ShouldBeInclusive() {
+        List<PatientSummary> results = index.search(null, null,
+                LocalDate.of(1973, 6, 3), LocalDate.of(1987, 9, 12), 10);
+
+        assertEquals(List.of("1", "2"), ids(results).stream().sorted().toList());
+    }
+
+    @Test
+    void search_BirthDateFromAfterTo_ShouldReturnNothing() {
+        assertTrue(index.search(null, null, LocalDate.of(1987, 9, 12), LocalDate.of(1973, 6, 3), 10).isEmpty());
+        assertTrue(index.search("camila", null, LocalDate.of(1990, 1, 1), LocalDate.of(1980, 1, 1), 10).isEmpty());
+    }
+
+    @Test
+    void search_ByNameAndNarrowBirthDate_ShouldEnumerateBirthDateAndCheckName() {
+        for (int i = 10; i < 60; i++) {
+            index.onUpsert(null, patient(String.valueOf(i), "Camila", "Lopez", "1950-01-01", "MRN-" + i));
+        }
+
+        assertEquals(List.of("1"), ids(index.search("camila", null,
+                LocalDate.of(1987, 9, 12), LocalDate.of(1987, 9, 12), 10)));
+        assertTrue(index.search("derrick", null, LocalDate.of(1987, 9, 12), LocalDate.of(1987, 9, 12), 10).isEmpty());
+        assertTrue(index.search("derrick", "MRN-1", null, null, 10).isEmpty());
+    }
+
+    @Test
+    void search_WithLimit_ShouldStopEarly() {
+        assertEquals(1, index.search("ca", null, null, null, 1).size());
+    }
+
+    @Test
+    void onUpsert_ReplacingPatient_ShouldDropStaleEntries() {
+        PatientSummary previous = patient("2", "Derrick", "Lin", "1973-06-03", "MRN-2");
+        index.onUpsert(previous, patient("2", "Derrick", "Linden", "1973-06-03", "MRN-22"));
+
+        assertEquals(List.of("2"), ids(index.search("linden", null, null, null, 10)));
+        assertTrue(index.search(null, "MRN-2", null, null, 10).isEmpty());
+        assertEquals(3, index.stats().getPatients());
+    }
+
+    @Test
+    void search_WithoutCriteria_ShouldReturnNothing() {
+        assertTrue(index.search(" ", null, null, null, 10).isEmpty());
+    }
+
+    @Test
+    void stats_ShouldReportEstimatedMemory() {
+        PatientSearchIndex.Stats stats = index.stats();
+
+        assertEquals(3, stats.getPatients());
+        assertEquals(6, stats.getNameTokens());
+        assertTrue(stats.getEstimatedBytes() > 0);
+    }
+
+    static PatientSummary patient(String id, String given, String family, String birthDate, String mrn) {
+        return PatientSummary.builder()
+                .id(id)
+                .displayName(given + " " + family)
+                .givenName(given)
+                .familyName(family)
+                .birthDate(LocalDate.parse(birthDate))
+                .gender("female")
+                .identifier(PatientIdentifier.of("urn:mrn", mrn))
+                .build();
+    }
+
+    private static List<String> ids(List<PatientSummary> summaries) {
+        return summaries.stream().map(PatientSummary::getId).toList();
+    }
+}
@@ -0,0 +1,253 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.controller.SubscriptionController;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Subscription registration and notification handling against the stub server, which sends its
+ * notifications to a local receiver in front of {@link SubscriptionController}.
+ */
+class PatientSubscriptionServiceTest {
+
+    private static FhirContext fhirContext;
+
+    private StubSmartServer stub;
+    private HttpServer receiver;
+    private IssuerRegistry issuerRegistry;
+    private FhirService fhirService;
+    private BackendTokenService backendTokenService;
+    private PatientStore patientStore;
+    private AuditTrail auditTrail;
+    private PatientSubscriptionService subscriptionService;
+    private SubscriptionNotificationService notificationService;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubSmartServer();
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "test-client");
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+        issuerRegistry.init();
+
+        fhirService = new FhirService(new RequestCoalescer(), issuerRegistry, new HedgedCaller());
+        backendTokenService = mock(BackendTokenService.class);
+        when(backendTokenService.isConfigured()).thenReturn(true);
+        when(backendTokenService.getAccessToken()).thenReturn("backend-token");
+        when(backendTokenService.getClientId()).thenReturn("backend-client");
+        auditTrail = mock(AuditTrail.class);
+
+        receiver = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        receiver.start();
+        subscriptionService = subscriptionService(true, 2);
+
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("patientSubscriptionService", subscriptionService);
+        patientStore = new PatientStore(beanFactory.getBeanProvider(PatientStoreListener.class));
+
+        useSubscriptionService(subscriptionService);
+        receiver.createContext("/hook", exchange -> {
+            SubscriptionController controller = new SubscriptionController(notificationService, fhirContext);
+            ReflectionTestUtils.setField(controller, "retryAfterSeconds", 5);
+            try (exchange) {
+                String token = exchange.getRequestHeaders().getFirst(PatientSubscriptionService.TOKEN_HEADER);
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                String path = exchange.getRequestURI().getPath();
+                ResponseEntity<?> response = "PUT".equals(exchange.getRequestMethod())
+                        ? controller.patientUpdate(token, path.substring(path.lastIndexOf('/') + 1), body)
+                        : controller.notification(token, body);
+                exchange.sendResponseHeaders(response.getStatusCode().value(), -1);
+                try (OutputStream ignored = exchange.getResponseBody()) {
+                    // no body
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        notificationService.shutdown();
+        receiver.stop(0);
+        issuerRegistry.shutdown();
+        stub.close();
+    }
+
+    private void useSubscriptionService(PatientSubscriptionService service) {
+        if (notificationService != null) {
+            notificationService.shutdown();
+        }
+        subscriptionService = service;
+        notificationService = new SubscriptionNotificationService(service, fhirService, backendTokenService, patientStore,
+                auditTrail);
+        ReflectionTestUtils.setField(notificationService, "workers", 1);
+        ReflectionTestUtils.setField(notificationService, "queueCapacity", 1);
+        ReflectionTestUtils.setField(notificationService, "overlapMs", 60_000L);
+        notificationService.start();
+    }
+
+    private PatientSubscriptionService subscriptionService(boolean fullResourcePayload, int batchSize) {
+        PatientSubscriptionService service = new PatientSubscriptionService(fhirService, backendTokenService);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "endpoint",
+                "http://localhost:" + receiver.getAddress().getPort() + "/hook");
+        ReflectionTestUtils.setField(service, "fullResourcePayload", fullResourcePayload);
+        ReflectionTestUtils.setField(service, "batchSize", batchSize);
+        return service;
+    }
+
+    @Test
+    void registerPending_ShouldSubscribeNewPatientsInBatchesOnce() {
+        storePatients("p1", "p2", "p3", "p4", "p5");
+
+        assertEquals(5, subscriptionService.registerPending());
+        assertEquals(3, stub.subscriptionCount());
+        assertEquals(0, subscriptionService.registerPending());
+        assertEquals(3, stub.subscriptionCount());
+    }
+
+    @Test
+    void registerPending_AfterRestart_ShouldRediscoverExistingSubscriptions() {
+        storePatients("p1", "p2", "p3");
+        subscriptionService.registerPending();
+
+        PatientSubscriptionService restarted = subscriptionService(true, 2);
+        for (String id : List.of("p1", "p2", "p3", "p4")) {
+            restarted.onUpsert(null, patient(id));
+        }
+
+        assertEquals(1, restarted.registerPending());
+        assertEquals(3, stub.subscriptionCount());
+    }
+
+    @Test
+    void fullResourceNotification_ShouldApplyNewVersionOnce() throws Exception {
+        storePatients("p1", "p2");
+        subscriptionService.registerPending();
+
+        assertEquals(List.of(200), stub.updatePatient("p1"));
+        await(() -> "2".equals(patientStore.findById("p1").orElseThrow().getVersionId()));
+
+        assertEquals(List.of(200), stub.redeliver("p1"));
+        Thread.sleep(100);
+        assertEquals(1, notificationService.applied());
+        assertEquals("1", patientStore.findById("p2").orElseThrow().getVersionId());
+    }
+
+    @Test
+    void idOnlyNotification_ShouldFetchChangedPatients() throws Exception {
+        useSubscriptionService(subscriptionService(false, 2));
+        storePatients("p1", "p2");
+        subscriptionService.onUpsert(null, patient("p1"));
+        subscriptionService.onUpsert(null, patient("p2"));
+        subscriptionService.registerPending();
+
+        assertEquals(List.of(200), stub.updatePatient("p2"));
+        await(() -> "2".equals(patientStore.findById("p2").orElseThrow().getVersionId()));
+        assertEquals(1, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        assertEquals("1", patientStore.findById("p1").orElseThrow().getVersionId());
+        verify(auditTrail, timeout(1000)).record(AuditRecord.Action.PATIENT_SUBSCRIPTION_UPDATE,
+                fhirService.getDefaultIssuer(), "backend-client", "p2", true);
+    }
+
+    @Test
+    void notification_UnknownToken_ShouldBeRejected() {
+        assertEquals(SubscriptionNotificationService.Result.UNKNOWN_SUBSCRIPTION, notificationService.onPing("bogus"));
+        assertEquals(SubscriptionNotificationService.Result.UNKNOWN_SUBSCRIPTION, notificationService.onPing(null));
+    }
+
+    @Test
+    void notification_FullQueue_ShouldAnswerBusy() {
+        useSubscriptionService(subscriptionService(false, 1));
+        storePatients("p1", "p2", "p3");
+        for (String id : List.of("p1", "p2", "p3")) {
+            subscriptionService.onUpsert(null, patient(id));
+        }
+        subscriptionService.registerPending();
+        stub.latency(StubSmartServer.Endpoint.PATIENT_SEARCH, 500);
+
+        List<Integer> statuses = new ArrayList<>();
+        for (String id : List.of("p1", "p2", "p3")) {
+            statuses.addAll(stub.updatePatient(id));
+        }
+
+        assertEquals(List.of(200, 200, 429), statuses);
+    }
+
+    @Test
+    void isNewer_ShouldCompareLastUpdatedThenVersion() {
+        PatientSummary v1 = patient("p1");
+        PatientSummary v2 = v1.toBuilder().versionId("2").lastUpdated(v1.getLastUpdated().plusSeconds(60)).build();
+
+        assertTrue(PatientStore.isNewer(null, v1));
+        assertTrue(PatientStore.isNewer(v1, v2));
+        assertFalse(PatientStore.isNewer(v2, v1));
+        assertFalse(PatientStore.isNewer(v2, v2));
+        assertTrue(PatientStore.isNewer(v1, v1.toBuilder().versionId("2").build()));
+    }
+
+    @Test
+    void saveIfNewer_OlderVersion_ShouldNotReplaceNewerOne() {
+        PatientSummary v1 = patient("p9");
+        PatientSummary v2 = v1.toBuilder().versionId("2").lastUpdated(v1.getLastUpdated().plusSeconds(60)).build();
+
+        assertTrue(patientStore.saveIfNewer(v2));
+        assertFalse(patientStore.saveIfNewer(v1));
+        assertFalse(patientStore.saveIfNewer(v2));
+        assertEquals(v2, patientStore.findById("p9").orElseThrow());
+    }
+
+    private void storePatients(String... ids) {
+        for (String id : ids) {
+            patientStore.save(patient(id));
+        }
+    }
+
+    private static PatientSummary patient(String id) {
+        return PatientSummary.builder()
+                .id(id)
+                .versionId("1")
+                .lastUpdated(Instant.parse("2024-01-01T00:00:00Z"))
+                .displayName("Camila Lopez")
+                .givenName("Camila")
+                .familyName("Lopez")
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+}
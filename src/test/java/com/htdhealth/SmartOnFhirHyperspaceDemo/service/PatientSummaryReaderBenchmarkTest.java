@@ -0,0 +1,92 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parse throughput and allocation per patient of a search page built from the Patient corpus, decoded with
+ * HAPI's parser and {@link FhirService#toSummary} versus the streaming {@link PatientSummaryReader}.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PatientSummaryReaderBenchmarkTest {
+
+    @Test
+    void parseSearchPage_StreamingShouldBeFasterAndAllocateLessThanHapi() throws Exception {
+        int patientCount = Integer.getInteger("benchmark.parsePatients", 2_000);
+        List<String> samples = new ArrayList<>(patientCount);
+        for (int i = 0; i < patientCount; i++) {
+            samples.add(PatientSummaryReaderTest.CORPUS.get(i % PatientSummaryReaderTest.CORPUS.size()));
+        }
+        byte[] page = PatientSummaryReaderTest.searchBundle(samples, null).getBytes(StandardCharsets.UTF_8);
+        FhirContext fhirContext = FhirContext.forR4();
+        FhirService fhirService = new FhirService(new RequestCoalescer(), null, new HedgedCaller());
+
+        Measurement hapi = measure(() -> {
+            List<PatientSummary> patients = new ArrayList<>(patientCount);
+            Bundle bundle = fhirContext.newJsonParser().parseResource(Bundle.class, new ByteArrayInputStream(page));
+            for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+                if (entry.getResource() instanceof Patient patient) {
+                    patients.add(fhirService.toSummary(patient));
+                }
+            }
+            return patients.size();
+        });
+        Measurement streaming = measure(() -> {
+            List<PatientSummary> patients = new ArrayList<>(patientCount);
+            PatientSummaryReader.readSearchBundle(new ByteArrayInputStream(page), patients::add);
+            return patients.size();
+        });
+
+        System.out.printf("%d patients, page size %.1f KB%n", patientCount, page.length / 1024.0);
+        System.out.printf("HAPI parser:      %,.0f patients/s, %.1f KB allocated per patient%n",
+                hapi.patientsPerSecond(), hapi.bytesPerPatient() / 1024.0);
+        System.out.printf("Streaming reader: %,.0f patients/s, %.1f KB allocated per patient (%.1fx faster, %.1fx less)%n",
+                streaming.patientsPerSecond(), streaming.bytesPerPatient() / 1024.0,
+                streaming.patientsPerSecond() / hapi.patientsPerSecond(),
+                hapi.bytesPerPatient() / streaming.bytesPerPatient());
+
+        assertTrue(streaming.patientsPerSecond() > hapi.patientsPerSecond());
+        assertTrue(streaming.bytesPerPatient() < hapi.bytesPerPatient());
+    }
+
+    private static Measurement measure(Parse parse) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 10; i++) {
+            parse.run();
+        }
+
+        int rounds = 30;
+        long patients = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            patients += parse.run();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return new Measurement(patients * 1e9 / elapsedNanos, (double) allocated / patients);
+    }
+
+    private record Measurement(double patientsPerSecond, double bytesPerPatient) {
+    }
+
+    @FunctionalInterface
+    private interface Parse {
+        int run() throws IOException;
+    }
+}
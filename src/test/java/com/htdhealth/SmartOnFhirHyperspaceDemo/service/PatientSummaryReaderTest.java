@@ -0,0 +1,186 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.PatientSummary;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The streaming reader against HAPI's parser and {@link FhirService#toSummary} on a corpus of Patient
+ * resources in {@code src/test/resources/patients}: an HL7 example, an Epic sandbox patient, a Synthea
+ * patient and samples covering partial dates, missing and text-only names, contained resources,
+ * primitive extensions and a {@code resourceType} that is not the first property.
+ */
+class PatientSummaryReaderTest {
+
+    static final List<String> CORPUS = List.of(
+            "hl7-example.json",
+            "epic-camila-lopez.json",
+            "synthea.json",
+            "partial-birth-date.json",
+            "no-name.json",
+            "text-only-first-name.json",
+            "contained-and-extensions.json",
+            "given-only.json");
+
+    private static FhirContext fhirContext;
+    private static FhirService fhirService;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+        fhirService = new FhirService(new RequestCoalescer(), null, new HedgedCaller());
+    }
+
+    @Test
+    void readPatient_ShouldMatchHapiOnCorpus() throws IOException {
+        for (String sample : CORPUS) {
+            String json = sample(sample);
+
+            assertEquals(hapiSummary(json), PatientSummaryReader.readPatient(stream(json)), sample);
+        }
+    }
+
+    @Test
+    void readPatient_ShouldReadAllSummaryFields() throws IOException {
+        PatientSummary patient = PatientSummaryReader.readPatient(stream(sample("partial-birth-date.json")));
+
+        assertEquals("pat-4471", patient.getId());
+        assertEquals("7", patient.getVersionId());
+        assertEquals(Instant.parse("2023-11-05T12:22:31.123Z"), patient.getLastUpdated());
+        assertEquals("Ola Nordmann", patient.getDisplayName());
+        assertEquals("1955-03-01", patient.getBirthDate().toString());
+        assertEquals("unknown", patient.getGender());
+        assertEquals("13031353453", patient.getIdentifiers().get(0).getValue());
+    }
+
+    @Test
+    void readPatient_OtherResource_ShouldFail() {
+        assertThrows(IOException.class, () -> PatientSummaryReader.readPatient(
+                stream("{\"resourceType\": \"Practitioner\", \"id\": \"gp\"}")));
+    }
+
+    @Test
+    void readSearchBundle_ShouldMatchHapiAndReturnNextLink() throws IOException {
+        String json = searchBundle(CORPUS, "https://fhir.example.org/Patient?_getpages=abc&_offset=8");
+
+        List<PatientSummary> expected = new ArrayList<>();
+        for (Bundle.BundleEntryComponent entry : fhirContext.newJsonParser().parseResource(Bundle.class, json).getEntry()) {
+            if (entry.getResource() instanceof Patient patient) {
+                expected.add(fhirService.toSummary(patient));
+            }
+        }
+        List<PatientSummary> read = new ArrayList<>();
+        String next = PatientSummaryReader.readSearchBundle(stream(json), read::add);
+
+        assertEquals(CORPUS.size(), read.size());
+        assertEquals(expected, read);
+        assertEquals("https://fhir.example.org/Patient?_getpages=abc&_offset=8", next);
+        assertNull(PatientSummaryReader.readSearchBundle(stream(searchBundle(CORPUS, null)), patient -> { }));
+    }
+
+    @Test
+    void searchPatientSummaries_FastPath_ShouldMatchHapiSearch() throws Exception {
+        try (StubSmartServer stub = new StubSmartServer()) {
+            IssuerRegistry issuerRegistry = new IssuerRegistry(fhirContext);
+            ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+            ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "test-client");
+            ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+            ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+            issuerRegistry.init();
+            try {
+                FhirService hapiPath = new FhirService(new RequestCoalescer(), issuerRegistry, new HedgedCaller());
+                FhirService fastPath = new FhirService(new RequestCoalescer(), issuerRegistry, new HedgedCaller());
+                ReflectionTestUtils.setField(fastPath, "fastPathEnabled", true);
+                List<String> ids = List.of("p1", "missing-1", "p2", "p3");
+
+                List<PatientSummary> found = fastPath.searchPatientSummaries(ids, null, "token");
+                assertEquals(List.of("p1", "p2", "p3"), found.stream().map(PatientSummary::getId).toList());
+                assertEquals(hapiPath.searchPatientSummaries(ids, null, "token"), found);
+
+                stub.updatePatient("p2");
+                Instant updatedAfter = Instant.parse("2024-01-02T00:00:00Z");
+                List<PatientSummary> changed = fastPath.searchPatientSummaries(ids, updatedAfter, "token");
+                assertEquals(List.of("p2"), changed.stream().map(PatientSummary::getId).toList());
+                assertEquals(hapiPath.searchPatientSummaries(ids, updatedAfter, "token"), changed);
+
+                List<PatientSummary> updated = fastPath.searchUpdatedPatientSummaries(updatedAfter, "token", null);
+                assertEquals(changed, updated);
+                assertEquals(hapiPath.searchUpdatedPatientSummaries(updatedAfter, "token", null), updated);
+            } finally {
+                issuerRegistry.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void checkUnderBaseUrl_ShouldOnlyAcceptLinksUnderTheFhirBase() {
+        String base = "https://fhir.example.org/api/FHIR/R4";
+
+        assertDoesNotThrow(() -> FhirService.checkUnderBaseUrl(base,
+                "https://fhir.example.org:443/api/FHIR/R4/Patient?_getpages=abc&_offset=8"));
+        for (String link : List.of(
+                "https://attacker.example.com/api/FHIR/R4/Patient?_getpages=abc",
+                "http://fhir.example.org/api/FHIR/R4/Patient?_getpages=abc",
+                "https://fhir.example.org:8443/api/FHIR/R4/Patient",
+                "https://fhir.example.org/api/FHIR/R4x/Patient",
+                "https://fhir.example.org/api/FHIR/R4/../../admin",
+                "https://user@fhir.example.org/api/FHIR/R4/Patient",
+                "/api/FHIR/R4/Patient?_getpages=abc")) {
+            assertThrows(IllegalStateException.class, () -> FhirService.checkUnderBaseUrl(base, link), link);
+        }
+    }
+
+    static String sample(String name) {
+        try (InputStream in = PatientSummaryReaderTest.class.getResourceAsStream("/patients/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A searchset page holding the given samples and an {@code OperationOutcome}, with an optional next link.
+     */
+    static String searchBundle(List<String> samples, String next) {
+        StringBuilder json = new StringBuilder("{\"resourceType\": \"Bundle\", \"type\": \"searchset\", \"link\": [");
+        json.append("{\"relation\": \"self\", \"url\": \"https://fhir.example.org/Patient\"}");
+        if (next != null) {
+            json.append(", {\"relation\": \"next\", \"url\": \"").append(next).append("\"}");
+        }
+        json.append("], \"entry\": [");
+        for (String sample : samples) {
+            json.append("{\"resource\": ")
+                    .append(sample(sample))
+                    .append(", \"search\": {\"mode\": \"match\"}}, ");
+        }
+        json.append("{\"resource\": {\"resourceType\": \"OperationOutcome\", \"issue\": [{\"severity\": \"information\",")
+                .append(" \"code\": \"informational\", \"diagnostics\": \"Some ids were not found\"}]},")
+                .append(" \"search\": {\"mode\": \"outcome\"}}]}");
+        return json.toString();
+    }
+
+    private static PatientSummary hapiSummary(String json) {
+        return fhirService.toSummary(fhirContext.newJsonParser().parseResource(Patient.class, json));
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,178 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.AuditRecord;
+import com.htdhealth.SmartOnFhirHyperspaceDemo.loadtest.StubSmartServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PatientSyncServiceTest {
+
+    private static FhirContext fhirContext;
+
+    @TempDir
+    Path tempDir;
+
+    private StubSmartServer stub;
+    private IssuerRegistry issuerRegistry;
+    private FhirService fhirService;
+    private PatientStore patientStore;
+    private AuditTrail auditTrail;
+    private Path stateFile;
+    private PatientSyncService syncService;
+
+    @BeforeAll
+    static void createContext() {
+        fhirContext = FhirContext.forR4();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubSmartServer();
+
+        issuerRegistry = new IssuerRegistry(fhirContext);
+        ReflectionTestUtils.setField(issuerRegistry, "defaultFhirBaseUrl", stub.fhirBaseUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "defaultClientId", "test-client");
+        ReflectionTestUtils.setField(issuerRegistry, "defaultTokenUrl", stub.tokenUrl());
+        ReflectionTestUtils.setField(issuerRegistry, "registryFile", "");
+        issuerRegistry.init();
+
+        BackendTokenService backendTokenService = mock(BackendTokenService.class);
+        when(backendTokenService.isConfigured()).thenReturn(true);
+        when(backendTokenService.getAccessToken()).thenReturn("backend-token");
+        when(backendTokenService.getClientId()).thenReturn("backend-client");
+
+        fhirService = new FhirService(new RequestCoalescer(), issuerRegistry, new HedgedCaller());
+        patientStore = new PatientStore(new DefaultListableBeanFactory().getBeanProvider(PatientStoreListener.class));
+        auditTrail = mock(AuditTrail.class);
+        stateFile = tempDir.resolve("sync-state.properties");
+
+        syncService = new PatientSyncService(fhirService, backendTokenService, patientStore, auditTrail);
+        ReflectionTestUtils.setField(syncService, "batchSize", 4);
+        ReflectionTestUtils.setField(syncService, "requestsPerSecond", 1000.0);
+        ReflectionTestUtils.setField(syncService, "overlapMs", 0L);
+        ReflectionTestUtils.setField(syncService, "stateFile", stateFile.toString());
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add("p-" + i);
+        }
+        fhirService.searchPatientSummaries(ids, null, "backend-token").forEach(patientStore::save);
+    }
+
+    @AfterEach
+    void tearDown() {
+        issuerRegistry.shutdown();
+        stub.close();
+    }
+
+    @Test
+    void syncChangedPatients_FirstCycle_ShouldSearchHeldIdsInBatchesAndPersistWatermark() throws Exception {
+        Instant before = Instant.now();
+        long searches = stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH);
+
+        assertEquals(0, syncService.syncChangedPatients());
+
+        assertEquals(searches + 3, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        Properties state = state();
+        assertFalse(Instant.parse(state.getProperty("watermark")).isBefore(before));
+        assertNull(state.getProperty("cycleStart"));
+        assertEquals("0", state.getProperty("nextOffset"));
+        verifyNoInteractions(auditTrail);
+    }
+
+    @Test
+    void syncChangedPatients_ShouldApplyAndAuditOnlyChangedPatients() throws Exception {
+        syncService.syncChangedPatients();
+        stub.updatePatient("p-3");
+
+        assertEquals(1, syncService.syncChangedPatients());
+
+        assertEquals("2", patientStore.findById("p-3").orElseThrow().getVersionId());
+        assertEquals("1", patientStore.findById("p-4").orElseThrow().getVersionId());
+        verify(auditTrail).record(AuditRecord.Action.PATIENT_SYNC, fhirService.getDefaultIssuer(), "backend-client",
+                "p-3", true);
+        verifyNoMoreInteractions(auditTrail);
+    }
+
+    @Test
+    void syncChangedPatients_InterruptedCycle_ShouldResumeFromNextOffset() throws Exception {
+        Instant cycleStart = Instant.now();
+        Files.writeString(stateFile, "watermark=2023-01-01T00\\:00\\:00Z\ncycleStart=" + cycleStart.toString()
+                .replace(":", "\\:") + "\nnextOffset=8\n");
+        stub.updatePatient("p-1");
+        stub.updatePatient("p-9");
+        long searches = stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH);
+
+        assertEquals(1, syncService.syncChangedPatients());
+
+        assertEquals(searches + 1, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        assertEquals("1", patientStore.findById("p-1").orElseThrow().getVersionId());
+        assertEquals("2", patientStore.findById("p-9").orElseThrow().getVersionId());
+        assertEquals(cycleStart, Instant.parse(state().getProperty("watermark")));
+        assertEquals("0", state().getProperty("nextOffset"));
+    }
+
+    @Test
+    void syncChangedPatients_UnscopedSearch_ShouldOnlyApplyHeldPatients() throws Exception {
+        ReflectionTestUtils.setField(syncService, "unscopedSearchEnabled", true);
+        syncService.syncChangedPatients();
+        long searches = stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH);
+        stub.updatePatient("p-3");
+        stub.updatePatient("not-held");
+
+        assertEquals(1, syncService.syncChangedPatients());
+
+        assertEquals(searches + 1, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        assertEquals("2", patientStore.findById("p-3").orElseThrow().getVersionId());
+        assertTrue(patientStore.findById("not-held").isEmpty());
+    }
+
+    @Test
+    void syncChangedPatients_UnscopedSearchRejected_ShouldFallBackToIdBatches() throws Exception {
+        ReflectionTestUtils.setField(syncService, "unscopedSearchEnabled", true);
+        stub.rejectUnscopedPatientSearch(true);
+        syncService.syncChangedPatients();
+        stub.updatePatient("p-5");
+        long searches = stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH);
+
+        assertEquals(1, syncService.syncChangedPatients());
+
+        // One rejected unscoped search, then the three id batches
+        assertEquals(searches + 4, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        assertEquals("2", patientStore.findById("p-5").orElseThrow().getVersionId());
+
+        stub.updatePatient("p-6");
+        searches = stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH);
+
+        assertEquals(1, syncService.syncChangedPatients());
+
+        // Id batches only from then on
+        assertEquals(searches + 3, stub.requestCount(StubSmartServer.Endpoint.PATIENT_SEARCH));
+        assertEquals("2", patientStore.findById("p-6").orElseThrow().getVersionId());
+    }
+
+    private Properties state() throws Exception {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(stateFile)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,146 @@
+package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestCoalescerTest {
+
+    private RequestCoalescer requestCoalescer;
+
+    @BeforeEach
+    void setUp() {
+        requestCoalescer = new RequestCoalescer();
+    }
+
+    @Test
+    void execute_ConcurrentIdenticalRequests_ShouldShareOneUpstreamCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> requestCoalescer.execute("Patient/1|sub:a", () -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return "patient-1";
+                })));
+            }
+
+            while (calls.get() == 0) {
+                Thread.onSpinWait();
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("patient-1", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(0, requestCoalescer.inFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_JoiningCaller_ShouldWaitNoLongerThanItsOwnDeadline() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<String> leader = executor.submit(() -> requestCoalescer.execute("Patient/1|tok:a", () -> {
+                started.countDown();
+                await(release);
+                return "patient-1";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(100)).attach()) {
+                assertThrows(DeadlineExceededException.class,
+                        () -> requestCoalescer.execute("Patient/1|tok:a", () -> "not called"));
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+            release.countDown();
+            assertEquals("patient-1", leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_DifferentKeys_ShouldNotShareResults() {
+        String first = requestCoalescer.execute("Patient/1|sub:a", () -> "a");
+        String second = requestCoalescer.execute("Patient/1|sub:b", () -> "b");
+
+        assertEquals("a", first);
+        assertEquals("b", second);
+    }
+
+    @Test
+    void execute_SequentialRequests_ShouldNotCacheResults() {
+        AtomicInteger calls = new AtomicInteger();
+
+        requestCoalescer.execute("Patient/1|sub:a", calls::incrementAndGet);
+        requestCoalescer.execute("Patient/1|sub:a", calls::incrementAndGet);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void execute_WhenLoaderFails_ShouldRethrowAndClearKey() {
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> requestCoalescer.execute("Patient/1|sub:a", () -> {
+                    throw new RuntimeException("upstream error");
+                }));
+
+        assertEquals("upstream error", exception.getMessage());
+        assertEquals(0, requestCoalescer.inFlightCount());
+    }
+
+    @Test
+    void subjectOf_JwtTokensForSameUser_ShouldNotShareSubject() {
+        String first = jwt("{\"iss\":\"https://ehr\",\"sub\":\"user-1\",\"scope\":\"patient/Patient.read\"}");
+        String second = jwt("{\"iss\":\"https://ehr\",\"sub\":\"user-1\",\"scope\":\"launch/patient\"}");
+
+        assertNotEquals(TokenSubjects.subjectOf(first), TokenSubjects.subjectOf(second));
+        assertEquals(TokenSubjects.subjectOf(first), TokenSubjects.subjectOf(first));
+    }
+
+    @Test
+    void subjectOf_OpaqueTokens_ShouldNotShareSubject() {
+        assertNotEquals(TokenSubjects.subjectOf("opaque-a"), TokenSubjects.subjectOf("opaque-b"));
+    }
+
+    private static String jwt(String payload) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"none\"}".getBytes())
+                + "." + encoder.encodeToString(payload.getBytes())
+                + ".signature";
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
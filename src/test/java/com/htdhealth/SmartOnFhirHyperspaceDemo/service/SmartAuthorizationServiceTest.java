@@ -1,5 +1,6 @@
 package com.htdhealth.SmartOnFhirHyperspaceDemo.service;
 
+import com.htdhealth.SmartOnFhirHyperspaceDemo.dto.IssuerConfig;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -22,6 +23,12 @@ class SmartAuthorizationServiceTest {
     @Mock
     private AuthUrlBuilder authUrlBuilder;
 
+    @Mock
+    private IssuerRegistry issuerRegistry;
+
+    @Mock
+    private IssuerClient issuerClient;
+
     private SmartAuthorizationService smartAuthorizationService;
 
     private static final String TEST_CLIENT_ID = "test-client-id";
@@ -30,9 +37,8 @@ class SmartAuthorizationServiceTest {
     @BeforeEach
     void setUp() {
         smartAuthorizationService = new SmartAuthorizationService(
-                fhirCapabilityService, pkceService, authUrlBuilder);
+                fhirCapabilityService, pkceService, authUrlBuilder, issuerRegistry);
 
-        ReflectionTestUtils.setField(smartAuthorizationService, "clientId", TEST_CLIENT_ID);
         ReflectionTestUtils.setField(smartAuthorizationService, "redirectUri", TEST_REDIRECT_URI);
     }
 
@@ -48,6 +54,7 @@ class SmartAuthorizationServiceTest {
         String codeChallenge = "test-challenge";
         String expectedUrl = "https://fhir.epic.com/oauth2/authorize?response_type=code&client_id=test-client-id";
 
+        givenIssuer(fhirUrl, null);
         when(fhirCapabilityService.getAuthorizationEndpoint(fhirUrl)).thenReturn(authEndpoint);
         when(pkceService.generateCodeVerifier()).thenReturn(codeVerifier);
         when(pkceService.generateCodeChallenge(codeVerifier)).thenReturn(codeChallenge);
@@ -65,6 +72,26 @@ class SmartAuthorizationServiceTest {
         verify(pkceService).storeCodeVerifier(state, codeVerifier);
         verify(authUrlBuilder).buildAuthorizationUrl(authEndpoint, TEST_CLIENT_ID, TEST_REDIRECT_URI,
                 scope, state, fhirUrl, codeChallenge, launch);
+        assertEquals(fhirUrl, smartAuthorizationService.retrieveIssuer(state));
+    }
+
+    @Test
+    void buildAuthorizationUrl_WithConfiguredAuthorizeUrl_ShouldSkipDiscovery() {
+        // Arrange
+        String fhirUrl = "https://fhir.other-ehr.org/R4";
+        String authEndpoint = "https://fhir.other-ehr.org/oauth2/authorize";
+        givenIssuer(fhirUrl, authEndpoint);
+        when(pkceService.generateCodeVerifier()).thenReturn("verifier");
+        when(pkceService.generateCodeChallenge("verifier")).thenReturn("challenge");
+        when(authUrlBuilder.buildAuthorizationUrl(authEndpoint, TEST_CLIENT_ID, TEST_REDIRECT_URI,
+                "patient/*.read", "state", fhirUrl, "challenge", null)).thenReturn("url");
+
+        // Act
+        String result = smartAuthorizationService.buildAuthorizationUrl(fhirUrl, "state", "patient/*.read", null);
+
+        // Assert
+        assertEquals("url", result);
+        verifyNoInteractions(fhirCapabilityService);
     }
 
     @Test
@@ -74,6 +101,7 @@ class SmartAuthorizationServiceTest {
         String state = "test-state";
         String scope = "patient/*.read";
 
+        givenIssuer(fhirUrl, null);
         when(fhirCapabilityService.getAuthorizationEndpoint(fhirUrl))
                 .thenThrow(new RuntimeException("FHIR service error"));
 
@@ -98,4 +126,14 @@ class SmartAuthorizationServiceTest {
         assertEquals(expectedVerifier, result);
         verify(pkceService).retrieveCodeVerifier(state);
     }
-}
\ No newline at end of file
+
+    private void givenIssuer(String fhirUrl, String authorizeUrl) {
+        when(issuerRegistry.resolve(fhirUrl)).thenReturn(issuerClient);
+        when(issuerClient.getConfig()).thenReturn(IssuerConfig.builder()
+                .issuer(fhirUrl)
+                .fhirBaseUrl(fhirUrl)
+                .clientId(TEST_CLIENT_ID)
+                .authorizeUrl(authorizeUrl)
+                .build());
+    }
+}